@@ -0,0 +1,54 @@
+package blockchain.utils;
+
+import currdig.core.Entry;
+import java.security.KeyPair;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures creating a {@link Block} from its transactions, which builds the
+ * Merkle tree, and checking the hash of a mined block.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class BlockBenchmark {
+
+    @Param({"10", "100", "1000"})
+    public int transactions;
+
+    private CopyOnWriteArraySet<Entry> entries; // Transactions of the block
+    private Block block;                        // Mined block
+
+    @Setup
+    public void setup() throws Exception {
+        KeyPair entity = Fixtures.keyPair();
+        KeyPair[] students = {Fixtures.keyPair(), Fixtures.keyPair(), Fixtures.keyPair()};
+        entries = Fixtures.entries(transactions, entity, students);
+        block = Fixtures.minedBlock(String.format("%08d", 0), entries);
+    }
+
+    @Benchmark
+    public Block construct() {
+        return new Block(String.format("%08d", 0), entries);
+    }
+
+    @Benchmark
+    public boolean isValid() {
+        return block.isValid();
+    }
+}
@@ -0,0 +1,86 @@
+package blockchain.utils;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures {@link BlockChain#isValid()}, the whole-chain file written by
+ * {@link BlockChain#save(String)} and read by {@link BlockChain#load(String)},
+ * appending every block with {@link BlockChain#add(Block)} and finding the
+ * first block by hash, for chains of 100 and 1000 blocks with 20 entries each.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class ChainBenchmark {
+
+    @Param({"100", "1000"})
+    public int blocks;
+
+    private BlockChain chain;   // Chain of mined blocks
+    private File saved;         // File holding the saved chain
+    private File written;       // File written by the save benchmark
+    private String firstHash;   // Hash of the first block, the farthest from the top
+
+    @Setup
+    public void setup() throws Exception {
+        chain = Fixtures.chain(blocks, 20);
+        saved = File.createTempFile("chain", ".obj");
+        written = File.createTempFile("chain", ".obj");
+        chain.save(saved.getPath());
+        firstHash = chain.get(0).getCurrentHash();
+        System.out.printf("%n%d blocks: %d bytes%n", blocks, saved.length());
+    }
+
+    @TearDown
+    public void tearDown() {
+        saved.delete();
+        written.delete();
+    }
+
+    @Benchmark
+    public boolean isValid() {
+        return chain.isValid();
+    }
+
+    @Benchmark
+    public void save() throws Exception {
+        chain.save(written.getPath());
+    }
+
+    @Benchmark
+    public BlockChain load() throws Exception {
+        BlockChain loaded = new BlockChain();
+        loaded.load(saved.getPath());
+        return loaded;
+    }
+
+    @Benchmark
+    public BlockChain append() throws Exception {
+        BlockChain appended = new BlockChain();
+        for (Block block : chain.getChain()) {
+            appended.add(block);
+        }
+        return appended;
+    }
+
+    @Benchmark
+    public int indexOfFirst() {
+        return chain.indexOf(firstHash);
+    }
+}
@@ -0,0 +1,147 @@
+package blockchain.utils;
+
+import currdig.core.Entry;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.security.KeyPair;
+import java.security.PublicKey;
+import java.time.LocalDateTime;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the binary codec with the Java serialization previously used for
+ * blocks, in encoded size and in encode/decode time.
+ *
+ * Blocks now replace themselves with the codec form when serialized, so the
+ * previous format is reproduced with {@link LegacyBlock} and
+ * {@link LegacyEntry}, which hold the same fields the old classes serialized
+ * (including the Merkle tree and the full PublicKey objects). The encoded
+ * sizes are printed when each trial starts.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class CodecBenchmark {
+
+    @Param({"10", "100", "1000"})
+    public int transactions;
+
+    private Block block;          // Block encoded by the codec
+    private LegacyBlock legacy;   // Same block in the previous serialized form
+    private byte[] codecBytes;    // Codec encoding of the block
+    private byte[] javaBytes;     // Java serialization of the legacy form
+
+    @Setup
+    public void setup() throws Exception {
+        KeyPair entity = Fixtures.keyPair();
+        KeyPair[] students = {Fixtures.keyPair(), Fixtures.keyPair(), Fixtures.keyPair()};
+        block = Fixtures.minedBlock(String.format("%08d", 0), Fixtures.entries(transactions, entity, students));
+        legacy = new LegacyBlock(block);
+
+        codecBytes = BlockCodec.encode(block);
+        javaBytes = serialize(legacy);
+        System.out.printf("%n%d transactions: codec %d bytes, java serialization %d bytes%n",
+                transactions, codecBytes.length, javaBytes.length);
+    }
+
+    @Benchmark
+    public byte[] encodeCodec() throws Exception {
+        return BlockCodec.encode(block);
+    }
+
+    @Benchmark
+    public Block decodeCodec() throws Exception {
+        return BlockCodec.decodeBlock(codecBytes);
+    }
+
+    @Benchmark
+    public byte[] encodeJavaSerialization() throws Exception {
+        return serialize(legacy);
+    }
+
+    @Benchmark
+    public Object decodeJavaSerialization() throws Exception {
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(javaBytes))) {
+            return in.readObject();
+        }
+    }
+
+    /**
+     * Serializes an object with Java serialization.
+     *
+     * @param object The object to serialize
+     * @return The serialized bytes
+     * @throws Exception if the object cannot be serialized
+     */
+    private static byte[] serialize(Serializable object) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(object);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Fields serialized by Entry before the codec was introduced.
+     */
+    static class LegacyEntry implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        String description;
+        PublicKey entityPublicKey;
+        PublicKey targetUserPublicKey;
+        LocalDateTime dateTime;
+
+        LegacyEntry(Entry entry) {
+            description = entry.getDescription();
+            entityPublicKey = entry.getEntityPublicKey();
+            targetUserPublicKey = entry.getTargetUserPublicKey();
+            dateTime = entry.getDateTime();
+        }
+    }
+
+    /**
+     * Fields serialized by Block before the codec was introduced.
+     */
+    static class LegacyBlock implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        String previousHash;
+        int nonce;
+        String currentHash;
+        CopyOnWriteArraySet<LegacyEntry> transactions = new CopyOnWriteArraySet<>();
+        String merkleRoot;
+        MerkleTree merkleTree;
+
+        LegacyBlock(Block block) {
+            previousHash = block.getPreviousHash();
+            nonce = block.getNonce();
+            currentHash = block.getCurrentHash();
+            for (Entry entry : block.transactions()) {
+                transactions.add(new LegacyEntry(entry));
+            }
+            merkleRoot = block.getMerkleRoot();
+            merkleTree = block.getMerkleTree();
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package blockchain.utils;
+
+import currdig.core.Entry;
+import java.security.KeyPair;
+import java.time.LocalDateTime;
+import java.util.concurrent.CopyOnWriteArraySet;
+
+/**
+ * Builds the entries, blocks and keys used by the benchmarks. Entries are
+ * created with a fixed time, so no network time lookup is made.
+ */
+public final class Fixtures {
+
+    private Fixtures() {
+    }
+
+    /**
+     * Generates an EC key pair like the ones created for users.
+     *
+     * @return A new key pair
+     * @throws Exception if the key pair cannot be generated
+     */
+    public static KeyPair keyPair() throws Exception {
+        return SecurityUtils.generateECKeyPair(256);
+    }
+
+    /**
+     * Creates the given number of entries issued by one entity to a small set
+     * of students.
+     *
+     * @param count The number of entries
+     * @param entity The key pair of the issuing entity
+     * @param students The key pairs of the students
+     * @return The entries, in creation order
+     */
+    public static CopyOnWriteArraySet<Entry> entries(int count, KeyPair entity, KeyPair[] students) {
+        LocalDateTime time = LocalDateTime.of(2024, 7, 15, 10, 0);
+        CopyOnWriteArraySet<Entry> entries = new CopyOnWriteArraySet<>();
+        for (int i = 0; i < count; i++) {
+            entries.add(new Entry("Certificate " + i + " - Course completed with grade " + (10 + i % 11),
+                    entity.getPublic(), students[i % students.length].getPublic(), time.plusSeconds(i)));
+        }
+        return entries;
+    }
+
+    /**
+     * Creates and mines a block on top of the given hash with a low difficulty.
+     *
+     * @param previousHash The hash of the previous block
+     * @param entries The transactions of the block
+     * @return The mined block
+     * @throws Exception if the block cannot be mined
+     */
+    public static Block minedBlock(String previousHash, CopyOnWriteArraySet<Entry> entries) throws Exception {
+        Block block = new Block(previousHash, entries);
+        int zeros = 1;
+        int nonce = new Miner(null).mine(block.getMinerData(), zeros);
+        block.setNonce(nonce, zeros);
+        return block;
+    }
+
+    /**
+     * Creates a blockchain with the given number of blocks.
+     *
+     * @param blocks The number of blocks
+     * @param transactionsPerBlock The number of entries in each block
+     * @return The blockchain
+     * @throws Exception if the blocks cannot be mined
+     */
+    public static BlockChain chain(int blocks, int transactionsPerBlock) throws Exception {
+        KeyPair entity = keyPair();
+        KeyPair[] students = {keyPair(), keyPair(), keyPair(), keyPair()};
+        BlockChain chain = new BlockChain();
+        for (int i = 0; i < blocks; i++) {
+            CopyOnWriteArraySet<Entry> entries = new CopyOnWriteArraySet<>();
+            for (Entry entry : entries(transactionsPerBlock, entity, students)) {
+                entries.add(new Entry(entry.getDescription() + " #" + i, entry.getEntityPublicKey(),
+                        entry.getTargetUserPublicKey(), entry.getDateTime()));
+            }
+            chain.add(minedBlock(chain.getLastBlockHash(), entries));
+        }
+        return chain;
+    }
+}
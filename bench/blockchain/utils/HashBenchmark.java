@@ -0,0 +1,55 @@
+package blockchain.utils;
+
+import java.security.KeyPair;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the string hashing functions: {@link Miner#getHash(String, int)}
+ * used for block hashes, {@link Miner#getHash(String)} and
+ * {@link Hash#getHash(String)} used for transaction ids.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class HashBenchmark {
+
+    private String minerData;   // Previous hash followed by a Merkle root
+    private String entry;       // Text of a typical entry
+    private int nonce;
+
+    @Setup
+    public void setup() throws Exception {
+        minerData = Miner.getHash("previous block") + Hash.getHash("merkle root");
+        entry = Fixtures.entries(1, Fixtures.keyPair(), new KeyPair[]{Fixtures.keyPair()})
+                .iterator().next().toString();
+        nonce = 1;
+    }
+
+    @Benchmark
+    public String minerHashWithNonce() {
+        return Miner.getHash(minerData, nonce++ & Integer.MAX_VALUE);
+    }
+
+    @Benchmark
+    public String minerHash() throws Exception {
+        return Miner.getHash(entry);
+    }
+
+    @Benchmark
+    public String sha256Hex() {
+        return Hash.getHash(entry);
+    }
+}
@@ -0,0 +1,70 @@
+package blockchain.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures building a {@link MerkleTree}, creating a proof for one of its
+ * leaves and verifying that proof, for trees of 10 up to 100 000 leaves and
+ * for both versions of the tree. The proven leaf is the last one, the worst
+ * case for legacy verification: with an odd number of nodes its proof repeats
+ * its own hash, so every order of concatenation is tried before the proof is
+ * rejected. SHA-256 proofs are checked in a single pass.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class MerkleBenchmark {
+
+    @Param({"10", "1000", "100000"})
+    public int leaves;
+
+    @Param({"1", "2"})
+    public int version;
+
+    private List<String> data;  // Leaves of the tree
+    private MerkleTree tree;    // Tree built from the leaves
+    private String leaf;        // Leaf whose proof is created
+    private List<String> proof; // Proof of the leaf
+
+    @Setup
+    public void setup() {
+        data = new ArrayList<>(leaves);
+        for (int i = 0; i < leaves; i++) {
+            data.add("Certificate " + i + " - Course completed with grade " + (10 + i % 11));
+        }
+        tree = new MerkleTree(data, version);
+        leaf = data.get(leaves - 1);
+        proof = tree.getProof(leaf);
+    }
+
+    @Benchmark
+    public MerkleTree build() {
+        return new MerkleTree(data, version);
+    }
+
+    @Benchmark
+    public List<String> getProof() {
+        return tree.getProof(leaf);
+    }
+
+    @Benchmark
+    public boolean isProofValid() {
+        return MerkleTree.isProofValid(leaf, proof);
+    }
+}
@@ -0,0 +1,132 @@
+package blockchain.utils;
+
+import java.security.MessageDigest;
+import java.util.Base64;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the hashes per second of the nonce search, comparing the previous
+ * mining loop (random nonce, string concatenation, Base64 encoding and prefix
+ * check on each attempt), a MessageDigest fed with the encoded message and the
+ * nonce digits, and {@link Miner.NonceHasher}, which hashes only the nonce
+ * digits from the SHA3-256 midstate of the message. The mine benchmark runs
+ * the whole miner with all its threads at a low difficulty and prints the
+ * hash rate it reports.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class MinerBenchmark {
+
+    private static final int ATTEMPTS = 1000;
+    private static final int MINE_ZEROS = 3;
+
+    @Param({"4", "5", "6"})
+    public int zeros;
+
+    private String message;         // Previous hash followed by a Merkle root
+    private String prefix;          // Prefix checked by the previous loop
+    private MessageDigest digest;   // Digest used by the previous loop
+    private byte[] messageBytes;    // Encoded message for the MessageDigest loop
+    private byte[] digits;          // Nonce digits for the MessageDigest loop
+    private byte[] hash;            // Digest of the MessageDigest loop
+    private Miner.NonceHasher hasher;
+    private int nonce;
+    private Miner miner;
+
+    @Setup
+    public void setup() throws Exception {
+        message = Miner.getHash("previous block") + Miner.getHash("merkle root");
+        prefix = String.format("%0" + zeros + "d", 0);
+        digest = MessageDigest.getInstance(Miner.hashAlgorithm);
+        messageBytes = message.getBytes();
+        digits = new byte[10];
+        hash = new byte[digest.getDigestLength()];
+        hasher = new Miner.NonceHasher(message, zeros);
+        nonce = 1;
+        miner = new Miner(null);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ATTEMPTS)
+    public int previousLoop() {
+        int found = 0;
+        for (int i = 0; i < ATTEMPTS; i++) {
+            int number = Math.abs(ThreadLocalRandom.current().nextInt());
+            String hash = Base64.getEncoder().encodeToString(digest.digest((message + number).getBytes()));
+            if (hash.startsWith(prefix)) {
+                found = number;
+            }
+        }
+        return found;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ATTEMPTS)
+    public int messageDigest() throws Exception {
+        int found = 0;
+        for (int i = 0; i < ATTEMPTS; i++) {
+            int number = nonce++ & Integer.MAX_VALUE;
+            int start = digits.length;
+            int value = number;
+            do {
+                digits[--start] = (byte) ('0' + value % 10);
+                value /= 10;
+            } while (value != 0);
+            digest.update(messageBytes);
+            digest.update(digits, start, digits.length - start);
+            digest.digest(hash, 0, hash.length);
+            if (hash[0] == 0) {
+                found = number;
+            }
+        }
+        return found;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ATTEMPTS)
+    public int nonceHasher() throws Exception {
+        int found = 0;
+        for (int i = 0; i < ATTEMPTS; i++) {
+            int number = nonce++ & Integer.MAX_VALUE;
+            if (hasher.test(number)) {
+                found = number;
+            }
+        }
+        return found;
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 2)
+    @Measurement(iterations = 5)
+    public int mine() throws Exception {
+        return miner.mine(message + nonce++, MINE_ZEROS);
+    }
+
+    @TearDown(Level.Iteration)
+    public void report() {
+        if (miner.getHashCount() > 0) {
+            System.out.printf("%n%d threads: %d H/s%n", miner.getNumThreads(), miner.getHashRate());
+        }
+    }
+}
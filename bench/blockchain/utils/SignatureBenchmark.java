@@ -0,0 +1,51 @@
+package blockchain.utils;
+
+import java.security.KeyPair;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures signing an entry with {@link SecurityUtils#sign(byte[],
+ * java.security.PrivateKey)} and verifying the signature with
+ * {@link SecurityUtils#verifySign(byte[], byte[], java.security.PublicKey)},
+ * using the EC keys created for users.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class SignatureBenchmark {
+
+    private KeyPair keys;       // Key pair of the entity
+    private byte[] data;        // Text of the signed entry
+    private byte[] signature;   // Signature of the entry
+
+    @Setup
+    public void setup() throws Exception {
+        keys = Fixtures.keyPair();
+        data = Fixtures.entries(1, keys, new KeyPair[]{Fixtures.keyPair()})
+                .iterator().next().toString().getBytes();
+        signature = SecurityUtils.sign(data, keys.getPrivate());
+    }
+
+    @Benchmark
+    public byte[] sign() throws Exception {
+        return SecurityUtils.sign(data, keys.getPrivate());
+    }
+
+    @Benchmark
+    public boolean verifySign() throws Exception {
+        return SecurityUtils.verifySign(data, signature, keys.getPublic());
+    }
+}
@@ -0,0 +1,109 @@
+package currdig.utils;
+
+import blockchain.utils.Fixtures;
+import currdig.core.Entry;
+import java.lang.reflect.Proxy;
+import java.net.InetAddress;
+import java.rmi.registry.LocateRegistry;
+import java.rmi.registry.Registry;
+import java.rmi.server.UnicastRemoteObject;
+import java.security.KeyPair;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import p2p.IremoteP2P;
+
+/**
+ * Compares RMI calls over the default sockets and over the compressed sockets
+ * of {@link RMI#SOCKET_FACTORY}: a call without payload (getAddress) and a
+ * call returning a large list of entries (getTransactions), as in the
+ * synchronization of the pools and of the chain.
+ *
+ * On the loopback interface the gain comes from the larger buffers and the
+ * fewer bytes copied; on slow links the smaller payloads matter more.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class SocketFactoryBenchmark {
+
+    @Param({"plain", "compressed"})
+    public String sockets;
+
+    @Param({"5000"})
+    public int entries;
+
+    private IremoteP2P node;     // Node served over RMI
+    private Registry registry;   // Registry of the node
+    private IremoteP2P peer;     // Stub of the node
+
+    @Setup
+    public void setup() throws Exception {
+        boolean compressed = "compressed".equals(sockets);
+        int port = compressed ? 21299 : 21399;
+        String address = String.format("//%s:%d/bench", InetAddress.getLocalHost().getHostAddress(), port);
+
+        // A node answering from memory
+        KeyPair entity = Fixtures.keyPair();
+        List<Entry> list = new ArrayList<>(Fixtures.entries(entries, entity,
+                new KeyPair[]{Fixtures.keyPair(), Fixtures.keyPair()}));
+        node = (IremoteP2P) Proxy.newProxyInstance(IremoteP2P.class.getClassLoader(), new Class<?>[]{IremoteP2P.class},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "getAddress":
+                            return address;
+                        case "getTransactions":
+                            return list;
+                        case "hashCode":
+                            return System.identityHashCode(proxy);
+                        case "equals":
+                            return proxy == args[0];
+                        default:
+                            return null;
+                    }
+                });
+
+        if (compressed) {
+            UnicastRemoteObject.exportObject(node, port, RMI.SOCKET_FACTORY, RMI.SOCKET_FACTORY);
+            registry = LocateRegistry.createRegistry(port, RMI.SOCKET_FACTORY, RMI.SOCKET_FACTORY);
+            registry.rebind("bench", node);
+            peer = (IremoteP2P) RMI.getRemote(address);
+        } else {
+            UnicastRemoteObject.exportObject(node, port);
+            registry = LocateRegistry.createRegistry(port);
+            registry.rebind("bench", node);
+            peer = (IremoteP2P) LocateRegistry.getRegistry(RMI.getAdressServer(address), port).lookup("bench");
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        UnicastRemoteObject.unexportObject(node, true);
+        UnicastRemoteObject.unexportObject(registry, true);
+    }
+
+    @Benchmark
+    public String ping() throws Exception {
+        return peer.getAddress();
+    }
+
+    @Benchmark
+    public List<Entry> transactions() throws Exception {
+        return peer.getTransactions();
+    }
+}
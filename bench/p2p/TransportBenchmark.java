@@ -0,0 +1,112 @@
+package p2p;
+
+import blockchain.utils.Fixtures;
+import currdig.core.Entry;
+import currdig.utils.RMI;
+import java.lang.reflect.Proxy;
+import java.net.InetAddress;
+import java.rmi.server.UnicastRemoteObject;
+import java.security.KeyPair;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the RMI and NIO transports on the loopback interface: the latency
+ * of a call without payload (getAddress), the latency of a call returning 100
+ * entries (getTransactions), and the throughput of calls made by 16 threads at
+ * once over the same peer object, where the NIO transport pipelines the calls
+ * on one connection.
+ *
+ * The node served is a stand-in that answers from memory, so the results
+ * measure the transport only. The server and the client use separate
+ * transport instances, so the calls go through the sockets.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class TransportBenchmark {
+
+    private static final int ENTRIES = 100;
+
+    @Param({"rmi", "nio"})
+    public String transport;
+
+    private IremoteP2P node;        // Node served by the server transport
+    private Transport server;       // Transport exporting the node
+    private Transport client;       // Transport calling the node
+    private IremoteP2P peer;        // The node as seen by the client
+
+    @Setup
+    public void setup() throws Exception {
+        int port = "rmi".equals(transport) ? 21099 : 21199;
+        String address = String.format("//%s:%d/bench", InetAddress.getLocalHost().getHostAddress(), port);
+
+        // A node answering from memory
+        KeyPair entity = Fixtures.keyPair();
+        List<Entry> entries = new ArrayList<>(Fixtures.entries(ENTRIES, entity,
+                new KeyPair[]{Fixtures.keyPair(), Fixtures.keyPair()}));
+        node = (IremoteP2P) Proxy.newProxyInstance(IremoteP2P.class.getClassLoader(), new Class<?>[]{IremoteP2P.class},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "getAddress":
+                            return address;
+                        case "getTransactions":
+                            return entries;
+                        case "hashCode":
+                            return System.identityHashCode(proxy);
+                        case "equals":
+                            return proxy == args[0];
+                        default:
+                            return null;
+                    }
+                });
+        UnicastRemoteObject.exportObject(node, 0, RMI.SOCKET_FACTORY, RMI.SOCKET_FACTORY);
+
+        server = "rmi".equals(transport) ? new RmiTransport() : new NioTransport();
+        client = "rmi".equals(transport) ? new RmiTransport() : new NioTransport();
+        server.export(node, address);
+        peer = client.connect(address);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        client.close();
+        server.close();
+        UnicastRemoteObject.unexportObject(node, true);
+    }
+
+    @Benchmark
+    public String ping() throws Exception {
+        return peer.getAddress();
+    }
+
+    @Benchmark
+    public List<Entry> transactions() throws Exception {
+        return peer.getTransactions();
+    }
+
+    @Benchmark
+    @Threads(16)
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public String pingConcurrent() throws Exception {
+        return peer.getAddress();
+    }
+}
@@ -1,6 +1,9 @@
 package blockchain.utils;
 
 import currdig.core.Entry;
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectStreamException;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.List;
@@ -13,6 +16,9 @@ import java.util.concurrent.CopyOnWriteArraySet;
  */
 public class Block implements Serializable {
 
+    // Fixed so that blocks saved by earlier versions can still be read
+    private static final long serialVersionUID = 2148892436375284789L;
+
     // Link to the previous block
     String previousHash;
 
@@ -31,6 +37,10 @@ public class Block implements Serializable {
     // Merkle tree used to calculate the Merkle root
     MerkleTree merkleTree;
 
+    // Store and height the transactions are read from when loaded lazily
+    private transient BlockStore store;
+    private transient int height;
+
     /**
      * Constructor for the Block. Initializes a block with the given previous
      * hash and transactions.
@@ -39,21 +49,123 @@ public class Block implements Serializable {
      * @param entries The transactions for this block
      */
     public Block(String previousHash, CopyOnWriteArraySet<Entry> entries) {
+        this(previousHash, entries, MerkleTree.CURRENT_VERSION);
+    }
+
+    /**
+     * Constructor that builds the Merkle tree of the given version.
+     *
+     * @param previousHash The hash of the previous block
+     * @param entries The transactions for this block
+     * @param merkleVersion The version of the Merkle tree
+     */
+    private Block(String previousHash, CopyOnWriteArraySet<Entry> entries, int merkleVersion) {
         this.previousHash = previousHash;
         this.nonce = 0;
         this.currentHash = null;
         this.transactions = entries;
 
         // Create a Merkle tree from the transactions
-        String[] transactions1 = this.transactions.stream()
-                .map(Entry::toString)
-                .toArray(String[]::new);
-        this.merkleTree = new MerkleTree(transactions1);
+        this.merkleTree = buildMerkleTree(entries, merkleVersion);
 
         // Calculate the Merkle root from the Merkle tree
         this.merkleRoot = this.merkleTree.getRoot();
     }
 
+    /**
+     * Constructor used to rebuild a mined block read from storage. The Merkle
+     * tree is recalculated from the transactions, with the version that
+     * produced the stored Merkle root; the caller compares the roots.
+     *
+     * @param previousHash The hash of the previous block
+     * @param nonce The nonce found by the miner
+     * @param currentHash The hash of the block
+     * @param merkleRoot The stored Merkle root of the block
+     * @param entries The transactions for this block
+     */
+    Block(String previousHash, int nonce, String currentHash, String merkleRoot, CopyOnWriteArraySet<Entry> entries) {
+        this(previousHash, entries, MerkleTree.versionOf(merkleRoot));
+        this.nonce = nonce;
+        this.currentHash = currentHash;
+    }
+
+    /**
+     * Builds the Merkle tree of a set of transactions.
+     *
+     * @param entries The transactions
+     * @param version The version of the Merkle tree
+     * @return The Merkle tree
+     */
+    private static MerkleTree buildMerkleTree(CopyOnWriteArraySet<Entry> entries, int version) {
+        List<String> leaves = new ArrayList<>(entries.size());
+        for (Entry entry : entries) {
+            leaves.add(entry.toString());
+        }
+        return new MerkleTree(leaves, version);
+    }
+
+    /**
+     * Constructor used to rebuild only the header of a block read from
+     * storage. The transactions and the Merkle tree are read from the store
+     * the first time they are accessed.
+     *
+     * @param previousHash The hash of the previous block
+     * @param nonce The nonce found by the miner
+     * @param currentHash The hash of the block
+     * @param merkleRoot The Merkle root of the block's transactions
+     * @param store The store holding the block's transactions
+     * @param height The height of the block in the store
+     */
+    Block(String previousHash, int nonce, String currentHash, String merkleRoot, BlockStore store, int height) {
+        this.previousHash = previousHash;
+        this.nonce = nonce;
+        this.currentHash = currentHash;
+        this.merkleRoot = merkleRoot;
+        this.store = store;
+        this.height = height;
+    }
+
+    /**
+     * Reads the transactions of a lazily loaded block from its store and
+     * rebuilds the Merkle tree, checking it against the Merkle root of the
+     * header.
+     *
+     * @throws IllegalStateException if the body cannot be read or does not
+     * match the header
+     */
+    private synchronized void loadBody() {
+        if (transactions != null || store == null) {
+            return;
+        }
+        try {
+            CopyOnWriteArraySet<Entry> entries = store.readBody(height);
+            MerkleTree tree = buildMerkleTree(entries, MerkleTree.versionOf(merkleRoot));
+            if (!tree.getRoot().equals(merkleRoot)) {
+                throw new IllegalStateException("Block " + height + " body does not match its Merkle root");
+            }
+            this.merkleTree = tree;
+            this.transactions = entries;
+            this.store = null;
+        } catch (IOException ex) {
+            throw new IllegalStateException("Cannot read block " + height + " from the store", ex);
+        }
+    }
+
+    /**
+     * Replaces the block with its compact binary form when it is serialized.
+     * The Merkle tree is not sent; it is rebuilt when the block is read.
+     *
+     * @return The encoded form of the block
+     * @throws ObjectStreamException if the block cannot be encoded
+     */
+    private Object writeReplace() throws ObjectStreamException {
+        try {
+            return new BlockCodec.Encoded(BlockCodec.Encoded.BLOCK, BlockCodec.encode(this));
+        } catch (IOException ex) {
+            throw new InvalidObjectException("Cannot encode block: " + ex.getMessage());
+        }
+    }
+
     /**
      * Returns the previous block's hash.
      *
@@ -78,6 +190,7 @@ public class Block implements Serializable {
      * @return A set of transactions
      */
     public CopyOnWriteArraySet<Entry> transactions() {
+        loadBody();
         return transactions;
     }
 
@@ -88,7 +201,7 @@ public class Block implements Serializable {
      */
     public String getTransactionsString() {
         StringBuilder txt = new StringBuilder();
-        for (Entry transaction : transactions) {
+        for (Entry transaction : transactions()) {
             txt.append(transaction).append("\n");
         }
         return txt.toString();
@@ -124,6 +237,7 @@ public class Block implements Serializable {
      * @return The Merkle tree used to calculate the Merkle root
      */
     public MerkleTree getMerkleTree() {
+        loadBody();
         return merkleTree;
     }
 
@@ -133,7 +247,7 @@ public class Block implements Serializable {
      * @return A list containing the transactions
      */
     public List<Entry> getBuffer() {
-        return new ArrayList<>(transactions);
+        return new ArrayList<>(transactions());
     }
 
     /**
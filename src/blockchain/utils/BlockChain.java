@@ -2,29 +2,93 @@ package blockchain.utils;
 
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InvalidObjectException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.io.ObjectStreamException;
+import java.io.ObjectStreamField;
 import java.io.Serializable;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * The BlockChain class represents a collection of blocks that form the
  * blockchain. It allows for the addition of blocks, validation of the chain,
  * and loading/saving the blockchain to a file.
+ *
+ * When a {@link BlockStore} is attached with {@link #open(BlockStore, String)},
+ * every added block is appended to the store, so saving the chain no longer
+ * rewrites the blocks that are already on disk.
+ *
+ * The blocks are kept in fixed-size segments, so appending a block never
+ * copies the blocks already in the chain, and each block is indexed by its
+ * hash, so a block is found by hash and a duplicate is detected without
+ * scanning the chain. Readers take the current {@link Blocks} snapshot and
+ * never lock: a new block is written after the end of every published
+ * snapshot, and a replaced suffix is written to copies of its segments.
  */
 public class BlockChain implements Serializable {
 
     private static final long serialVersionUID = 202208221009L;
 
-    // List of blocks in the blockchain
-    private CopyOnWriteArrayList<Block> chain;
+    // Form of the chain in files written before the binary encoding, still read to migrate them
+    private static final ObjectStreamField[] serialPersistentFields = {
+        new ObjectStreamField("chain", CopyOnWriteArrayList.class)
+    };
+
+    // Blocks per segment of the chain
+    private static final int SEGMENT_SIZE = 1024;
+
+    // Blocks of the blockchain, replaced by a new snapshot on every change
+    private transient volatile Blocks chain;
+
+    // Height of each block of the chain, by hash
+    private transient Map<String, Integer> heights;
+
+    // Persistent store that receives every added block (not sent over the network)
+    private transient BlockStore store;
 
     /**
      * Constructor that initializes an empty blockchain.
      */
     public BlockChain() {
-        chain = new CopyOnWriteArrayList<>();
+        setBlocks(new ArrayList<>());
+    }
+
+    /**
+     * Constructor that initializes a blockchain with already validated blocks.
+     *
+     * @param blocks The blocks of the blockchain
+     */
+    BlockChain(List<Block> blocks) {
+        setBlocks(blocks);
+    }
+
+    /**
+     * Replaces all the blocks of the chain and rebuilds the index of hashes.
+     *
+     * @param blocks The new blocks of the chain
+     */
+    private void setBlocks(List<Block> blocks) {
+        Map<String, Integer> index = new ConcurrentHashMap<>(Math.max(16, blocks.size() * 2));
+        Blocks updated = new Blocks(new Block[0][], 0);
+        for (Block block : blocks) {
+            updated = updated.append(block);
+            index.put(block.getCurrentHash(), updated.size - 1);
+        }
+        this.heights = index;
+        this.chain = updated;
     }
 
     /**
@@ -35,23 +99,25 @@ public class BlockChain implements Serializable {
      * empty
      */
     public String getLastBlockHash() {
-        if (chain.isEmpty()) {
+        Blocks blocks = chain;
+        if (blocks.size == 0) {
             return String.format("%08d", 0);
         }
-        return chain.get(chain.size() - 1).getCurrentHash();
+        return blocks.get(blocks.size - 1).getCurrentHash();
     }
 
     /**
      * Adds a new block to the blockchain after verifying that it is valid. The
-     * block is checked for duplication and that it links to the previous block.
+     * block is checked for duplication, through the index of hashes, and that
+     * it links to the previous block.
      *
      * @param newBlock The block to add to the blockchain
      * @throws Exception if the block is invalid or if the chain is not properly
      * linked
      */
-    public void add(Block newBlock) throws Exception {
+    public synchronized void add(Block newBlock) throws Exception {
         // Check if the block is already in the chain
-        if (chain.contains(newBlock)) {
+        if (heights.containsKey(newBlock.getCurrentHash())) {
             throw new Exception("Duplicated Block");
         }
 
@@ -60,8 +126,15 @@ public class BlockChain implements Serializable {
             throw new Exception("Previous hash not combine");
         }
 
-        // Add the new block to the chain
-        chain.add(newBlock);
+        // Append the block to the store before exposing it in memory
+        if (store != null) {
+            store.append(newBlock);
+        }
+
+        // Index the block first, so a reader that sees the block also finds it by hash
+        Blocks updated = chain.append(newBlock);
+        heights.put(newBlock.getCurrentHash(), updated.size - 1);
+        chain = updated;
     }
 
     /**
@@ -69,13 +142,15 @@ public class BlockChain implements Serializable {
      *
      * @param index The index of the block to retrieve
      * @return The block at the specified index
+     * @throws IndexOutOfBoundsException if there is no block at the index
      */
     public Block get(int index) {
         return chain.get(index);
     }
 
     /**
-     * Returns the entire blockchain as a list of blocks.
+     * Returns the entire blockchain as a list of blocks. The list is a
+     * read-only snapshot: blocks added later are not in it.
      *
      * @return The list of blocks in the blockchain
      */
@@ -83,6 +158,28 @@ public class BlockChain implements Serializable {
         return chain;
     }
 
+    /**
+     * Returns the block with the given hash.
+     *
+     * @param hash The hash of the block
+     * @return The block, or null if it is not in the chain
+     */
+    public Block getBlockByHash(String hash) {
+        Blocks blocks = chain;
+        int height = heightIn(blocks, hash);
+        return height < 0 ? null : blocks.get(height);
+    }
+
+    /**
+     * Checks whether the block with the given hash is in the chain.
+     *
+     * @param hash The hash of the block
+     * @return true if the block is in the chain
+     */
+    public boolean contains(String hash) {
+        return indexOf(hash) >= 0;
+    }
+
     /**
      * Saves the blockchain to a file.
      *
@@ -105,8 +202,220 @@ public class BlockChain implements Serializable {
     public void load(String fileName) throws Exception {
         try (ObjectInputStream in = new ObjectInputStream(new FileInputStream(fileName))) {
             BlockChain loaded = (BlockChain) in.readObject();
-            this.chain = loaded.chain;
+            setBlocks(loaded.chain);
+        }
+    }
+
+    /**
+     * Attaches a block store to this blockchain and loads the blocks it holds.
+     * If the store is empty and the legacy file written by
+     * {@link #save(String)} exists, its blocks are migrated into the store
+     * once and the legacy file is renamed with a ".migrated" suffix.
+     *
+     * Stored blocks are read with {@link BlockStore#readHeader(int)}, so only
+     * their headers are decoded here; the transactions of each block are read
+     * the first time they are accessed.
+     *
+     * @param blockStore The store that will hold the blocks
+     * @param legacyFileName The file written by earlier versions, or null
+     * @throws Exception if the store or the legacy file cannot be read
+     */
+    public void open(BlockStore blockStore, String legacyFileName) throws Exception {
+        Path legacy = legacyFileName == null ? null : Paths.get(legacyFileName);
+
+        if (blockStore.size() == 0 && legacy != null && Files.exists(legacy)) {
+            // One-time migration of the whole-chain file into the store
+            load(legacyFileName);
+            for (Block block : chain) {
+                blockStore.append(block);
+            }
+            blockStore.sync();
+            Files.move(legacy, Paths.get(legacyFileName + ".migrated"), StandardCopyOption.REPLACE_EXISTING);
+        } else {
+            // Read the headers of the stored blocks
+            List<Block> blocks = new ArrayList<>(blockStore.size());
+            for (int i = 0; i < blockStore.size(); i++) {
+                blocks.add(blockStore.readHeader(i));
+            }
+            setBlocks(blocks);
+        }
+        this.store = blockStore;
+    }
+
+    /**
+     * Replaces the blocks from the given height onwards with the given blocks.
+     * The blocks below the height are kept, and only the replaced suffix is
+     * removed from and appended to the attached store. The new blocks must
+     * already be validated and must link to the block below the height.
+     *
+     * @param height The height of the first block to replace
+     * @param blocks The blocks to place from that height
+     * @throws Exception if the blocks do not link to the chain or the store
+     * cannot be updated
+     */
+    public synchronized void replaceFrom(int height, List<Block> blocks) throws Exception {
+        Blocks current = chain;
+        if (height < 0 || height > current.size) {
+            throw new Exception("Invalid height " + height);
+        }
+        String previous = height == 0 ? String.format("%08d", 0) : current.get(height - 1).getCurrentHash();
+        if (!blocks.isEmpty() && !blocks.get(0).getPreviousHash().equals(previous)) {
+            throw new Exception("Previous hash not combine");
+        }
+
+        // Rewrite only the replaced suffix in the store
+        if (store != null) {
+            store.truncate(height);
+            for (Block block : blocks) {
+                store.append(block);
+            }
+            store.sync();
+        }
+        // Only the segments from the height are copied; the new suffix is indexed before it is
+        // published and the replaced one is dropped from the index after
+        Blocks updated = current.truncate(height);
+        for (int i = 0; i < blocks.size(); i++) {
+            updated = updated.append(blocks.get(i));
+            heights.put(blocks.get(i).getCurrentHash(), height + i);
+        }
+        chain = updated;
+        for (int i = height; i < current.size; i++) {
+            String hash = current.get(i).getCurrentHash();
+            if (i >= updated.size || !updated.get(i).getCurrentHash().equals(hash)) {
+                heights.remove(hash, i);
+            }
+        }
+    }
+
+    /**
+     * Returns the height of the block with the given hash, through the index
+     * of hashes.
+     *
+     * @param hash The hash of the block
+     * @return The height of the block, or -1 if it is not in the chain
+     */
+    public int indexOf(String hash) {
+        return heightIn(chain, hash);
+    }
+
+    /**
+     * Returns the height of a block in a snapshot of the chain. The index is
+     * checked against the snapshot, so a block being replaced is not found at
+     * the height of another block.
+     *
+     * @param blocks The snapshot
+     * @param hash The hash of the block
+     * @return The height of the block, or -1 if it is not in the snapshot
+     */
+    private int heightIn(Blocks blocks, String hash) {
+        Integer height = hash == null ? null : heights.get(hash);
+        if (height == null || height >= blocks.size || !blocks.get(height).getCurrentHash().equals(hash)) {
+            return -1;
+        }
+        return height;
+    }
+
+    /**
+     * Returns a list of block hashes describing this chain to a peer, from the
+     * top down to the first block. The ten most recent blocks are listed one
+     * by one and then the step doubles, so the list stays short for long
+     * chains while still letting the peer find the last common block.
+     *
+     * @return The hashes of the selected blocks, most recent first
+     */
+    public List<String> getLocator() {
+        Blocks blocks = chain;
+        List<String> locator = new ArrayList<>();
+        int step = 1;
+        for (int i = blocks.size() - 1; i >= 0; i -= step) {
+            locator.add(blocks.get(i).getCurrentHash());
+            if (locator.size() >= 10) {
+                step *= 2;
+            }
+        }
+        // Always include the first block
+        if (!blocks.isEmpty() && !locator.get(locator.size() - 1).equals(blocks.get(0).getCurrentHash())) {
+            locator.add(blocks.get(0).getCurrentHash());
+        }
+        return locator;
+    }
+
+    /**
+     * Finds the highest block of this chain listed in a peer's locator.
+     *
+     * @param locator The hashes sent by the peer, most recent first
+     * @return The height of the last common block, or -1 if there is none
+     */
+    public int findCommonAncestor(List<String> locator) {
+        for (String hash : locator) {
+            int height = indexOf(hash);
+            if (height >= 0) {
+                return height;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the headers of a range of blocks.
+     *
+     * @param from The height of the first block
+     * @param count The maximum number of headers
+     * @return The headers of the blocks in the range that exist
+     */
+    public List<BlockHeader> getHeaders(int from, int count) {
+        List<BlockHeader> headers = new ArrayList<>();
+        for (Block block : getBlocks(from, count)) {
+            headers.add(new BlockHeader(block));
+        }
+        return headers;
+    }
+
+    /**
+     * Returns a range of blocks.
+     *
+     * @param from The height of the first block
+     * @param count The maximum number of blocks
+     * @return The blocks in the range that exist
+     */
+    public List<Block> getBlocks(int from, int count) {
+        Blocks blocks = chain;
+        int start = Math.max(0, from);
+        int end = (int) Math.min(blocks.size(), (long) start + Math.max(0, count));
+        if (start >= end) {
+            return new ArrayList<>();
         }
+        return new ArrayList<>(blocks.subList(start, end));
+    }
+
+    /**
+     * Replaces the blockchain with its compact binary form when it is
+     * serialized, for example when it is returned by an RMI call.
+     *
+     * @return The encoded form of the blockchain
+     * @throws ObjectStreamException if the blockchain cannot be encoded
+     */
+    private Object writeReplace() throws ObjectStreamException {
+        try {
+            return new BlockCodec.Encoded(BlockCodec.Encoded.CHAIN, BlockCodec.encode(this));
+        } catch (IOException ex) {
+            throw new InvalidObjectException("Cannot encode blockchain: " + ex.getMessage());
+        }
+    }
+
+    /**
+     * Reads a blockchain written before the binary encoding, whose blocks
+     * were serialized as a list.
+     *
+     * @param in The stream to read from
+     * @throws IOException if the stream cannot be read
+     * @throws ClassNotFoundException if a class of the blocks is unknown
+     */
+    @SuppressWarnings("unchecked")
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        ObjectInputStream.GetField fields = in.readFields();
+        List<Block> blocks = (List<Block>) fields.get("chain", null);
+        setBlocks(blocks == null ? new ArrayList<>() : blocks);
     }
 
     /**
@@ -116,10 +425,11 @@ public class BlockChain implements Serializable {
      * @return true if the blockchain is valid, false otherwise
      */
     public boolean isValid() {
+        Blocks blocks = chain;
         // Loop through each block in the chain and verify that each block is correctly linked
-        for (int i = 1; i < chain.size(); i++) {
-            String prevHash = chain.get(i).getPreviousHash();
-            String actualPrevHash = chain.get(i - 1).getCurrentHash();
+        for (int i = 1; i < blocks.size; i++) {
+            String prevHash = blocks.get(i).getPreviousHash();
+            String actualPrevHash = blocks.get(i - 1).getCurrentHash();
             if (!prevHash.equals(actualPrevHash)) {
                 return false;
             }
@@ -135,10 +445,11 @@ public class BlockChain implements Serializable {
      */
     @Override
     public String toString() {
+        Blocks blocks = chain;
         StringBuilder txt = new StringBuilder();
-        txt.append("Blockchain size = ").append(chain.size())
+        txt.append("Blockchain size = ").append(blocks.size)
                 .append(")\n");
-        for (Block block : chain) {
+        for (Block block : blocks) {
             txt.append(block.toString()).append("\n");
         }
         return txt.toString();
@@ -150,6 +461,71 @@ public class BlockChain implements Serializable {
      * @return The size of the blockchain
      */
     public int getSize() {
-        return chain.size();
+        return chain.size;
+    }
+
+    /**
+     * A snapshot of the blocks of the chain, in segments of fixed size. A
+     * snapshot is never changed where it can be read: appending writes after
+     * its end, into a segment shared with the new snapshot, and truncating
+     * copies the segments from the truncated height.
+     */
+    private static final class Blocks extends AbstractList<Block> implements RandomAccess {
+
+        private final Block[][] segments; // Segments of the blocks, the last one possibly not full
+        private final int size;           // Number of blocks
+
+        private Blocks(Block[][] segments, int size) {
+            this.segments = segments;
+            this.size = size;
+        }
+
+        @Override
+        public Block get(int index) {
+            if (index < 0 || index >= size) {
+                throw new IndexOutOfBoundsException("Index " + index + " out of bounds for length " + size);
+            }
+            return segments[index / SEGMENT_SIZE][index % SEGMENT_SIZE];
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        /**
+         * Returns the snapshot with a block added at the end. Only the array
+         * of segments is copied when a new segment is needed.
+         *
+         * @param block The block
+         * @return The new snapshot
+         */
+        private Blocks append(Block block) {
+            Block[][] updated = segments;
+            int segment = size / SEGMENT_SIZE;
+            if (segment == segments.length) {
+                updated = Arrays.copyOf(segments, segment + 1);
+                updated[segment] = new Block[SEGMENT_SIZE];
+            }
+            updated[segment][size % SEGMENT_SIZE] = block;
+            return new Blocks(updated, size + 1);
+        }
+
+        /**
+         * Returns the snapshot of the blocks below a height. The segment of the
+         * height is copied, so the blocks written after it do not reach the
+         * snapshots that still hold the old blocks.
+         *
+         * @param height The number of blocks kept
+         * @return The new snapshot
+         */
+        private Blocks truncate(int height) {
+            int kept = (height + SEGMENT_SIZE - 1) / SEGMENT_SIZE;
+            Block[][] updated = Arrays.copyOf(segments, kept);
+            if (height % SEGMENT_SIZE != 0) {
+                updated[kept - 1] = Arrays.copyOf(segments[kept - 1], SEGMENT_SIZE);
+            }
+            return new Blocks(updated, height);
+        }
     }
 }
@@ -0,0 +1,485 @@
+package blockchain.utils;
+
+import currdig.core.Entry;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectStreamException;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.PublicKey;
+import java.time.DateTimeException;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+
+/**
+ * Compact, versioned binary codec for {@link Block}, {@link Entry} and
+ * {@link BlockChain}. It is used for the block store and, through
+ * {@link Encoded}, for the objects sent over RMI.
+ *
+ * Lengths and counts are written as variable-length integers. Public keys are
+ * written once per message as raw X.509 bytes in a key table, and entries
+ * refer to them by position. The Merkle tree of a block is never written: it
+ * is rebuilt from the transactions and checked against the Merkle root.
+ */
+public final class BlockCodec {
+
+    /**
+     * Version of the binary format, written as the first byte of every
+     * encoded object.
+     */
+    public static final int VERSION = 1;
+
+    // Decoded public keys, indexed by their X.509 encoding
+    private static final Map<ByteBuffer, PublicKey> KEY_CACHE = new ConcurrentHashMap<>();
+    private static final int KEY_CACHE_LIMIT = 4096;
+
+    // Fewest bytes an encoded entry takes: description and key lengths, two key indexes, time
+    private static final int MIN_ENTRY_BYTES = 1 + 1 + 1 + 8 + 1;
+    private static final int MAX_NANOS = 999_999_999; // Largest nanosecond of a time
+
+    private BlockCodec() {
+    }
+
+    // :::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
+    // :::::::::::::::           E N C O D E           :::::::::::::::::::::::::
+    // :::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
+    /**
+     * Encodes a single entry.
+     *
+     * @param entry The entry to encode
+     * @return The encoded entry
+     * @throws IOException if the entry cannot be encoded
+     */
+    public static byte[] encode(Entry entry) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(VERSION);
+        writeTransactions(out, List.of(entry));
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Encodes a block: its header followed by its transactions.
+     *
+     * @param block The block to encode
+     * @return The encoded block
+     * @throws IOException if the block cannot be encoded
+     */
+    public static byte[] encode(Block block) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(VERSION);
+        writeBlock(out, block);
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Encodes every block of a blockchain.
+     *
+     * @param blockchain The blockchain to encode
+     * @return The encoded blockchain
+     * @throws IOException if the blockchain cannot be encoded
+     */
+    public static byte[] encode(BlockChain blockchain) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        List<Block> blocks = blockchain.getChain();
+        out.writeByte(VERSION);
+        writeVarInt(out, blocks.size());
+        for (Block block : blocks) {
+            writeBlock(out, block);
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Writes the header and the transactions of a block.
+     *
+     * @param out The stream to write to
+     * @param block The block to write
+     * @throws IOException if the block cannot be written
+     */
+    private static void writeBlock(DataOutputStream out, Block block) throws IOException {
+        writeString(out, block.previousHash);
+        out.writeInt(block.nonce);
+        writeString(out, block.currentHash == null ? "" : block.currentHash);
+        writeString(out, block.merkleRoot);
+        writeTransactions(out, block.transactions());
+    }
+
+    /**
+     * Writes a list of transactions: a table with the distinct public keys,
+     * followed by the entries referring to the keys by position.
+     *
+     * @param out The stream to write to
+     * @param entries The entries to write
+     * @throws IOException if the entries cannot be written
+     */
+    static void writeTransactions(DataOutputStream out, Collection<Entry> entries) throws IOException {
+        // Build the key table
+        Map<PublicKey, Integer> keyIds = new HashMap<>();
+        List<PublicKey> keys = new ArrayList<>();
+        for (Entry entry : entries) {
+            for (PublicKey key : new PublicKey[]{entry.getEntityPublicKey(), entry.getTargetUserPublicKey()}) {
+                if (!keyIds.containsKey(key)) {
+                    keyIds.put(key, keys.size());
+                    keys.add(key);
+                }
+            }
+        }
+        writeVarInt(out, keys.size());
+        for (PublicKey key : keys) {
+            writeBytes(out, key.getEncoded());
+        }
+
+        // Write the entries
+        writeVarInt(out, entries.size());
+        for (Entry entry : entries) {
+            writeString(out, entry.getDescription());
+            writeVarInt(out, keyIds.get(entry.getEntityPublicKey()));
+            writeVarInt(out, keyIds.get(entry.getTargetUserPublicKey()));
+            out.writeLong(entry.getDateTime().toEpochSecond(ZoneOffset.UTC));
+            writeVarInt(out, entry.getDateTime().getNano());
+        }
+    }
+
+    // :::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
+    // :::::::::::::::           D E C O D E           :::::::::::::::::::::::::
+    // :::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
+    /**
+     * Decodes an entry written by {@link #encode(Entry)}.
+     *
+     * @param data The encoded entry
+     * @return The decoded entry
+     * @throws IOException if the data is not a valid encoded entry
+     */
+    public static Entry decodeEntry(byte[] data) throws IOException {
+        DataInputStream in = open(data);
+        CopyOnWriteArraySet<Entry> entries = readTransactions(in);
+        if (entries.size() != 1) {
+            throw new InvalidObjectException("Expected one entry, found " + entries.size());
+        }
+        return entries.iterator().next();
+    }
+
+    /**
+     * Decodes a block written by {@link #encode(Block)}.
+     *
+     * @param data The encoded block
+     * @return The decoded block
+     * @throws IOException if the data is not a valid encoded block
+     */
+    public static Block decodeBlock(byte[] data) throws IOException {
+        return readBlock(open(data));
+    }
+
+    /**
+     * Decodes a blockchain written by {@link #encode(BlockChain)}.
+     *
+     * @param data The encoded blockchain
+     * @return The decoded blockchain
+     * @throws IOException if the data is not a valid encoded blockchain
+     */
+    public static BlockChain decodeChain(byte[] data) throws IOException {
+        DataInputStream in = open(data);
+        int size = readCount(in, 1);
+        List<Block> blocks = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            blocks.add(readBlock(in));
+        }
+        return new BlockChain(blocks);
+    }
+
+    /**
+     * Reads a block and rebuilds its Merkle tree, checking it against the
+     * encoded Merkle root.
+     *
+     * @param in The stream to read from
+     * @return The decoded block
+     * @throws IOException if the block is not valid
+     */
+    private static Block readBlock(DataInputStream in) throws IOException {
+        String previousHash = readString(in);
+        int nonce = in.readInt();
+        String currentHash = readString(in);
+        String merkleRoot = readString(in);
+        CopyOnWriteArraySet<Entry> transactions = readTransactions(in);
+
+        Block block = new Block(previousHash, nonce, currentHash.isEmpty() ? null : currentHash, merkleRoot, transactions);
+        if (!block.merkleRoot.equals(merkleRoot)) {
+            throw new InvalidObjectException("Merkle root does not match the transactions");
+        }
+        return block;
+    }
+
+    /**
+     * Reads a list of transactions written by
+     * {@link #writeTransactions(DataOutputStream, Collection)}.
+     *
+     * @param in The stream to read from
+     * @return The decoded entries, in their original order
+     * @throws IOException if the entries are not valid
+     */
+    static CopyOnWriteArraySet<Entry> readTransactions(DataInputStream in) throws IOException {
+        // Read the key table
+        PublicKey[] keys = new PublicKey[readCount(in, 1)];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = readKey(readBytes(in));
+        }
+
+        // Read the entries
+        int count = readCount(in, MIN_ENTRY_BYTES);
+        List<Entry> entries = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            String description = readString(in);
+            PublicKey entity = keys[readIndex(in, keys.length)];
+            PublicKey target = keys[readIndex(in, keys.length)];
+            long seconds = in.readLong();
+            int nanos = readVarInt(in);
+            if (nanos < 0 || nanos > MAX_NANOS) {
+                throw new InvalidObjectException("Invalid nanosecond " + nanos);
+            }
+            LocalDateTime dateTime;
+            try {
+                dateTime = LocalDateTime.ofEpochSecond(seconds, nanos, ZoneOffset.UTC);
+            } catch (DateTimeException ex) {
+                throw new InvalidObjectException("Invalid time " + seconds);
+            }
+            entries.add(new Entry(description, entity, target, dateTime));
+        }
+        return new CopyOnWriteArraySet<>(entries);
+    }
+
+    /**
+     * Opens a stream over encoded data and checks its format version.
+     *
+     * @param data The encoded data
+     * @return A stream positioned after the version byte
+     * @throws IOException if the version is not supported
+     */
+    private static DataInputStream open(byte[] data) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+        int version = in.readUnsignedByte();
+        if (version != VERSION) {
+            throw new InvalidObjectException("Unsupported codec version " + version);
+        }
+        return in;
+    }
+
+    /**
+     * Returns the public key for the given X.509 encoding, reusing keys that
+     * were already decoded.
+     *
+     * @param encoded The X.509 encoding of the key
+     * @return The public key
+     * @throws IOException if the key is not valid
+     */
+    private static PublicKey readKey(byte[] encoded) throws IOException {
+        ByteBuffer id = ByteBuffer.wrap(encoded);
+        PublicKey key = KEY_CACHE.get(id);
+        if (key == null) {
+            try {
+                key = SecurityUtils.getPublicKey(encoded);
+            } catch (Exception ex) {
+                throw new InvalidObjectException("Invalid public key: " + ex);
+            }
+            if (KEY_CACHE.size() >= KEY_CACHE_LIMIT) {
+                KEY_CACHE.clear();
+            }
+            KEY_CACHE.put(id, key);
+        }
+        return key;
+    }
+
+    // :::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
+    // :::::::::::::::         P R I M I T I V E S       :::::::::::::::::::::::
+    // :::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
+    /**
+     * Writes a non-negative integer using 7 bits per byte.
+     *
+     * @param out The stream to write to
+     * @param value The value to write
+     * @throws IOException if the value cannot be written
+     */
+    static void writeVarInt(DataOutputStream out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    /**
+     * Reads an integer written by
+     * {@link #writeVarInt(DataOutputStream, int)}.
+     *
+     * @param in The stream to read from
+     * @return The value read
+     * @throws IOException if the value is not valid
+     */
+    static int readVarInt(DataInputStream in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new InvalidObjectException("Malformed variable-length integer");
+    }
+
+    /**
+     * Reads a count or length, checking that the rest of the input can hold
+     * that many items, so data from a peer cannot make the decoder allocate
+     * more than it sent. The streams decoded are always over byte arrays, so
+     * the bytes available are the bytes left.
+     *
+     * @param in The stream to read from
+     * @param minBytes The fewest bytes each item takes
+     * @return The count
+     * @throws IOException if the count is negative or larger than the input
+     */
+    private static int readCount(DataInputStream in, int minBytes) throws IOException {
+        int count = readVarInt(in);
+        if (count < 0 || count > in.available() / minBytes) {
+            throw new InvalidObjectException("Invalid count " + count);
+        }
+        return count;
+    }
+
+    /**
+     * Reads a position in the key table.
+     *
+     * @param in The stream to read from
+     * @param size The number of keys in the table
+     * @return The position
+     * @throws IOException if the position is outside the table
+     */
+    private static int readIndex(DataInputStream in, int size) throws IOException {
+        int index = readVarInt(in);
+        if (index < 0 || index >= size) {
+            throw new InvalidObjectException("Invalid key index " + index);
+        }
+        return index;
+    }
+
+    /**
+     * Writes a length-prefixed byte array.
+     *
+     * @param out The stream to write to
+     * @param bytes The bytes to write
+     * @throws IOException if the bytes cannot be written
+     */
+    private static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+        writeVarInt(out, bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Reads a length-prefixed byte array.
+     *
+     * @param in The stream to read from
+     * @return The bytes read
+     * @throws IOException if the bytes cannot be read
+     */
+    private static byte[] readBytes(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[readCount(in, 1)];
+        in.readFully(bytes);
+        return bytes;
+    }
+
+    /**
+     * Writes a length-prefixed UTF-8 string.
+     *
+     * @param out The stream to write to
+     * @param text The string to write
+     * @throws IOException if the string cannot be written
+     */
+    private static void writeString(DataOutputStream out, String text) throws IOException {
+        writeBytes(out, text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Reads a length-prefixed UTF-8 string.
+     *
+     * @param in The stream to read from
+     * @return The string read
+     * @throws IOException if the string cannot be read
+     */
+    private static String readString(DataInputStream in) throws IOException {
+        return new String(readBytes(in), StandardCharsets.UTF_8);
+    }
+
+    // :::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
+    // :::::::::::::::       S E R I A L I Z A T I O N     :::::::::::::::::::::
+    // :::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
+    /**
+     * Serialized form of blocks, entries and blockchains. The classes replace
+     * themselves with an Encoded object when they are serialized (for example
+     * in RMI calls), so only the codec bytes are sent, and the object is
+     * decoded again when it is read.
+     */
+    public static final class Encoded implements Serializable {
+
+        private static final long serialVersionUID = 202412010001L;
+
+        public static final byte ENTRY = 1;
+        public static final byte BLOCK = 2;
+        public static final byte CHAIN = 3;
+
+        private final byte type;   // Kind of object encoded
+        private final byte[] data; // Codec bytes of the object
+
+        /**
+         * Creates the serialized form of an object.
+         *
+         * @param type The kind of object encoded
+         * @param data The codec bytes of the object
+         */
+        public Encoded(byte type, byte[] data) {
+            this.type = type;
+            this.data = data;
+        }
+
+        /**
+         * Decodes the object when it is deserialized.
+         *
+         * @return The decoded entry, block or blockchain
+         * @throws ObjectStreamException if the bytes cannot be decoded
+         */
+        private Object readResolve() throws ObjectStreamException {
+            try {
+                switch (type) {
+                    case ENTRY:
+                        return decodeEntry(data);
+                    case BLOCK:
+                        return decodeBlock(data);
+                    case CHAIN:
+                        return decodeChain(data);
+                    default:
+                        throw new InvalidObjectException("Unknown encoded type " + type);
+                }
+            } catch (InvalidObjectException ex) {
+                throw ex;
+            } catch (IOException ex) {
+                throw new InvalidObjectException("Cannot decode object: " + ex.getMessage());
+            }
+        }
+    }
+}
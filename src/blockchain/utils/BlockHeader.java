@@ -0,0 +1,100 @@
+package blockchain.utils;
+
+import java.io.Serializable;
+
+/**
+ * The BlockHeader class holds the fields of a block that take part in the
+ * proof of work (previous hash, Merkle root and nonce) and the resulting hash.
+ * Headers are exchanged before block bodies during synchronization, so that a
+ * node can check the links and the proof of work of a chain before
+ * downloading its transactions.
+ */
+public class BlockHeader implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String previousHash; // Link to the previous block
+    private final int nonce;           // Nonce used in proof of work
+    private final String currentHash;  // Hash of the block
+    private final String merkleRoot;   // Merkle root of the block's transactions
+
+    /**
+     * Creates the header of the given block.
+     *
+     * @param block The block whose header is taken
+     */
+    public BlockHeader(Block block) {
+        this.previousHash = block.getPreviousHash();
+        this.nonce = block.getNonce();
+        this.currentHash = block.getCurrentHash();
+        this.merkleRoot = block.getMerkleRoot();
+    }
+
+    /**
+     * Returns the previous block's hash.
+     *
+     * @return The hash of the previous block
+     */
+    public String getPreviousHash() {
+        return previousHash;
+    }
+
+    /**
+     * Returns the nonce for proof of work.
+     *
+     * @return The nonce of the block
+     */
+    public int getNonce() {
+        return nonce;
+    }
+
+    /**
+     * Returns the hash of the block.
+     *
+     * @return The hash of the block
+     */
+    public String getCurrentHash() {
+        return currentHash;
+    }
+
+    /**
+     * Returns the Merkle root of the block.
+     *
+     * @return The Merkle root
+     */
+    public String getMerkleRoot() {
+        return merkleRoot;
+    }
+
+    /**
+     * Checks that the hash of the header matches the hash calculated from its
+     * previous hash, Merkle root and nonce.
+     *
+     * @return true if the hash is valid, otherwise false
+     */
+    public boolean isValid() {
+        return currentHash != null
+                && currentHash.equals(Miner.getHash(previousHash + merkleRoot, nonce));
+    }
+
+    /**
+     * Checks whether a block has exactly this header.
+     *
+     * @param block The block to compare
+     * @return true if the block's header fields are equal to this header
+     */
+    public boolean matches(Block block) {
+        return previousHash.equals(block.getPreviousHash())
+                && nonce == block.getNonce()
+                && currentHash.equals(block.getCurrentHash())
+                && merkleRoot.equals(block.getMerkleRoot());
+    }
+
+    @Override
+    public String toString() {
+        return String.format("[ %8s", previousHash) + " <- "
+                + String.format("%-10s", merkleRoot)
+                + String.format(" %7d ] = ", nonce)
+                + String.format("%8s", currentHash);
+    }
+}
@@ -0,0 +1,609 @@
+package blockchain.utils;
+
+import currdig.core.Entry;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArraySet;
+
+/**
+ * The BlockStore class persists the blocks of a blockchain in append-only
+ * segment files. Every new block is appended to the current segment, and an
+ * offset index (one fixed-size record per block) allows a single block to be
+ * read back by its height without reading the rest of the chain.
+ *
+ * Each stored block is split into a header (previous hash, nonce, current hash
+ * and Merkle root) and a body (the transactions), so that the header can be
+ * decoded on its own. A store opened in mapped mode reads the index and the
+ * segments through memory-mapped buffers, and {@link #readHeader(int)} returns
+ * blocks whose body is only decoded when it is first accessed.
+ */
+public class BlockStore {
+
+    /**
+     * Policy used to decide when written data is forced to the storage device.
+     */
+    public enum SyncPolicy {
+        /**
+         * Forces the segment and the index after every appended block.
+         */
+        ALWAYS,
+        /**
+         * Forces the segment and the index every {@link #SYNC_BATCH} blocks.
+         */
+        BATCH,
+        /**
+         * Leaves flushing to the operating system.
+         */
+        NONE
+    }
+
+    // Number of appended blocks between forced writes with SyncPolicy.BATCH
+    public static final int SYNC_BATCH = 16;
+
+    // Default maximum size of a segment file before a new one is started
+    public static final long DEFAULT_SEGMENT_SIZE = 64L * 1024 * 1024;
+
+    // Size of each index record: segment number, offset and record length
+    private static final int INDEX_RECORD_SIZE = Integer.BYTES + Long.BYTES + Integer.BYTES;
+
+    private static final String INDEX_FILENAME = "blocks.idx";
+    private static final String SEGMENT_FORMAT = "segment-%05d.dat";
+
+    private final Path directory;            // Folder that holds the index and the segments
+    private final SyncPolicy syncPolicy;     // When to force written data to disk
+    private final long maxSegmentSize;       // Maximum size of a segment file
+    private final boolean mapped;            // Read through memory-mapped buffers
+
+    private final FileChannel index;         // Offset index, one record per block
+    private FileChannel segment;             // Segment currently receiving appends
+    private int segmentNumber;               // Number of the current segment
+    private int size;                        // Number of blocks in the store
+    private int unsynced;                    // Blocks appended since the last forced write
+
+    // Read channels of the segments, opened on demand
+    private final Map<Integer, FileChannel> readers = new HashMap<>();
+    // Read-only mappings of the segments, created on demand in mapped mode
+    private final Map<Integer, MappedByteBuffer> segmentMaps = new HashMap<>();
+    // Read-only mapping of the index in mapped mode
+    private MappedByteBuffer indexMap;
+
+    /**
+     * Opens (or creates) a block store in the given directory with the default
+     * segment size.
+     *
+     * @param directory The directory where the store keeps its files
+     * @param syncPolicy The policy used to force data to disk
+     * @throws IOException if the store cannot be opened
+     */
+    public BlockStore(String directory, SyncPolicy syncPolicy) throws IOException {
+        this(directory, syncPolicy, DEFAULT_SEGMENT_SIZE, false);
+    }
+
+    /**
+     * Opens (or creates) a block store in the given directory with the default
+     * segment size, optionally reading through memory-mapped buffers.
+     *
+     * @param directory The directory where the store keeps its files
+     * @param syncPolicy The policy used to force data to disk
+     * @param mapped True to read the index and segments through mappings
+     * @throws IOException if the store cannot be opened
+     */
+    public BlockStore(String directory, SyncPolicy syncPolicy, boolean mapped) throws IOException {
+        this(directory, syncPolicy, DEFAULT_SEGMENT_SIZE, mapped);
+    }
+
+    /**
+     * Opens (or creates) a block store in the given directory. Any partially
+     * written block left by an interrupted append is discarded.
+     *
+     * @param directory The directory where the store keeps its files
+     * @param syncPolicy The policy used to force data to disk
+     * @param maxSegmentSize The size after which a new segment is started
+     * @param mapped True to read the index and segments through mappings
+     * @throws IOException if the store cannot be opened
+     */
+    public BlockStore(String directory, SyncPolicy syncPolicy, long maxSegmentSize, boolean mapped) throws IOException {
+        this.directory = Paths.get(directory);
+        this.syncPolicy = syncPolicy;
+        this.maxSegmentSize = maxSegmentSize;
+        this.mapped = mapped;
+        Files.createDirectories(this.directory);
+
+        index = FileChannel.open(this.directory.resolve(INDEX_FILENAME),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        recover();
+    }
+
+    /**
+     * Brings the index and the segments back to a consistent state. Index
+     * records pointing past the end of their segment and bytes written after
+     * the last indexed block are removed.
+     *
+     * @throws IOException if the files cannot be read or truncated
+     */
+    private void recover() throws IOException {
+        // Drop a partially written index record
+        size = (int) (index.size() / INDEX_RECORD_SIZE);
+        index.truncate((long) size * INDEX_RECORD_SIZE);
+
+        // Drop index records whose block was not completely written
+        long end = 0;
+        segmentNumber = 0;
+        while (size > 0) {
+            ByteBuffer record = readIndexRecord(size - 1);
+            int seg = record.getInt();
+            long offset = record.getLong();
+            int length = record.getInt();
+            Path file = segmentPath(seg);
+            if (Files.exists(file) && Files.size(file) >= offset + Integer.BYTES + length) {
+                segmentNumber = seg;
+                end = offset + Integer.BYTES + length;
+                break;
+            }
+            size--;
+        }
+        index.truncate((long) size * INDEX_RECORD_SIZE);
+
+        // Remove segments that were started after the last indexed block
+        try (var files = Files.list(directory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Integer seg = parseSegmentNumber(file);
+                if (seg != null && seg > segmentNumber) {
+                    Files.delete(file);
+                }
+            }
+        }
+
+        // Discard the unindexed tail of the current segment
+        segment = openSegment(segmentNumber);
+        segment.truncate(end);
+        segment.position(end);
+    }
+
+    /**
+     * Returns the number of blocks in the store.
+     *
+     * @return The number of stored blocks
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Appends a block to the end of the store. Only the new block is written;
+     * the blocks already stored are not touched.
+     *
+     * @param block The block to append
+     * @throws IOException if the block cannot be written
+     */
+    public synchronized void append(Block block) throws IOException {
+        byte[] record = encode(block);
+
+        // Start a new segment when the current one is full
+        if (segment.size() > 0 && segment.size() + Integer.BYTES + record.length > maxSegmentSize) {
+            segment.force(false);
+            segment.close();
+            segmentNumber++;
+            segment = openSegment(segmentNumber);
+        }
+
+        // Write the length-prefixed record at the end of the segment
+        long offset = segment.size();
+        ByteBuffer data = ByteBuffer.allocate(Integer.BYTES + record.length);
+        data.putInt(record.length).put(record).flip();
+        writeFully(segment, data, offset);
+
+        // Write the index record only after the block itself
+        ByteBuffer entry = ByteBuffer.allocate(INDEX_RECORD_SIZE);
+        entry.putInt(segmentNumber).putLong(offset).putInt(record.length).flip();
+        writeFully(index, entry, (long) size * INDEX_RECORD_SIZE);
+        size++;
+
+        // Apply the configured sync policy
+        unsynced++;
+        if (syncPolicy == SyncPolicy.ALWAYS
+                || (syncPolicy == SyncPolicy.BATCH && unsynced >= SYNC_BATCH)) {
+            sync();
+        }
+    }
+
+    /**
+     * Reads the block stored at the given height.
+     *
+     * @param height The height (index) of the block
+     * @return The block at the given height
+     * @throws IOException if the block cannot be read or is corrupted
+     */
+    public synchronized Block read(int height) throws IOException {
+        return decode(record(height));
+    }
+
+    /**
+     * Reads only the header of the block stored at the given height. The
+     * returned block decodes its transactions from this store the first time
+     * they are accessed.
+     *
+     * @param height The height (index) of the block
+     * @return The block at the given height, without its body
+     * @throws IOException if the header cannot be read
+     */
+    public synchronized Block readHeader(int height) throws IOException {
+        DataInputStream in = stream(record(height));
+        String previousHash = in.readUTF();
+        int nonce = in.readInt();
+        String currentHash = in.readUTF();
+        String merkleRoot = in.readUTF();
+        return new Block(previousHash, nonce, currentHash.isEmpty() ? null : currentHash, merkleRoot, this, height);
+    }
+
+    /**
+     * Reads the transactions of the block stored at the given height.
+     *
+     * @param height The height (index) of the block
+     * @return The transactions of the block
+     * @throws IOException if the body cannot be read
+     */
+    synchronized CopyOnWriteArraySet<Entry> readBody(int height) throws IOException {
+        DataInputStream in = stream(record(height));
+        // Skip the header fields
+        in.readUTF();
+        in.readInt();
+        in.readUTF();
+        in.readUTF();
+        return decodeBody(in);
+    }
+
+    /**
+     * Returns the record of the block at the given height, without its length
+     * prefix.
+     *
+     * @param height The height (index) of the block
+     * @return A buffer holding the record
+     * @throws IOException if the record cannot be read
+     */
+    private ByteBuffer record(int height) throws IOException {
+        if (height < 0 || height >= size) {
+            throw new IndexOutOfBoundsException("Block " + height + " not in store of size " + size);
+        }
+        ByteBuffer entry = readIndex(height);
+        int seg = entry.getInt();
+        long position = entry.getLong() + Integer.BYTES; // Skip the length prefix
+        int length = entry.getInt();
+
+        if (mapped) {
+            // Slice the record out of the segment mapping
+            return map(seg, position + length).slice((int) position, length);
+        }
+
+        ByteBuffer record = ByteBuffer.allocate(length);
+        FileChannel reader = reader(seg);
+        while (record.hasRemaining()) {
+            if (reader.read(record, position + record.position()) < 0) {
+                throw new EOFException("Truncated block " + height);
+            }
+        }
+        return record.flip();
+    }
+
+    /**
+     * Removes every block from the given height onwards. Used when part of the
+     * chain is replaced by blocks from another node.
+     *
+     * @param height The height of the first block to remove
+     * @throws IOException if the files cannot be truncated
+     */
+    public synchronized void truncate(int height) throws IOException {
+        height = Math.max(height, 0);
+        if (height >= size) {
+            return;
+        }
+        ByteBuffer entry = readIndexRecord(height);
+        int seg = entry.getInt();
+        long offset = entry.getLong();
+
+        // Close and delete the segments after the one being cut
+        for (FileChannel reader : readers.values()) {
+            reader.close();
+        }
+        readers.clear();
+        segmentMaps.clear();
+        indexMap = null;
+        segment.close();
+        for (int i = seg + 1; i <= segmentNumber; i++) {
+            Files.deleteIfExists(segmentPath(i));
+        }
+
+        // Cut the segment and the index at the removed block
+        segmentNumber = seg;
+        segment = openSegment(segmentNumber);
+        segment.truncate(offset);
+        segment.position(offset);
+        size = height;
+        index.truncate((long) size * INDEX_RECORD_SIZE);
+        sync();
+    }
+
+    /**
+     * Forces all written blocks and index records to the storage device.
+     *
+     * @throws IOException if the data cannot be forced
+     */
+    public synchronized void sync() throws IOException {
+        segment.force(false);
+        index.force(false);
+        unsynced = 0;
+    }
+
+    /**
+     * Forces pending data to disk and closes all files of the store.
+     *
+     * @throws IOException if the files cannot be closed
+     */
+    public synchronized void close() throws IOException {
+        sync();
+        for (FileChannel reader : readers.values()) {
+            reader.close();
+        }
+        readers.clear();
+        segment.close();
+        index.close();
+    }
+
+    // :::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
+    // :::::::::::::::          R E C O R D S          :::::::::::::::::::::::::
+    // :::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
+    /**
+     * Encodes a block as a header followed by a length-prefixed body.
+     *
+     * @param block The block to encode
+     * @return The encoded record
+     * @throws IOException if the block cannot be encoded
+     */
+    static byte[] encode(Block block) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+
+        // Header fields
+        out.writeUTF(block.previousHash);
+        out.writeInt(block.nonce);
+        out.writeUTF(block.currentHash == null ? "" : block.currentHash);
+        out.writeUTF(block.merkleRoot);
+
+        // Body with the transactions, in the binary codec format
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        DataOutputStream bodyOut = new DataOutputStream(body);
+        bodyOut.writeByte(BlockCodec.VERSION);
+        BlockCodec.writeTransactions(bodyOut, block.transactions());
+        bodyOut.flush();
+        out.writeInt(body.size());
+        body.writeTo(out);
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Decodes a record written by {@link #encode(Block)}. The Merkle tree is
+     * rebuilt from the transactions and checked against the stored root.
+     *
+     * @param record The encoded record
+     * @return The decoded block
+     * @throws IOException if the record is corrupted
+     */
+    static Block decode(ByteBuffer record) throws IOException {
+        DataInputStream in = stream(record);
+        String previousHash = in.readUTF();
+        int nonce = in.readInt();
+        String currentHash = in.readUTF();
+        String merkleRoot = in.readUTF();
+        CopyOnWriteArraySet<Entry> transactions = decodeBody(in);
+
+        Block block = new Block(previousHash, nonce, currentHash.isEmpty() ? null : currentHash, merkleRoot, transactions);
+        if (!block.merkleRoot.equals(merkleRoot)) {
+            throw new IOException("Corrupted block: Merkle root does not match");
+        }
+        return block;
+    }
+
+    /**
+     * Decodes the length-prefixed body that follows the header of a record.
+     * Bodies written with Java serialization by earlier versions of the store
+     * are still accepted.
+     *
+     * @param in The stream positioned after the header
+     * @return The transactions of the block
+     * @throws IOException if the body is corrupted
+     */
+    @SuppressWarnings("unchecked")
+    private static CopyOnWriteArraySet<Entry> decodeBody(DataInputStream in) throws IOException {
+        byte[] body = new byte[in.readInt()];
+        in.readFully(body);
+
+        // Java serialization streams start with 0xACED
+        if (body.length > 1 && (body[0] & 0xFF) == 0xAC && (body[1] & 0xFF) == 0xED) {
+            try (ObjectInputStream objects = new ObjectInputStream(new ByteArrayInputStream(body))) {
+                return (CopyOnWriteArraySet<Entry>) objects.readObject();
+            } catch (ClassNotFoundException ex) {
+                throw new IOException("Invalid block body", ex);
+            }
+        }
+
+        DataInputStream bodyIn = new DataInputStream(new ByteArrayInputStream(body));
+        int version = bodyIn.readUnsignedByte();
+        if (version != BlockCodec.VERSION) {
+            throw new IOException("Unsupported block body version " + version);
+        }
+        return BlockCodec.readTransactions(bodyIn);
+    }
+
+    /**
+     * Wraps a buffer in a data stream that reads from its current position.
+     *
+     * @param buffer The buffer to read
+     * @return A stream over the remaining bytes of the buffer
+     */
+    private static DataInputStream stream(ByteBuffer buffer) {
+        return new DataInputStream(new InputStream() {
+            @Override
+            public int read() {
+                return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+            }
+
+            @Override
+            public int read(byte[] bytes, int off, int len) {
+                if (!buffer.hasRemaining()) {
+                    return -1;
+                }
+                len = Math.min(len, buffer.remaining());
+                buffer.get(bytes, off, len);
+                return len;
+            }
+        });
+    }
+
+    // :::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
+    // :::::::::::::::           F I L E S           :::::::::::::::::::::::::::
+    // :::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
+    /**
+     * Reads the index record of the block at the given height.
+     *
+     * @param height The height of the block
+     * @return A buffer positioned at the start of the record
+     * @throws IOException if the index cannot be read
+     */
+    private ByteBuffer readIndex(int height) throws IOException {
+        long position = (long) height * INDEX_RECORD_SIZE;
+        if (mapped) {
+            // Map the index again when it has grown past the current mapping
+            if (indexMap == null || indexMap.capacity() < position + INDEX_RECORD_SIZE) {
+                indexMap = index.map(FileChannel.MapMode.READ_ONLY, 0, index.size());
+            }
+            return indexMap.slice((int) position, INDEX_RECORD_SIZE);
+        }
+        return readIndexRecord(height);
+    }
+
+    /**
+     * Reads the index record of the block at the given height through the
+     * index channel. Used whenever the index is about to be truncated, so that
+     * no mapping of it is created.
+     *
+     * @param height The height of the block
+     * @return A buffer positioned at the start of the record
+     * @throws IOException if the index cannot be read
+     */
+    private ByteBuffer readIndexRecord(int height) throws IOException {
+        long position = (long) height * INDEX_RECORD_SIZE;
+        ByteBuffer entry = ByteBuffer.allocate(INDEX_RECORD_SIZE);
+        while (entry.hasRemaining()) {
+            if (index.read(entry, position + entry.position()) < 0) {
+                throw new EOFException("Truncated index at block " + height);
+            }
+        }
+        return entry.flip();
+    }
+
+    /**
+     * Returns a read channel for the given segment, opening it if needed.
+     *
+     * @param seg The segment number
+     * @return The read channel of the segment
+     * @throws IOException if the segment cannot be opened
+     */
+    private FileChannel reader(int seg) throws IOException {
+        FileChannel reader = readers.get(seg);
+        if (reader == null) {
+            reader = FileChannel.open(segmentPath(seg), StandardOpenOption.READ);
+            readers.put(seg, reader);
+        }
+        return reader;
+    }
+
+    /**
+     * Returns a read-only mapping of the given segment that covers at least
+     * the given number of bytes. The segment receiving appends is mapped again
+     * when a read goes past its current mapping.
+     *
+     * @param seg The segment number
+     * @param end The number of bytes that must be mapped
+     * @return The mapping of the segment
+     * @throws IOException if the segment cannot be mapped
+     */
+    private MappedByteBuffer map(int seg, long end) throws IOException {
+        MappedByteBuffer map = segmentMaps.get(seg);
+        if (map == null || map.capacity() < end) {
+            FileChannel reader = reader(seg);
+            map = reader.map(FileChannel.MapMode.READ_ONLY, 0, reader.size());
+            segmentMaps.put(seg, map);
+        }
+        return map;
+    }
+
+    /**
+     * Opens the given segment for appending, creating it if needed.
+     *
+     * @param seg The segment number
+     * @return The write channel of the segment
+     * @throws IOException if the segment cannot be opened
+     */
+    private FileChannel openSegment(int seg) throws IOException {
+        return FileChannel.open(segmentPath(seg),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    /**
+     * Returns the path of the given segment file.
+     *
+     * @param seg The segment number
+     * @return The path of the segment
+     */
+    private Path segmentPath(int seg) {
+        return directory.resolve(String.format(SEGMENT_FORMAT, seg));
+    }
+
+    /**
+     * Extracts the segment number from a segment file name.
+     *
+     * @param file The file to inspect
+     * @return The segment number, or null if the file is not a segment
+     */
+    private static Integer parseSegmentNumber(Path file) {
+        String name = file.getFileName().toString();
+        if (!name.startsWith("segment-") || !name.endsWith(".dat")) {
+            return null;
+        }
+        try {
+            return Integer.parseInt(name.substring("segment-".length(), name.length() - ".dat".length()));
+        } catch (NumberFormatException ex) {
+            return null;
+        }
+    }
+
+    /**
+     * Writes the whole buffer at the given position of the channel.
+     *
+     * @param channel The channel to write to
+     * @param data The data to write
+     * @param position The position in the file
+     * @throws IOException if the data cannot be written
+     */
+    private static void writeFully(FileChannel channel, ByteBuffer data, long position) throws IOException {
+        while (data.hasRemaining()) {
+            position += channel.write(data, position);
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package blockchain.utils;
+
+import currdig.core.Entry;
+import java.io.Serializable;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArraySet;
+
+/**
+ * A block reduced to its header and a short id for each of its transactions,
+ * in block order. Peers usually hold the transactions of a new block in their
+ * pool already, so a block can be sent as its compact form and rebuilt by the
+ * receiver, which only requests the transactions it lacks.
+ *
+ * The short id of a transaction is the first 64 bits of its id. A rebuilt
+ * block is accepted only if its Merkle root matches the header, so a wrong
+ * match caused by colliding short ids is detected.
+ */
+public class CompactBlock implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final BlockHeader header; // Header of the block
+    private final long[] shortIds;    // Short ids of the transactions, in block order
+
+    /**
+     * Creates the compact form of a block.
+     *
+     * @param block The block
+     */
+    public CompactBlock(Block block) {
+        this.header = new BlockHeader(block);
+        CopyOnWriteArraySet<Entry> transactions = block.transactions();
+        this.shortIds = new long[transactions.size()];
+        int i = 0;
+        for (Entry entry : transactions) {
+            shortIds[i++] = shortId(entry);
+        }
+    }
+
+    /**
+     * Calculates the short id of a transaction.
+     *
+     * @param entry The transaction entry
+     * @return The first 64 bits of the entry's id
+     */
+    public static long shortId(Entry entry) {
+        return Long.parseUnsignedLong(entry.getId().substring(0, 16), 16);
+    }
+
+    /**
+     * Returns the header of the block.
+     *
+     * @return The block header
+     */
+    public BlockHeader getHeader() {
+        return header;
+    }
+
+    /**
+     * Returns the short ids of the block's transactions, in block order.
+     *
+     * @return The short ids
+     */
+    public long[] getShortIds() {
+        return shortIds;
+    }
+
+    /**
+     * Rebuilds the block from its transactions.
+     *
+     * @param entries The transactions of the block, in block order
+     * @return The block, or null if the transactions do not match the Merkle
+     * root of the header
+     */
+    public Block rebuild(List<Entry> entries) {
+        if (entries.size() != shortIds.length) {
+            return null;
+        }
+        Block block = new Block(header.getPreviousHash(), header.getNonce(), header.getCurrentHash(),
+                header.getMerkleRoot(), new CopyOnWriteArraySet<>(entries));
+        return block.getMerkleRoot().equals(header.getMerkleRoot()) ? block : null;
+    }
+
+    @Override
+    public String toString() {
+        return header + " (" + shortIds.length + " transactions)";
+    }
+}
@@ -33,11 +33,28 @@ public class Hash {
      * @return the SHA-256 hash as a hexadecimal string
      */
     public static String getHash(String data) {
+        return getHash(data.getBytes());
+    }
+
+    /**
+     * Generates a secure hash using SHA-256 for the given bytes.
+     *
+     * @param data the input bytes
+     * @return the SHA-256 hash as a hexadecimal string
+     */
+    public static String getHash(byte[] data) {
+        return toHexString(sha256().digest(data));
+    }
+
+    /**
+     * Creates a SHA-256 digest, for data hashed in several parts.
+     *
+     * @return a new SHA-256 digest
+     */
+    public static MessageDigest sha256() {
         try {
             // Use SHA-256 for secure hashing
-            MessageDigest digest = MessageDigest.getInstance("SHA-256");
-            byte[] hashBytes = digest.digest(data.getBytes());
-            return toHexString(hashBytes);
+            return MessageDigest.getInstance("SHA-256");
         } catch (NoSuchAlgorithmException e) {
             throw new RuntimeException("SHA-256 algorithm not found!", e);
         }
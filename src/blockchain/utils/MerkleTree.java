@@ -7,23 +7,53 @@ import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * This class implements a Merkle Tree structure, which is a binary tree where
  * each leaf node is a hash of data, and non-leaf nodes are hashes of their
  * children. Merkle Trees are used in blockchain and cryptography to verify data
  * integrity.
+ *
+ * Two versions of the tree exist. {@link #VERSION_LEGACY} hashes with
+ * String.hashCode() and keeps the levels as lists of strings; it is kept so
+ * that the blocks created with it still validate. {@link #VERSION_SHA256}
+ * keeps the 32-byte SHA-256 nodes of all levels in one flat array, leaves
+ * first. Leaves are hashed as SHA-256(0x00 || data) and inner nodes as
+ * SHA-256(0x01 || left || right); a node without a sibling is carried up
+ * unchanged. Its proofs hold the side of each sibling, so they are checked
+ * in a single pass of O(log n) hashes.
  */
 public final class MerkleTree implements Serializable {
 
-    private List<List<String>> hashTree;  // List of hash levels (from leaves to root)
+    // Fixed so that trees saved by earlier versions can still be read
+    private static final long serialVersionUID = -7378285139730954715L;
+
+    public static final int VERSION_LEGACY = 1;  // String.hashCode() hashes
+    public static final int VERSION_SHA256 = 2;  // SHA-256 hashes in a flat array
+    public static final int CURRENT_VERSION = VERSION_SHA256;
+
+    private static final int HASH_SIZE = 32;           // Bytes of a SHA-256 node
+    private static final byte LEAF_PREFIX = 0x00;      // Domain prefix of leaf hashes
+    private static final byte NODE_PREFIX = 0x01;      // Domain prefix of inner node hashes
+
+    private int version;                  // Version of the tree (zero in trees saved before versions existed)
+    private List<List<String>> hashTree;  // List of hash levels (from root to leaves), legacy version only
     private List<String> elements;        // Original data elements
+    private byte[] nodes;                 // SHA-256 nodes of all levels, leaves first
+    private int[] levelStart;             // Index of the first node of each level, plus the total
+    private transient Map<String, Integer> leafIndex; // Position of each element, built when first needed
 
     /**
-     * Constructs a MerkleTree from an array of data.
+     * Constructs a MerkleTree of the current version from an array of data.
      *
      * @param arrayOfData The data to be added to the Merkle tree.
      */
@@ -32,38 +62,401 @@ public final class MerkleTree implements Serializable {
     }
 
     /**
-     * Constructs a MerkleTree from a list of data.
+     * Constructs a MerkleTree of the current version from a list of data.
      *
      * @param listOfData The list of data to be added to the Merkle tree.
      */
     public MerkleTree(List<Object> listOfData) {
+        this(listOfData, CURRENT_VERSION);
+    }
+
+    /**
+     * Constructs a MerkleTree of the given version from a list of data.
+     *
+     * @param listOfData The list of data to be added to the Merkle tree.
+     * @param version The version of the tree.
+     */
+    public MerkleTree(List<?> listOfData, int version) {
         this();
+        this.version = version;
         for (Object obj : listOfData) {
             elements.add(obj.toString());
         }
 
-        // Create a list of hashes for the elements
-        List<String> hashT = new ArrayList<>();
-        for (Object elem : listOfData) {
-            hashT.add(getHashValue(elem.toString()));
+        if (version == VERSION_LEGACY) {
+            // Create a list of hashes for the elements
+            List<String> hashT = new ArrayList<>();
+            for (String elem : elements) {
+                hashT.add(getHashValue(elem));
+            }
+            makeTree(hashT);  // Build the Merkle tree from hashes
+        } else if (version == VERSION_SHA256) {
+            hashTree = null;
+            buildNodes();
+        } else {
+            throw new IllegalArgumentException("Unknown Merkle tree version " + version);
         }
-        makeTree(hashT);  // Build the Merkle tree from hashes
     }
 
     /**
-     * Default constructor, initializes the Merkle tree with empty lists.
+     * Default constructor, initializes a legacy Merkle tree with empty lists.
      */
     public MerkleTree() {
+        version = VERSION_LEGACY;
         hashTree = new ArrayList<>();
         elements = new ArrayList<>();
     }
 
+    /**
+     * Returns the version of the tree that produced the given root. Legacy
+     * roots are the hexadecimal value of an int, at most 8 characters, while
+     * SHA-256 roots have 64 characters. Nodes only trust legacy roots for the
+     * blocks of their own store; blocks from peers must have SHA-256 roots.
+     *
+     * @param root The Merkle root.
+     * @return The version of the tree.
+     */
+    public static int versionOf(String root) {
+        return root != null && root.length() == 2 * HASH_SIZE ? VERSION_SHA256 : VERSION_LEGACY;
+    }
+
+    /**
+     * Completes trees saved before versions existed, which are legacy trees.
+     *
+     * @return This tree.
+     */
+    private Object readResolve() {
+        if (version == 0) {
+            version = VERSION_LEGACY;
+        }
+        return this;
+    }
+
+    /**
+     * Returns the version of the tree.
+     *
+     * @return {@link #VERSION_LEGACY} or {@link #VERSION_SHA256}.
+     */
+    public int getVersion() {
+        return version;
+    }
+
+    // :::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
+    // :::::::::::::::          S H A - 2 5 6          :::::::::::::::::::::::::
+    // :::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
+    /**
+     * Builds the flat array of SHA-256 nodes from the elements. Level 0 holds
+     * the leaves and each level above holds half of the nodes (rounded up),
+     * until a level with a single node, the root.
+     */
+    private void buildNodes() {
+        // Calculate where each level starts
+        List<Integer> starts = new ArrayList<>();
+        int total = 0;
+        int size = elements.size();
+        do {
+            starts.add(total);
+            total += size;
+            size = (size + 1) / 2;
+        } while (total - starts.get(starts.size() - 1) > 1);
+        starts.add(total);
+        levelStart = starts.stream().mapToInt(Integer::intValue).toArray();
+        nodes = new byte[total * HASH_SIZE];
+
+        MessageDigest sha = sha256();
+        try {
+            // Hash the leaves
+            for (int i = 0; i < elements.size(); i++) {
+                sha.update(LEAF_PREFIX);
+                sha.update(elements.get(i).getBytes(StandardCharsets.UTF_8));
+                sha.digest(nodes, i * HASH_SIZE, HASH_SIZE);
+            }
+            // Hash each level from the one below
+            for (int level = 1; level < levelCount(); level++) {
+                int below = levelStart[level - 1];
+                int belowSize = levelSize(level - 1);
+                for (int i = 0; i < levelSize(level); i++) {
+                    int node = levelStart[level] + i;
+                    int left = below + 2 * i;
+                    if (2 * i + 1 < belowSize) {
+                        sha.update(NODE_PREFIX);
+                        sha.update(nodes, left * HASH_SIZE, 2 * HASH_SIZE);
+                        sha.digest(nodes, node * HASH_SIZE, HASH_SIZE);
+                    } else {
+                        // No sibling: the node is carried up unchanged
+                        System.arraycopy(nodes, left * HASH_SIZE, nodes, node * HASH_SIZE, HASH_SIZE);
+                    }
+                }
+            }
+        } catch (DigestException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /**
+     * Returns the number of levels of a SHA-256 tree.
+     *
+     * @return The number of levels, including leaves and root.
+     */
+    private int levelCount() {
+        return levelStart.length - 1;
+    }
+
+    /**
+     * Returns the number of nodes in a level of a SHA-256 tree.
+     *
+     * @param level The level, zero for the leaves.
+     * @return The number of nodes of the level.
+     */
+    private int levelSize(int level) {
+        return levelStart[level + 1] - levelStart[level];
+    }
+
+    /**
+     * Returns a copy of a node of a SHA-256 tree.
+     *
+     * @param index The index of the node in the flat array.
+     * @return The 32 bytes of the node.
+     */
+    private byte[] node(int index) {
+        return Arrays.copyOfRange(nodes, index * HASH_SIZE, (index + 1) * HASH_SIZE);
+    }
+
+    /**
+     * Returns the root of a SHA-256 tree. An empty tree has the hash of an
+     * empty leaf as its root.
+     *
+     * @return The 32 bytes of the root.
+     */
+    private byte[] rootBytes() {
+        if (elements.isEmpty()) {
+            return hashLeaf("");
+        }
+        return node(levelStart[levelCount() - 1]);
+    }
+
+    /**
+     * Returns a new SHA-256 digest.
+     *
+     * @return The digest.
+     */
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException("SHA-256 algorithm not found!", e);
+        }
+    }
+
+    /**
+     * Calculates the SHA-256 leaf hash of an element.
+     *
+     * @param data The element.
+     * @return The 32 bytes of the leaf hash.
+     */
+    public static byte[] hashLeaf(String data) {
+        MessageDigest sha = sha256();
+        sha.update(LEAF_PREFIX);
+        return sha.digest(data.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Calculates the SHA-256 hash of an inner node.
+     *
+     * @param sha The digest to use.
+     * @param left The left child.
+     * @param right The right child.
+     * @return The 32 bytes of the node.
+     */
+    private static byte[] hashNode(MessageDigest sha, byte[] left, byte[] right) {
+        sha.update(NODE_PREFIX);
+        sha.update(left);
+        return sha.digest(right);
+    }
+
+    /**
+     * Returns the position of an element, looked up in a hash index of the
+     * elements that is built on the first lookup.
+     *
+     * @param data The element.
+     * @return The position of the first equal element, or -1 if there is none.
+     */
+    public synchronized int indexOf(Object data) {
+        if (leafIndex == null) {
+            leafIndex = new HashMap<>(elements.size() * 2);
+            for (int i = 0; i < elements.size(); i++) {
+                leafIndex.putIfAbsent(elements.get(i), i);
+            }
+        }
+        return leafIndex.getOrDefault(data.toString(), -1);
+    }
+
+    /**
+     * Calculates the proof of an element of a SHA-256 tree.
+     *
+     * @param data The element.
+     * @return The proof, or null if the element is not in the tree or the tree
+     * is a legacy one.
+     */
+    public Proof getMerkleProof(Object data) {
+        int index = indexOf(data);
+        if (version != VERSION_SHA256 || index == -1) {
+            return null;
+        }
+        List<byte[]> siblings = new ArrayList<>();
+        long left = 0;  // Bit i set when the i-th sibling is on the left
+        for (int level = 0; level < levelCount() - 1; level++) {
+            int sibling = index ^ 1;
+            if (sibling < levelSize(level)) {
+                if ((index & 1) == 1) {
+                    left |= 1L << siblings.size();
+                }
+                siblings.add(node(levelStart[level] + sibling));
+            }
+            index >>= 1;
+        }
+        return new Proof(siblings, left, rootBytes());
+    }
+
+    /**
+     * Verifies the proof of an element of a SHA-256 tree, hashing once per
+     * sibling.
+     *
+     * @param data The element.
+     * @param proof The proof of the element.
+     * @return true if the proof leads from the element to its root.
+     */
+    public static boolean isProofValid(Object data, Proof proof) {
+        if (proof == null) {
+            return false;
+        }
+        MessageDigest sha = sha256();
+        byte[] hash = hashLeaf(data.toString());
+        for (int i = 0; i < proof.siblings.size(); i++) {
+            byte[] sibling = proof.siblings.get(i);
+            hash = proof.isLeft(i) ? hashNode(sha, sibling, hash) : hashNode(sha, hash, sibling);
+        }
+        return MessageDigest.isEqual(hash, proof.root);
+    }
+
+    /**
+     * The proof of an element of a SHA-256 tree: the siblings on the path from
+     * the leaf to the root, the side of each sibling and the root.
+     */
+    public static final class Proof implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private final List<byte[]> siblings; // Siblings from the leaf up
+        private final long left;             // Bit i set when sibling i is on the left
+        private final byte[] root;           // Root of the tree
+
+        /**
+         * Creates a proof.
+         *
+         * @param siblings The siblings from the leaf up.
+         * @param left The sides of the siblings, bit i set when sibling i is
+         * on the left.
+         * @param root The root of the tree.
+         */
+        public Proof(List<byte[]> siblings, long left, byte[] root) {
+            if (siblings.size() > Long.SIZE) {
+                throw new IllegalArgumentException("Proof too long");
+            }
+            this.siblings = siblings;
+            this.left = left;
+            this.root = root;
+        }
+
+        /**
+         * Returns the siblings from the leaf up.
+         *
+         * @return The 32-byte siblings.
+         */
+        public List<byte[]> getSiblings() {
+            return siblings;
+        }
+
+        /**
+         * Checks whether a sibling is on the left of the path.
+         *
+         * @param i The position of the sibling.
+         * @return true if the sibling is the left child.
+         */
+        public boolean isLeft(int i) {
+            return (left >>> i & 1) == 1;
+        }
+
+        /**
+         * Returns the root of the tree.
+         *
+         * @return The 32 bytes of the root.
+         */
+        public byte[] getRoot() {
+            return root;
+        }
+
+        /**
+         * Returns the proof as text: one line per sibling, prefixed by L or R
+         * for its side, and the root as the last line.
+         *
+         * @return The proof as a list of strings.
+         */
+        public List<String> toStrings() {
+            List<String> proof = new ArrayList<>();
+            for (int i = 0; i < siblings.size(); i++) {
+                proof.add((isLeft(i) ? "L" : "R") + Hash.toHexString(siblings.get(i)));
+            }
+            proof.add(Hash.toHexString(root));
+            return proof;
+        }
+
+        /**
+         * Reads a proof written by {@link #toStrings()}.
+         *
+         * @param proof The proof as a list of strings.
+         * @return The proof.
+         */
+        public static Proof fromStrings(List<String> proof) {
+            List<byte[]> siblings = new ArrayList<>();
+            long left = 0;
+            for (int i = 0; i < proof.size() - 1; i++) {
+                String step = proof.get(i);
+                if (step.charAt(0) == 'L') {
+                    left |= 1L << i;
+                }
+                siblings.add(fromHex(step.substring(1)));
+            }
+            return new Proof(siblings, left, fromHex(proof.get(proof.size() - 1)));
+        }
+
+        /**
+         * Converts a hexadecimal string to bytes.
+         *
+         * @param hex The hexadecimal string.
+         * @return The bytes.
+         */
+        private static byte[] fromHex(String hex) {
+            byte[] bytes = new byte[hex.length() / 2];
+            for (int i = 0; i < bytes.length; i++) {
+                bytes[i] = (byte) Integer.parseInt(hex.substring(2 * i, 2 * i + 2), 16);
+            }
+            return bytes;
+        }
+    }
+
+    // :::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
+    // :::::::::::::::      T R E E   /   L E G A C Y   :::::::::::::::::::::::
+    // :::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
     /**
      * Returns the root hash of the Merkle tree.
      *
      * @return The root hash.
      */
     public String getRoot() {
+        if (version == VERSION_SHA256) {
+            return Hash.toHexString(rootBytes());
+        }
         return hashTree.get(0).get(0);  // The root hash is the first item of the first level
     }
 
@@ -92,7 +485,8 @@ public final class MerkleTree implements Serializable {
     }
 
     /**
-     * calculate the proff of the element
+     * calculate the proff of the element. Proofs of SHA-256 trees are written
+     * as in {@link Proof#toStrings()}.
      *
      * @param data element
      * @return list of proofs
@@ -102,11 +496,14 @@ public final class MerkleTree implements Serializable {
         List<String> proof = new ArrayList<>();
 
         //index of element
-        int index = elements.indexOf(data.toString());
+        int index = indexOf(data);
         if (index == -1) { //element not found
             System.out.println("Element not found");
             return proof; // empty proof
         }
+        if (version == VERSION_SHA256) {
+            return getMerkleProof(data).toStrings();
+        }
         //calculate proof
         return getProof(index, hashTree.size() - 1, proof);
     }
@@ -154,6 +551,10 @@ public final class MerkleTree implements Serializable {
         if (proof.isEmpty()) {
             return false;  // Invalid proof if empty
         }
+        // Proofs of SHA-256 trees end with a SHA-256 root
+        if (versionOf(proof.get(proof.size() - 1)) == VERSION_SHA256) {
+            return isProofValid(data, Proof.fromStrings(proof));
+        }
         String currentHash = getHashValue(data.toString());
         return isProofValid(currentHash, proof, 0);  // Start verification
     }
@@ -187,6 +588,10 @@ public final class MerkleTree implements Serializable {
      * @return True if the tree is valid, false otherwise.
      */
     public boolean isValid() {
+        if (version == VERSION_SHA256) {
+            MerkleTree rebuilt = new MerkleTree(elements, VERSION_SHA256);
+            return Arrays.equals(nodes, rebuilt.nodes);
+        }
         // Check if the hashes in the leaf level match the hashes of the elements
         for (int i = 0; i < this.elements.size(); i++) {
             if (!getHashValue(this.elements.get(i).toString())
@@ -228,14 +633,15 @@ public final class MerkleTree implements Serializable {
             }
         }
 
+        List<List<String>> levels = getHashTree();
         StringBuilder txt = new StringBuilder();
-        for (int i = 0; i < hashTree.size(); i++) {
-            int ini = (int) Math.pow(2, hashTree.size() - i - 1) - 1;
-            int middle = (int) Math.pow(2, hashTree.size() - i) - 1;
+        for (int i = 0; i < levels.size(); i++) {
+            int ini = (int) Math.pow(2, levels.size() - i - 1) - 1;
+            int middle = (int) Math.pow(2, levels.size() - i) - 1;
             if (ini > 0) {
                 txt.append(String.format("%" + ini * SIZE + "s", ""));  // Indentation for each level
             }
-            for (String hash : hashTree.get(i)) {
+            for (String hash : levels.get(i)) {
                 txt.append(centerString(hash, SIZE));
                 txt.append(String.format("%" + middle * SIZE + "s", ""));
             }
@@ -284,6 +690,18 @@ public final class MerkleTree implements Serializable {
      * @return The hash tree.
      */
     public List<List<String>> getHashTree() {
+        if (version == VERSION_SHA256) {
+            // Levels from the root to the leaves, as for legacy trees
+            List<List<String>> levels = new ArrayList<>();
+            for (int level = levelCount() - 1; level >= 0; level--) {
+                List<String> hashes = new ArrayList<>();
+                for (int i = 0; i < levelSize(level); i++) {
+                    hashes.add(Hash.toHexString(node(levelStart[level] + i)));
+                }
+                levels.add(hashes);
+            }
+            return levels;
+        }
         return hashTree;
     }
 
@@ -20,6 +20,7 @@
 //////////////////////////////////////////////////////////////////////////////
 package blockchain.utils;
 
+import java.security.DigestException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.text.SimpleDateFormat;
@@ -27,31 +28,57 @@ import java.util.Base64;
 import java.util.Date;
 import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 import p2p.P2Plistener;
 
 /**
  * This class implements a Miner that works to find a valid nonce for a given
- * message. It runs multiple threads to perform the mining process in parallel.
+ * message. It runs multiple threads to perform the mining process in parallel,
+ * each one searching its own range of nonces.
  */
 public class Miner {
 
+    // Number of mining threads, the number of available processors by default
+    public static final int DEFAULT_THREADS = Integer.getInteger("currdig.miner.threads",
+            Runtime.getRuntime().availableProcessors());
+
+    private static final int HASH_COUNT_INTERVAL = 4096; // Attempts counted locally before being added to the total
+
     private P2Plistener listener;            // Listener for mining events
+    private final int numThreads;            // Number of mining threads
     private MinerThread[] threads;           // Array of miner threads
     private String message;                  // Message to be mined
     private AtomicInteger globalNonce;       // Shared nonce across threads
+    private final LongAdder hashes = new LongAdder(); // Hashes calculated in the current mining
+    private volatile long startTime;         // Start of the current mining (nanoseconds)
+    private volatile long endTime;           // End of the current mining (nanoseconds), zero while running
 
     /**
      * Constructor to initialize the Miner with a listener for mining events.
+     * The number of threads is taken from {@link #DEFAULT_THREADS}.
      *
      * @param listener The listener that will receive mining updates.
      */
     public Miner(P2Plistener listener) {
+        this(listener, DEFAULT_THREADS);
+    }
+
+    /**
+     * Constructor to initialize the Miner with a listener for mining events
+     * and a number of mining threads.
+     *
+     * @param listener The listener that will receive mining updates.
+     * @param numThreads The number of mining threads.
+     */
+    public Miner(P2Plistener listener, int numThreads) {
         this.listener = listener;
+        this.numThreads = Math.max(1, numThreads);
     }
 
     /**
      * Starts mining a message by finding a nonce that produces a hash with the
-     * specified number of leading zeros.
+     * specified number of leading zeros. The positive nonces are split into
+     * disjoint ranges, one for each thread.
      *
      * @param message The message to mine.
      * @param zeros The number of leading zeros required in the hash.
@@ -63,19 +90,28 @@ public class Miner {
         }
         this.message = message;
 
-        int numCores = 4; // Use 4 cores for mining
-        threads = new MinerThread[numCores];
+        threads = new MinerThread[numThreads];
         globalNonce = new AtomicInteger();
+        hashes.reset();
+        startTime = System.nanoTime();
+        endTime = 0;
+
+        // Split the nonces 1..Integer.MAX_VALUE into one range per thread
+        long total = Integer.MAX_VALUE;
+        for (int i = 0; i < numThreads; i++) {
+            long from = 1 + total * i / numThreads;
+            long to = 1 + total * (i + 1) / numThreads;
+            threads[i] = new MinerThread(globalNonce, message, zeros, from, to);
+        }
 
         // Start mining threads
-        for (int i = 0; i < numCores; i++) {
-            threads[i] = new MinerThread(globalNonce, message, zeros);
-            threads[i].start();
+        for (MinerThread thread : threads) {
+            thread.start();
         }
 
         // Notify the listener that mining has started
         if (listener != null) {
-            listener.onStartMining("Start Mining with " + numCores + " cores", zeros);
+            listener.onStartMining("Start Mining with " + numThreads + " threads", zeros);
         }
     }
 
@@ -86,8 +122,10 @@ public class Miner {
      */
     public void stopMining(int nonce) {
         globalNonce.set(nonce);
+        finish();
         if (listener != null) {
-            listener.onStopMining("Stop Mining from " + Thread.currentThread().getName(), nonce);
+            listener.onStopMining("Stop Mining from " + Thread.currentThread().getName()
+                    + " at " + getHashRate() + " H/s", nonce);
         }
 
         // Interrupt all mining threads
@@ -99,6 +137,15 @@ public class Miner {
         }
     }
 
+    /**
+     * Records the end of the current mining, if it was not recorded yet.
+     */
+    private void finish() {
+        if (endTime == 0) {
+            endTime = System.nanoTime();
+        }
+    }
+
     /**
      * Checks if the miner is currently mining.
      *
@@ -126,6 +173,35 @@ public class Miner {
         return message;
     }
 
+    /**
+     * Gets the number of mining threads.
+     *
+     * @return The number of threads used to mine.
+     */
+    public int getNumThreads() {
+        return numThreads;
+    }
+
+    /**
+     * Gets the number of hashes calculated in the current or last mining.
+     *
+     * @return The number of hashes calculated.
+     */
+    public long getHashCount() {
+        return hashes.sum();
+    }
+
+    /**
+     * Gets the hashes per second of the current or last mining.
+     *
+     * @return The number of hashes calculated per second.
+     */
+    public long getHashRate() {
+        long end = endTime == 0 ? System.nanoTime() : endTime;
+        long elapsed = end - startTime;
+        return elapsed <= 0 ? 0 : (long) (hashes.sum() * 1_000_000_000.0 / elapsed);
+    }
+
     /**
      * Converts the mining time in milliseconds to a formatted string.
      *
@@ -145,8 +221,11 @@ public class Miner {
      * @throws InterruptedException If the current thread is interrupted.
      */
     public int waitToNonce() throws InterruptedException {
-        for (MinerThread thread : threads) {
-            thread.join();
+        MinerThread[] running = threads;
+        if (running != null) {
+            for (MinerThread thread : running) {
+                thread.join();
+            }
         }
         return globalNonce.get();
     }
@@ -198,14 +277,107 @@ public class Miner {
     }
 
     /**
-     * A thread that performs mining operations, searching for a valid nonce.
+     * Tests nonces for a message without creating objects for each attempt.
+     * The message is encoded once and the digits of each nonce are hashed
+     * after it, so the bytes hashed are the same as those of
+     * {@link #getHash(String, int)}. With SHA3-256 the message is absorbed
+     * once into a {@link Sha3Midstate} and each attempt hashes only the nonce
+     * digits; other algorithms use a MessageDigest. The difficulty is checked
+     * on the digest bytes: each leading '0' of the Base64 hash is the 6-bit
+     * value 52 (110100), so the first 6 * zeros bits of the digest are
+     * compared with that pattern.
+     */
+    static final class NonceHasher {
+
+        private static final int ZERO_DIGIT = 52; // Value of the Base64 digit '0'
+
+        private final Sha3Midstate midstate; // Message absorbed into SHA3-256, or null
+        private final MessageDigest hasher;  // Hashing algorithm when not SHA3-256, or null
+        private final byte[] prefix;         // Message bytes
+        private final byte[] digits = new byte[10]; // Decimal digits of the nonce, right aligned
+        private final byte[] digest;         // Digest of the last attempt
+        private final byte[] target;         // Expected value of the checked bits
+        private final byte[] mask;           // Bits of the digest that are checked
+
+        /**
+         * Creates a hasher for the given message and difficulty.
+         *
+         * @param message The message to mine.
+         * @param zeros The number of leading zeros required in the Base64 hash.
+         * @throws NoSuchAlgorithmException If the hash algorithm is invalid.
+         */
+        NonceHasher(String message, int zeros) throws NoSuchAlgorithmException {
+            this.prefix = message.getBytes();
+            if ("SHA3-256".equalsIgnoreCase(hashAlgorithm)) {
+                this.midstate = new Sha3Midstate(prefix);
+                this.hasher = null;
+                this.digest = new byte[Sha3Midstate.DIGEST_LENGTH];
+            } else {
+                this.midstate = null;
+                this.hasher = MessageDigest.getInstance(hashAlgorithm);
+                this.digest = new byte[hasher.getDigestLength()];
+            }
+
+            // Build the bit pattern of the leading '0' digits
+            int bits = 6 * Math.max(0, zeros);
+            if (bits > 8 * digest.length) {
+                throw new IllegalArgumentException("Too many zeros for the hash size: " + zeros);
+            }
+            this.target = new byte[(bits + 7) / 8];
+            this.mask = new byte[target.length];
+            for (int bit = 0; bit < bits; bit++) {
+                byte flag = (byte) (0x80 >>> (bit % 8));
+                mask[bit / 8] |= flag;
+                if (((ZERO_DIGIT >> (5 - bit % 6)) & 1) != 0) {
+                    target[bit / 8] |= flag;
+                }
+            }
+        }
+
+        /**
+         * Checks whether the hash of the message with the given nonce has the
+         * required leading zeros.
+         *
+         * @param nonce The nonce to test, not negative.
+         * @return true if the nonce is valid, otherwise false.
+         * @throws DigestException If the digest cannot be calculated.
+         */
+        boolean test(int nonce) throws DigestException {
+            // Write the decimal digits of the nonce
+            int start = digits.length;
+            int value = nonce;
+            do {
+                digits[--start] = (byte) ('0' + value % 10);
+                value /= 10;
+            } while (value != 0);
+
+            if (midstate != null) {
+                midstate.digest(digits, start, digits.length - start, digest);
+            } else {
+                hasher.update(prefix);
+                hasher.update(digits, start, digits.length - start);
+                hasher.digest(digest, 0, digest.length);
+            }
+            for (int i = 0; i < mask.length; i++) {
+                if ((digest[i] & mask[i]) != target[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * A thread that performs mining operations, searching for a valid nonce in
+     * its range of nonces.
      */
     private class MinerThread extends Thread {
 
         private final AtomicInteger sharedNonce;  // Shared nonce across threads
-        private final String message;             // Message to mine
         private final int zeros;                  // Required leading zeros in hash
-        private final MessageDigest hasher;       // Hashing algorithm used in the thread
+        private final long from;                  // First nonce of the range
+        private final long to;                    // End of the range (exclusive)
+        private final NonceHasher hasher;         // Hashes the message with each nonce
 
         /**
          * Initializes a new mining thread.
@@ -213,50 +385,57 @@ public class Miner {
          * @param globalNonce Shared global nonce.
          * @param message The message to mine.
          * @param zeros The number of leading zeros required in the hash.
+         * @param from The first nonce of the thread's range.
+         * @param to The end of the thread's range (exclusive).
          * @throws NoSuchAlgorithmException If the hash algorithm is invalid.
          */
-        public MinerThread(AtomicInteger globalNonce, String message, int zeros) throws NoSuchAlgorithmException {
+        public MinerThread(AtomicInteger globalNonce, String message, int zeros, long from, long to) throws NoSuchAlgorithmException {
             this.sharedNonce = globalNonce;
-            this.message = message;
             this.zeros = zeros;
-            this.hasher = MessageDigest.getInstance(hashAlgorithm);
+            this.from = from;
+            this.to = to;
+            this.hasher = new NonceHasher(message, zeros);
         }
 
         @Override
         public void run() {
+            long counted = 0;
             try {
                 // Notify listener that the thread is starting
                 if (listener != null) {
                     listener.onStartMining("RUN " + Thread.currentThread().getName(), zeros);
                 }
 
-                // Create a prefix for the hash comparison (e.g., "0000" for 4 leading zeros)
-                String prefix = String.format("%0" + zeros + "d", 0);
+                // Start at a random point of the range, so that nodes mining the
+                // same message do not test the same nonces in the same order
+                long size = to - from;
+                long offset = ThreadLocalRandom.current().nextLong(size);
 
                 // Keep searching for the correct nonce until found
-                while (sharedNonce.get() <= 0) {
-                    // Generate a random nonce and test it
-                    int number = Math.abs(ThreadLocalRandom.current().nextInt());
-
-                    if (listener != null && number % 368 == 0) {
-                        listener.onException(new Exception(number + ""), "number");
-                    }
+                for (long i = 0; i < size && sharedNonce.get() <= 0; i++) {
+                    int number = (int) (from + (offset + i) % size);
 
                     // Check if the hash starts with the required number of zeros
-                    if (getThreadHash(message, number).startsWith(prefix)) {
-                        // Update the shared nonce and notify listeners
-                        sharedNonce.set(number);
-
-                        if (listener != null) {
-                            listener.onException(new Exception(number + ""), "nonce");
-                            listener.onNonceFound(Thread.currentThread().getName(), number);
+                    if (hasher.test(number)) {
+                        // Update the shared nonce and notify listeners, only once
+                        if (sharedNonce.compareAndSet(0, number)) {
+                            finish();
+                            if (listener != null) {
+                                listener.onNonceFound(Thread.currentThread().getName(), number);
+                            }
                         }
                     }
+                    if (++counted == HASH_COUNT_INTERVAL) {
+                        hashes.add(counted);
+                        counted = 0;
+                    }
                 }
+                hashes.add(counted);
 
                 // Notify listener that the thread has stopped
                 if (listener != null) {
-                    listener.onStopMining(Thread.currentThread().getName(), sharedNonce.get());
+                    listener.onStopMining(Thread.currentThread().getName() + " at " + getHashRate() + " H/s",
+                            sharedNonce.get());
                 }
             } catch (Exception ex) {
                 // Handle errors during mining
@@ -265,18 +444,6 @@ public class Miner {
                 }
             }
         }
-
-        /**
-         * Calculates the hash of a message concatenated with the nonce.
-         *
-         * @param message The message to hash.
-         * @param nonce The nonce to include in the hash.
-         * @return The Base64 encoded hash of the message and nonce.
-         * @throws Exception If an error occurs during hashing.
-         */
-        public String getThreadHash(String message, int nonce) throws Exception {
-            return Base64.getEncoder().encodeToString(hasher.digest((message + nonce).getBytes()));
-        }
     }
 
     private static final long serialVersionUID = 202111021828L;
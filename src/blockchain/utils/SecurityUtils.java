@@ -40,7 +40,9 @@ import java.security.spec.KeySpec;
 import java.security.spec.PKCS8EncodedKeySpec;
 import java.security.spec.X509EncodedKeySpec;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.IllegalFormatException;
+import java.util.Map;
 import java.util.Random;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
@@ -497,6 +499,39 @@ public class SecurityUtils {
     //::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
     //:::::::::       S I G N A T U R E        :::::::::::::::::::::::::::::::::    
     ///////////////////////////////////////////////////////////////////////////
+    //objetos Signature de cada thread, por algoritmo da chave
+    private static final ThreadLocal<Map<String, Signature>> SIGNATURES = ThreadLocal.withInitial(HashMap::new);
+
+    /**
+     * Devolve o objeto Signature desta thread para o algoritmo da chave,
+     * criando-o na primeira utilização. Cada thread reutiliza as suas
+     * instâncias, que são inicializadas de novo em cada assinatura ou
+     * verificação.
+     *
+     * @param keyAlgorithm algoritmo da chave (RSA ou EC)
+     * @return o objeto Signature desta thread
+     * @throws Exception Caso o algoritmo não exista
+     */
+    private static Signature getSignature(String keyAlgorithm) throws Exception {
+        Map<String, Signature> signatures = SIGNATURES.get();
+        Signature sign = signatures.get(keyAlgorithm);
+        if (sign == null) {
+            //verifica qual o algoritmo a ser utilizado
+            switch (keyAlgorithm) {
+                case "RSA":
+                    sign = Signature.getInstance("SHA256withRSA");
+                    break;
+                case "EC":
+                    sign = Signature.getInstance("SHA256withECDSA");
+                    break;
+                default: //caso o algoritmo pedido não exista
+                    throw new InvalidAlgorithmParameterException();
+            }
+            signatures.put(keyAlgorithm, sign);
+        }
+        return sign;
+    }
+
     /**
      * Assina os dados passados com a chave privada passada
      *
@@ -507,18 +542,8 @@ public class SecurityUtils {
      * não existir
      */
     public static byte[] sign(byte[] data, PrivateKey key) throws Exception {
-        Signature sign;
-        //verifica qual o algoritmo a ser utilizado
-        switch (key.getAlgorithm()) {
-            case "RSA":
-                sign = Signature.getInstance("SHA256withRSA");
-                break;
-            case "EC":
-                sign = Signature.getInstance("SHA256withECDSA");
-                break;
-            default: //caso o algoritmo pedido não exista
-                throw new InvalidAlgorithmParameterException();
-        }
+        //obtem a assinatura desta thread para o algoritmo da chave
+        Signature sign = getSignature(key.getAlgorithm());
         //inicializa a assinatura com a chave
         sign.initSign(key);
         //assina os dados
@@ -539,18 +564,8 @@ public class SecurityUtils {
      * não existir
      */
     public static boolean verifySign(byte[] data, byte[] signature, PublicKey key) throws Exception {
-        Signature sign;
-        //verifica qual o algoritmo a ser utilizado
-        switch (key.getAlgorithm()) {
-            case "RSA":
-                sign = Signature.getInstance("SHA256withRSA");
-                break;
-            case "EC":
-                sign = Signature.getInstance("SHA256withECDSA");
-                break;
-            default: //caso o algoritmo pedido não exista
-                throw new InvalidAlgorithmParameterException();
-        }
+        //obtem a assinatura desta thread para o algoritmo da chave
+        Signature sign = getSignature(key.getAlgorithm());
         //inicializa a validação da assinatura com a chave
         sign.initVerify(key);
         //verifica se assinatura é valida para os dados dados e para assinatura dada
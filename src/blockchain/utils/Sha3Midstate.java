@@ -0,0 +1,246 @@
+package blockchain.utils;
+
+/**
+ * SHA3-256 of a fixed prefix followed by a short suffix, for the nonce search.
+ * The prefix is absorbed once into a Keccak state (the midstate); each digest
+ * starts from a copy of that state and absorbs only the suffix, the padding
+ * and the final permutation. The result is the same as
+ * MessageDigest.getInstance("SHA3-256") over prefix + suffix.
+ *
+ * An instance keeps a working state and must be used by one thread only.
+ */
+final class Sha3Midstate {
+
+    static final int RATE = 136;          // Bytes absorbed per permutation in SHA3-256
+    static final int DIGEST_LENGTH = 32;  // Bytes of the SHA3-256 digest
+
+    private static final long[] ROUND_CONSTANTS = {
+        0x0000000000000001L, 0x0000000000008082L, 0x800000000000808aL, 0x8000000080008000L,
+        0x000000000000808bL, 0x0000000080000001L, 0x8000000080008081L, 0x8000000000008009L,
+        0x000000000000008aL, 0x0000000000000088L, 0x0000000080008009L, 0x000000008000000aL,
+        0x000000008000808bL, 0x800000000000008bL, 0x8000000000008089L, 0x8000000000008003L,
+        0x8000000000008002L, 0x8000000000000080L, 0x000000000000800aL, 0x800000008000000aL,
+        0x8000000080008081L, 0x8000000000008080L, 0x0000000080000001L, 0x8000000080008008L
+    };
+
+    private final long[] midstate = new long[25]; // State after absorbing the prefix
+    private final int position;                   // Prefix bytes in the last, incomplete block
+    private final long[] state = new long[25];    // Working state of the current digest
+
+    /**
+     * Absorbs the given prefix.
+     *
+     * @param prefix The bytes common to all the digests
+     */
+    Sha3Midstate(byte[] prefix) {
+        int offset = 0;
+        // Complete blocks are permuted now
+        for (; prefix.length - offset >= RATE; offset += RATE) {
+            for (int i = 0; i < RATE; i++) {
+                xorByte(midstate, i, prefix[offset + i]);
+            }
+            permute(midstate);
+        }
+        // The rest of the prefix stays in the state until the suffix is added
+        for (int i = offset; i < prefix.length; i++) {
+            xorByte(midstate, i - offset, prefix[i]);
+        }
+        position = prefix.length - offset;
+    }
+
+    /**
+     * Calculates the digest of the prefix followed by the given suffix.
+     *
+     * @param suffix The array holding the suffix
+     * @param offset The start of the suffix in the array
+     * @param length The length of the suffix
+     * @param out The array receiving the 32 bytes of the digest
+     */
+    void digest(byte[] suffix, int offset, int length, byte[] out) {
+        long[] a = state;
+        System.arraycopy(midstate, 0, a, 0, a.length);
+
+        // Absorb the suffix
+        int pos = position;
+        for (int i = 0; i < length; i++) {
+            xorByte(a, pos, suffix[offset + i]);
+            if (++pos == RATE) {
+                permute(a);
+                pos = 0;
+            }
+        }
+
+        // SHA3 padding: 0x06 after the data and 0x80 in the last byte of the block
+        xorByte(a, pos, (byte) 0x06);
+        xorByte(a, RATE - 1, (byte) 0x80);
+        permute(a);
+
+        // Squeeze the digest, lanes are little endian
+        for (int i = 0; i < DIGEST_LENGTH; i++) {
+            out[i] = (byte) (a[i >>> 3] >>> ((i & 7) << 3));
+        }
+    }
+
+    /**
+     * XORs a byte into the state at the given position of the block.
+     *
+     * @param a The state
+     * @param pos The position of the byte in the block
+     * @param b The byte
+     */
+    private static void xorByte(long[] a, int pos, byte b) {
+        a[pos >>> 3] ^= (b & 0xFFL) << ((pos & 7) << 3);
+    }
+
+    /**
+     * Applies the Keccak-f[1600] permutation to the state. The 25 lanes are
+     * kept in local variables during the 24 rounds.
+     *
+     * @param a The state
+     */
+    static void permute(long[] a) {
+        long a00 = a[0], a01 = a[1], a02 = a[2], a03 = a[3], a04 = a[4];
+        long a05 = a[5], a06 = a[6], a07 = a[7], a08 = a[8], a09 = a[9];
+        long a10 = a[10], a11 = a[11], a12 = a[12], a13 = a[13], a14 = a[14];
+        long a15 = a[15], a16 = a[16], a17 = a[17], a18 = a[18], a19 = a[19];
+        long a20 = a[20], a21 = a[21], a22 = a[22], a23 = a[23], a24 = a[24];
+
+        for (int round = 0; round < 24; round++) {
+            // Theta
+            long c0 = a00 ^ a05 ^ a10 ^ a15 ^ a20;
+            long c1 = a01 ^ a06 ^ a11 ^ a16 ^ a21;
+            long c2 = a02 ^ a07 ^ a12 ^ a17 ^ a22;
+            long c3 = a03 ^ a08 ^ a13 ^ a18 ^ a23;
+            long c4 = a04 ^ a09 ^ a14 ^ a19 ^ a24;
+
+            long d1 = (c1 << 1 | c1 >>> 63) ^ c4;
+            long d2 = (c2 << 1 | c2 >>> 63) ^ c0;
+            long d3 = (c3 << 1 | c3 >>> 63) ^ c1;
+            long d4 = (c4 << 1 | c4 >>> 63) ^ c2;
+            long d0 = (c0 << 1 | c0 >>> 63) ^ c3;
+
+            a00 ^= d1;
+            a05 ^= d1;
+            a10 ^= d1;
+            a15 ^= d1;
+            a20 ^= d1;
+            a01 ^= d2;
+            a06 ^= d2;
+            a11 ^= d2;
+            a16 ^= d2;
+            a21 ^= d2;
+            a02 ^= d3;
+            a07 ^= d3;
+            a12 ^= d3;
+            a17 ^= d3;
+            a22 ^= d3;
+            a03 ^= d4;
+            a08 ^= d4;
+            a13 ^= d4;
+            a18 ^= d4;
+            a23 ^= d4;
+            a04 ^= d0;
+            a09 ^= d0;
+            a14 ^= d0;
+            a19 ^= d0;
+            a24 ^= d0;
+
+            // Rho and pi
+            c1 = a01 << 1 | a01 >>> 63;
+            a01 = a06 << 44 | a06 >>> 20;
+            a06 = a09 << 20 | a09 >>> 44;
+            a09 = a22 << 61 | a22 >>> 3;
+            a22 = a14 << 39 | a14 >>> 25;
+            a14 = a20 << 18 | a20 >>> 46;
+            a20 = a02 << 62 | a02 >>> 2;
+            a02 = a12 << 43 | a12 >>> 21;
+            a12 = a13 << 25 | a13 >>> 39;
+            a13 = a19 << 8 | a19 >>> 56;
+            a19 = a23 << 56 | a23 >>> 8;
+            a23 = a15 << 41 | a15 >>> 23;
+            a15 = a04 << 27 | a04 >>> 37;
+            a04 = a24 << 14 | a24 >>> 50;
+            a24 = a21 << 2 | a21 >>> 62;
+            a21 = a08 << 55 | a08 >>> 9;
+            a08 = a16 << 45 | a16 >>> 19;
+            a16 = a05 << 36 | a05 >>> 28;
+            a05 = a03 << 28 | a03 >>> 36;
+            a03 = a18 << 21 | a18 >>> 43;
+            a18 = a17 << 15 | a17 >>> 49;
+            a17 = a11 << 10 | a11 >>> 54;
+            a11 = a07 << 6 | a07 >>> 58;
+            a07 = a10 << 3 | a10 >>> 61;
+            a10 = c1;
+
+            // Chi
+            c0 = a00 ^ (~a01 & a02);
+            c1 = a01 ^ (~a02 & a03);
+            a02 ^= ~a03 & a04;
+            a03 ^= ~a04 & a00;
+            a04 ^= ~a00 & a01;
+            a00 = c0;
+            a01 = c1;
+
+            c0 = a05 ^ (~a06 & a07);
+            c1 = a06 ^ (~a07 & a08);
+            a07 ^= ~a08 & a09;
+            a08 ^= ~a09 & a05;
+            a09 ^= ~a05 & a06;
+            a05 = c0;
+            a06 = c1;
+
+            c0 = a10 ^ (~a11 & a12);
+            c1 = a11 ^ (~a12 & a13);
+            a12 ^= ~a13 & a14;
+            a13 ^= ~a14 & a10;
+            a14 ^= ~a10 & a11;
+            a10 = c0;
+            a11 = c1;
+
+            c0 = a15 ^ (~a16 & a17);
+            c1 = a16 ^ (~a17 & a18);
+            a17 ^= ~a18 & a19;
+            a18 ^= ~a19 & a15;
+            a19 ^= ~a15 & a16;
+            a15 = c0;
+            a16 = c1;
+
+            c0 = a20 ^ (~a21 & a22);
+            c1 = a21 ^ (~a22 & a23);
+            a22 ^= ~a23 & a24;
+            a23 ^= ~a24 & a20;
+            a24 ^= ~a20 & a21;
+            a20 = c0;
+            a21 = c1;
+
+            // Iota
+            a00 ^= ROUND_CONSTANTS[round];
+        }
+
+        a[0] = a00;
+        a[1] = a01;
+        a[2] = a02;
+        a[3] = a03;
+        a[4] = a04;
+        a[5] = a05;
+        a[6] = a06;
+        a[7] = a07;
+        a[8] = a08;
+        a[9] = a09;
+        a[10] = a10;
+        a[11] = a11;
+        a[12] = a12;
+        a[13] = a13;
+        a[14] = a14;
+        a[15] = a15;
+        a[16] = a16;
+        a[17] = a17;
+        a[18] = a18;
+        a[19] = a19;
+        a[20] = a20;
+        a[21] = a21;
+        a[22] = a22;
+        a[23] = a23;
+        a[24] = a24;
+    }
+}
@@ -1,5 +1,10 @@
 package currdig.core;
 
+import blockchain.utils.BlockCodec;
+import blockchain.utils.Hash;
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectStreamException;
 import java.io.Serializable;
 import java.security.PublicKey;
 import java.time.LocalDateTime;
@@ -14,10 +19,14 @@ import currdig.utils.Utils;
  */
 public class Entry implements Serializable {
 
+    // Fixed so that entries saved by earlier versions can still be read
+    private static final long serialVersionUID = -4556617981040917855L;
+
     private String description;
     private PublicKey entityPublicKey;
     private PublicKey targetUserPublicKey; // The public key of the target user associated with the entry
     private LocalDateTime dateTime; // The time when the entry was created
+    private transient String id; // Hash of the entry, calculated when first needed
 
     /**
      * Constructs a new Entry object with the provided details.
@@ -34,6 +43,23 @@ public class Entry implements Serializable {
         this.dateTime = Utils.fetchNetworkTime(); // Fetch the current network time for this entry
     }
 
+    /**
+     * Constructs an Entry with a known creation time, used when an entry is
+     * decoded from storage or from the network.
+     *
+     * @param description A description of the entry.
+     * @param entityPublicKey The public key of the entity creating the entry.
+     * @param targetUserPublicKey The public key of the target user associated
+     * with the entry.
+     * @param dateTime The time when the entry was created.
+     */
+    public Entry(String description, PublicKey entityPublicKey, PublicKey targetUserPublicKey, LocalDateTime dateTime) {
+        this.description = description;
+        this.entityPublicKey = entityPublicKey;
+        this.targetUserPublicKey = targetUserPublicKey;
+        this.dateTime = dateTime;
+    }
+
     /**
      * Gets the description of the entry.
      *
@@ -70,6 +96,21 @@ public class Entry implements Serializable {
         return dateTime;
     }
 
+    /**
+     * Gets the identifier of the entry: the hash of its string representation,
+     * the same value shown as the transaction hash. It is calculated once.
+     *
+     * @return The identifier of the entry.
+     */
+    public String getId() {
+        String value = id;
+        if (value == null) {
+            value = Hash.getHash(toString());
+            id = value;
+        }
+        return value;
+    }
+
     /**
      * Returns a formatted string representation of the entry, including the
      * description, the target user's public key (partially encoded in Base64),
@@ -99,6 +140,20 @@ public class Entry implements Serializable {
                 + dateTime;
     }
 
+    /**
+     * Replaces the entry with its compact binary form when it is serialized.
+     *
+     * @return The encoded form of the entry
+     * @throws ObjectStreamException if the entry cannot be encoded
+     */
+    private Object writeReplace() throws ObjectStreamException {
+        try {
+            return new BlockCodec.Encoded(BlockCodec.Encoded.ENTRY, BlockCodec.encode(this));
+        } catch (IOException ex) {
+            throw new InvalidObjectException("Cannot encode entry: " + ex.getMessage());
+        }
+    }
+
     /**
      * Checks if two entries are equal by comparing their description, entity
      * public key, target user public key, and creation date and time.
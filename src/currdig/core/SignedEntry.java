@@ -0,0 +1,45 @@
+package currdig.core;
+
+import java.io.Serializable;
+
+/**
+ * An entry together with the signature made by the entity that issued it,
+ * used to submit and propagate transactions in batches.
+ */
+public class SignedEntry implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Entry entry;        // The signed entry
+    private final byte[] signature;   // Signature of the entry's text by the entity
+
+    /**
+     * Constructs a signed entry.
+     *
+     * @param entry The entry.
+     * @param signature The signature of {@code entry.toString()} made with the
+     * private key of the entity.
+     */
+    public SignedEntry(Entry entry, byte[] signature) {
+        this.entry = entry;
+        this.signature = signature;
+    }
+
+    /**
+     * Gets the entry.
+     *
+     * @return The entry.
+     */
+    public Entry getEntry() {
+        return entry;
+    }
+
+    /**
+     * Gets the signature of the entry.
+     *
+     * @return The signature bytes.
+     */
+    public byte[] getSignature() {
+        return signature;
+    }
+}
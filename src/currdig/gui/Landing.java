@@ -286,6 +286,9 @@ public class Landing extends javax.swing.JFrame {
                         // Perform a lightweight RMI call to check if the node is responsive
                         node.getAddress(); // If this call fails, the node is unresponsive
                     } catch (RemoteException e) {
+                        // Look the server up again on the next connection
+                        RMI.forgetRemote(node);
+
                         // Notify the user
                         JOptionPane.showMessageDialog(this,
                                 "Node is unavailable. Trying to find new server.",
@@ -980,16 +980,16 @@ public class Main extends javax.swing.JFrame {
      */
     private void btnActiveTransActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_btnActiveTransActionPerformed
         // Create a SwingWorker to handle the transaction retrieval in a background thread
-        SwingWorker<CopyOnWriteArraySet, Void> worker = new SwingWorker<>() {
+        SwingWorker<List<Entry>, Void> worker = new SwingWorker<>() {
             @Override
-            protected CopyOnWriteArraySet doInBackground() throws RemoteException {
+            protected List<Entry> doInBackground() throws RemoteException {
                 return node.getTransactions();
             }
 
             @Override
             protected void done() {
                 try {
-                    CopyOnWriteArraySet transactions = get();
+                    List<Entry> transactions = get();
 
                     // Create formatted string for display
                     StringBuilder displayText = new StringBuilder();
@@ -1105,16 +1105,10 @@ public class Main extends javax.swing.JFrame {
         Entry selectedEntry = selectedBlock.getBuffer().get(selectedTransactionIndex);
         boolean isValid = false;
 
-        if (selectedBlock.getBuffer().size() == 1) {
-            // For single transaction blocks, compare the hash directly
-            String transactionHash = MerkleTree.getHashValue(selectedEntry.toString());
-            String rootHash = selectedBlock.getMerkleTree().getRoot();
-            isValid = transactionHash.equals(rootHash);
-        } else {
-            // For multiple transactions, verify using Merkle proof
-            List<String> proof = selectedBlock.getMerkleTree().getProof(selectedEntry);
-            isValid = MerkleTree.isProofValid(selectedEntry, proof);
-        }
+        // Verify using the Merkle proof; the proof of a single transaction
+        // block is its root, which must be the hash of the transaction
+        List<String> proof = selectedBlock.getMerkleTree().getProof(selectedEntry);
+        isValid = MerkleTree.isProofValid(selectedEntry, proof);
 
         String message = isValid
                 ? "Transaction is valid and included in block"
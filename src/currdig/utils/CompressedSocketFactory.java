@@ -0,0 +1,396 @@
+package currdig.utils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.rmi.server.RMIClientSocketFactory;
+import java.rmi.server.RMIServerSocketFactory;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Socket factory for the RMI calls between nodes and clients. The sockets
+ * disable Nagle's algorithm, use large buffers, and compress the data they
+ * send.
+ *
+ * The data written is cut into blocks of up to 64 KB, sent when the block
+ * fills or when RMI flushes the stream at the end of a call or answer. Blocks
+ * of at least the threshold are deflated, and sent compressed if that makes
+ * them smaller; small calls are sent as they are, so they do not pay for the
+ * compression. Each block starts with its length, negative for a compressed
+ * block, so the reader knows how to read it.
+ *
+ * Both ends of a connection must use this factory: the server side is
+ * selected when the object is exported, and the client side travels in the
+ * stub of the object.
+ */
+public class CompressedSocketFactory implements RMIClientSocketFactory, RMIServerSocketFactory, Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final int BLOCK = 64 * 1024; // Largest block of data, before compression
+
+    private final int threshold;  // Smallest block that is compressed
+    private final int bufferSize; // Send and receive buffers of the sockets
+
+    /**
+     * Creates a factory.
+     *
+     * @param threshold The smallest block, in bytes, that is compressed.
+     * @param bufferSize The size, in bytes, of the send and receive buffers
+     * of the sockets.
+     */
+    public CompressedSocketFactory(int threshold, int bufferSize) {
+        this.threshold = threshold;
+        this.bufferSize = bufferSize;
+    }
+
+    /**
+     * Opens a connection to a server.
+     *
+     * @param host The host of the server.
+     * @param port The port of the server.
+     * @return The connected socket.
+     * @throws IOException If the connection fails.
+     */
+    @Override
+    public Socket createSocket(String host, int port) throws IOException {
+        CompressedSocket socket = new CompressedSocket(threshold);
+        configure(socket);
+        // The buffers are set before connecting so the TCP window can grow to them
+        socket.connect(new InetSocketAddress(host, port));
+        return socket;
+    }
+
+    /**
+     * Opens a server socket that accepts compressed connections.
+     *
+     * @param port The port, or 0 for any free port.
+     * @return The server socket.
+     * @throws IOException If the port cannot be opened.
+     */
+    @Override
+    public ServerSocket createServerSocket(int port) throws IOException {
+        CompressedServerSocket server = new CompressedServerSocket();
+        server.setReceiveBufferSize(bufferSize);
+        server.bind(new InetSocketAddress(port));
+        return server;
+    }
+
+    /**
+     * Sets the options of a socket.
+     *
+     * @param socket The socket.
+     * @throws IOException If an option cannot be set.
+     */
+    private void configure(Socket socket) throws IOException {
+        socket.setTcpNoDelay(true);
+        socket.setSendBufferSize(bufferSize);
+        socket.setReceiveBufferSize(bufferSize);
+    }
+
+    /**
+     * Factories with the same settings are equal, so RMI shares the port and
+     * the connections of the objects exported with them.
+     *
+     * @param obj The other object.
+     * @return true if the other object is a factory with the same settings.
+     */
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (obj == null || obj.getClass() != getClass()) {
+            return false;
+        }
+        CompressedSocketFactory other = (CompressedSocketFactory) obj;
+        return threshold == other.threshold && bufferSize == other.bufferSize;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * threshold + bufferSize;
+    }
+
+    /**
+     * Server socket that returns compressed sockets.
+     */
+    private final class CompressedServerSocket extends ServerSocket {
+
+        private CompressedServerSocket() throws IOException {
+            super();
+        }
+
+        @Override
+        public Socket accept() throws IOException {
+            CompressedSocket socket = new CompressedSocket(threshold);
+            implAccept(socket);
+            configure(socket);
+            return socket;
+        }
+    }
+
+    /**
+     * Socket whose streams compress the data written and expand the data
+     * read.
+     */
+    private static final class CompressedSocket extends Socket {
+
+        private final int threshold;
+        private InputStream in;
+        private OutputStream out;
+
+        private CompressedSocket(int threshold) {
+            this.threshold = threshold;
+        }
+
+        @Override
+        public synchronized InputStream getInputStream() throws IOException {
+            if (in == null) {
+                in = new CompressedInputStream(super.getInputStream());
+            }
+            return in;
+        }
+
+        @Override
+        public synchronized OutputStream getOutputStream() throws IOException {
+            if (out == null) {
+                out = new CompressedOutputStream(super.getOutputStream(), threshold);
+            }
+            return out;
+        }
+    }
+
+    /**
+     * Stream that writes the data in blocks, compressing the large ones.
+     */
+    private static final class CompressedOutputStream extends FilterOutputStream {
+
+        private final int threshold;
+        private final DataOutputStream data;
+        private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        private final byte[] block = new byte[BLOCK];
+        private byte[] compressed = new byte[BLOCK];
+        private int count; // Bytes in the block
+
+        private CompressedOutputStream(OutputStream out, int threshold) {
+            super(out);
+            this.threshold = threshold;
+            this.data = new DataOutputStream(new BufferedOutputStream(out, BLOCK + Integer.BYTES)); // Length and block in one write
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (count == block.length) {
+                writeBlock();
+            }
+            block[count++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                if (count == block.length) {
+                    writeBlock();
+                }
+                int n = Math.min(len, block.length - count);
+                System.arraycopy(b, off, block, count, n);
+                count += n;
+                off += n;
+                len -= n;
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            writeBlock();
+            data.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                flush();
+            } finally {
+                deflater.end();
+                out.close();
+            }
+        }
+
+        /**
+         * Writes the bytes of the block, compressed if it is large enough and
+         * compresses well.
+         *
+         * @throws IOException If the stream fails.
+         */
+        private void writeBlock() throws IOException {
+            if (count == 0) {
+                return;
+            }
+            int size = count >= threshold ? deflate() : count;
+            if (size < count) {
+                data.writeInt(-size);
+                data.write(compressed, 0, size);
+            } else {
+                data.writeInt(count);
+                data.write(block, 0, count);
+            }
+            count = 0;
+        }
+
+        /**
+         * Compresses the block.
+         *
+         * @return The size of the compressed data.
+         */
+        private int deflate() {
+            deflater.reset();
+            deflater.setInput(block, 0, count);
+            deflater.finish();
+            int size = 0;
+            while (!deflater.finished()) {
+                if (size == compressed.length) {
+                    // Data that does not compress can grow a little
+                    compressed = Arrays.copyOf(compressed, compressed.length * 2);
+                }
+                size += deflater.deflate(compressed, size, compressed.length - size);
+            }
+            return size;
+        }
+    }
+
+    /**
+     * Stream that reads the blocks written by a {@link CompressedOutputStream}.
+     */
+    private static final class CompressedInputStream extends FilterInputStream {
+
+        private final DataInputStream data;
+        private final Inflater inflater = new Inflater();
+        private final byte[] block = new byte[BLOCK + 1]; // A spare byte to detect oversized blocks
+        private final byte[] compressed = new byte[BLOCK]; // Compressed blocks are smaller than their data
+        private int position; // Next byte of the block to read
+        private int limit;    // Bytes in the block
+
+        private CompressedInputStream(InputStream in) {
+            super(in);
+            this.data = new DataInputStream(new BufferedInputStream(in, BLOCK));
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (position == limit && !readBlock()) {
+                return -1;
+            }
+            return block[position++] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (position == limit && !readBlock()) {
+                return -1;
+            }
+            int n = Math.min(len, limit - position);
+            System.arraycopy(block, position, b, off, n);
+            position += n;
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = 0;
+            while (skipped < n && (position < limit || readBlock())) {
+                int step = (int) Math.min(n - skipped, limit - position);
+                position += step;
+                skipped += step;
+            }
+            return skipped;
+        }
+
+        @Override
+        public int available() {
+            return limit - position;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        @Override
+        public void close() throws IOException {
+            inflater.end();
+            in.close();
+        }
+
+        /**
+         * Reads the next block, expanding it if it is compressed. The lengths
+         * come from the peer and are checked before anything is read: a block
+         * is never empty, its data never exceeds the block size, and a
+         * compressed block is only sent when smaller than its data.
+         *
+         * @return false at the end of the stream.
+         * @throws IOException If the stream fails or the block is invalid.
+         */
+        private boolean readBlock() throws IOException {
+            int size;
+            try {
+                size = data.readInt();
+            } catch (EOFException ex) {
+                return false;
+            }
+            position = 0;
+            if (size > 0) {
+                if (size > BLOCK) {
+                    throw new IOException("Invalid block of " + size + " bytes");
+                }
+                data.readFully(block, 0, size);
+                limit = size;
+                return true;
+            }
+            if (size == 0 || size == Integer.MIN_VALUE || -size >= BLOCK) {
+                throw new IOException("Invalid block length " + size);
+            }
+
+            size = -size;
+            data.readFully(compressed, 0, size);
+            inflater.reset();
+            inflater.setInput(compressed, 0, size);
+            try {
+                limit = 0;
+                while (!inflater.finished()) {
+                    if (limit > BLOCK) {
+                        throw new IOException("Compressed block larger than " + BLOCK + " bytes");
+                    }
+                    int n = inflater.inflate(block, limit, block.length - limit);
+                    if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                        throw new IOException("Truncated compressed block");
+                    }
+                    limit += n;
+                }
+                if (limit == 0) {
+                    throw new IOException("Empty compressed block");
+                }
+            } catch (DataFormatException ex) {
+                throw new IOException("Invalid compressed block", ex);
+            }
+            return true;
+        }
+    }
+}
@@ -17,12 +17,14 @@ package currdig.utils;
 import java.net.InetAddress;
 import java.net.MalformedURLException;
 import java.net.UnknownHostException;
-import java.rmi.Naming;
 import java.rmi.NotBoundException;
 import java.rmi.Remote;
 import java.rmi.RemoteException;
 import java.rmi.registry.LocateRegistry;
+import java.rmi.registry.Registry;
 import java.rmi.server.UnicastRemoteObject;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Created on 24/nov/2018, 16:44:06
@@ -31,6 +33,20 @@ import java.rmi.server.UnicastRemoteObject;
  */
 public class RMI {
 
+    /**
+     * Sockets of the remote objects and registries: compressed above the
+     * threshold (currdig.rmi.compressThreshold, 4 KB by default) and with
+     * large buffers (currdig.rmi.socketBuffer, 1 MB by default)
+     */
+    public static final CompressedSocketFactory SOCKET_FACTORY = new CompressedSocketFactory(
+            Integer.getInteger("currdig.rmi.compressThreshold", 4096),
+            Integer.getInteger("currdig.rmi.socketBuffer", 1 << 20));
+
+    /**
+     * Remote objects already looked up, by address
+     */
+    private static final Map<String, Remote> REMOTES = new ConcurrentHashMap<>();
+
     /**
      * gets the RMI name of an remote object in the server
      *
@@ -83,12 +99,10 @@ public class RMI {
      */
     public static void startRemoteObject(Remote remote, String address)
             throws RemoteException, UnknownHostException, MalformedURLException {
-        //extract port from adress
-        String port = address.substring(address.indexOf(":") + 1, address.lastIndexOf("/"));
-        //create port registry
-        LocateRegistry.createRegistry(Integer.parseInt(port));
-        //Rebind remote to the adress
-        Naming.rebind(address, remote);
+        //create port registry, with the sockets of the remote objects so they can share the port
+        Registry registry = LocateRegistry.createRegistry(getAdressPort(address), SOCKET_FACTORY, SOCKET_FACTORY);
+        //Rebind remote to the name in the adress
+        registry.rebind(getAdressObjectName(address), remote);
         System.out.println("remote Object " + address + " avaiable.");
     }
 
@@ -99,7 +113,7 @@ public class RMI {
      * @return server
      */
     public static String getAdressServer(String address) {
-        return address.substring(address.indexOf("//")+3 , address.lastIndexOf(":"));
+        return address.substring(address.indexOf("//") + 2, address.lastIndexOf(":"));
     }
     
         /**
@@ -136,16 +150,15 @@ public class RMI {
      */
     public static Remote getRemote(String host, int port, String objectName)
             throws NotBoundException, MalformedURLException, RemoteException {
-        //gets remote refefence
-        return Naming.lookup(getRemoteName(host, port, objectName));
+        //gets remote refefence from the registry of the host
+        return LocateRegistry.getRegistry(host, port, SOCKET_FACTORY).lookup(objectName);
     }
     
      /**
-     * Gets a remote object
+     * Gets a remote object. The object is looked up once and reused by the
+     * next calls, until it is forgotten with {@link #forgetRemote(Remote)}
      *
-     * @param host name of the host
-     * @param port number of listen port
-     * @param objectName name of the object
+     * @param address Adress of remote object
      * @return remote object
      * @throws java.rmi.NotBoundException
      * @throws java.net.MalformedURLException
@@ -153,8 +166,23 @@ public class RMI {
      */
     public static Remote getRemote(String address)
             throws NotBoundException, MalformedURLException, RemoteException {
-        //gets remote refefence
-        return Naming.lookup(address);
+        Remote remote = REMOTES.get(address);
+        if (remote == null) {
+            //gets remote refefence
+            remote = getRemote(getAdressServer(address), getAdressPort(address), getAdressObjectName(address));
+            REMOTES.put(address, remote);
+        }
+        return remote;
+    }
+
+    /**
+     * Forgets a remote object that stopped answering, so the next
+     * {@link #getRemote(String)} looks it up again
+     *
+     * @param remote remote object
+     */
+    public static void forgetRemote(Remote remote) {
+        REMOTES.values().remove(remote);
     }
 
     /**
@@ -0,0 +1,392 @@
+package p2p;
+
+import blockchain.utils.Block;
+import blockchain.utils.BlockHeader;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Downloads the blocks of a chain whose headers are already known and
+ * checked, from several peers at once.
+ *
+ * The blocks are cut into ranges, and each peer is given a few ranges at a
+ * time, the faster peers first. Each answer is checked against the headers
+ * (the Merkle root of every block is recalculated) by the thread that made
+ * the request, so the checks of a range run while the other ranges are
+ * downloading. Only the ranges within a window after the first missing
+ * block are requested, so the blocks waiting for an earlier range stay
+ * bounded.
+ *
+ * A range that takes longer than the stall time is requested from another
+ * peer as well, and the first valid answer is kept; a peer that fails,
+ * answers blocks that do not match the headers or lacks the blocks is not
+ * asked for that range again, and a peer that fails repeatedly is dropped.
+ * A request still unanswered after a few stall times is given up and counts
+ * as a failure, as the calls to the peers have no deadline of their own; a
+ * range whose only peers hang therefore fails the download instead of
+ * waiting forever. The download goes as fast as all the peers together, and
+ * a slow or dishonest peer costs at most the stall time while another peer
+ * has the range, and a few stall times otherwise.
+ */
+public class BlockDownloader {
+
+    private static final int MAX_FAILURES = 3;   // Failures after which a peer is no longer asked
+    private static final int DEADLINE_STALLS = 4; // Stall times after which a request is given up
+
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor(); // One thread per request
+    private final int batchSize;    // Blocks per request
+    private final int perPeer;      // Requests in flight per peer
+    private final int window;       // Ranges after the first missing block that may be requested
+    private final long stallMillis; // Time after which a range is also requested from another peer
+
+    /**
+     * Creates a downloader.
+     *
+     * @param batchSize The number of blocks requested at a time.
+     * @param perPeer The number of requests in flight per peer.
+     * @param window The number of ranges, starting at the first missing
+     * block, that may be requested or held at the same time.
+     * @param stallMillis The time, in milliseconds, after which a range that
+     * has not arrived is requested from another peer as well.
+     */
+    public BlockDownloader(int batchSize, int perPeer, int window, long stallMillis) {
+        this.batchSize = Math.max(1, batchSize);
+        this.perPeer = Math.max(1, perPeer);
+        this.window = Math.max(1, window);
+        this.stallMillis = stallMillis;
+    }
+
+    /**
+     * Downloads the blocks of the given headers.
+     *
+     * @param start The height of the first header.
+     * @param headers The checked headers of the blocks, in chain order.
+     * @param peers The peers to download from.
+     * @return The blocks, in chain order, each matching its header.
+     * @throws Exception If no peer has some of the blocks, or the download is
+     * interrupted.
+     */
+    public List<Block> download(int start, List<BlockHeader> headers, List<IremoteP2P> peers) throws Exception {
+        Download download = new Download(start, headers, peers);
+        try {
+            return download.run();
+        } finally {
+            download.cancel();
+        }
+    }
+
+    /**
+     * Stops the requests in flight.
+     */
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * The state of one download, used by the calling thread only; the
+     * requests report to it through a queue.
+     */
+    private final class Download {
+
+        private final int start;                    // Height of the first block
+        private final List<BlockHeader> headers;    // Headers of the blocks
+        private final Block[] blocks;               // Blocks received, by position
+        private final List<Source> sources = new ArrayList<>();            // Peers still asked
+        private final TreeSet<Range> queue = new TreeSet<>();              // Ranges to request, first block first
+        private final List<Request> inFlight = new ArrayList<>();          // Requests not answered yet
+        private final BlockingQueue<Request> answers = new LinkedBlockingQueue<>(); // Requests answered
+        private int missing;                         // Position of the first missing block
+
+        private Download(int start, List<BlockHeader> headers, List<IremoteP2P> peers) {
+            this.start = start;
+            this.headers = headers;
+            this.blocks = new Block[headers.size()];
+            for (IremoteP2P peer : peers) {
+                sources.add(new Source(peer));
+            }
+            for (int from = 0; from < headers.size(); from += batchSize) {
+                queue.add(new Range(from, Math.min(headers.size(), from + batchSize), new HashSet<>()));
+            }
+        }
+
+        /**
+         * Requests the ranges and collects the answers until every block is
+         * received.
+         *
+         * @return The blocks.
+         * @throws Exception If no peer can provide a missing range.
+         */
+        private List<Block> run() throws Exception {
+            while (missing < blocks.length) {
+                assign();
+                if (inFlight.isEmpty()) {
+                    throw new Exception("No peer has the blocks from height " + (start + missing));
+                }
+                Request answered = answers.poll(Math.max(1, stallMillis / 4), TimeUnit.MILLISECONDS);
+                if (answered != null) {
+                    collect(answered);
+                }
+                requestStalled();
+            }
+            List<Block> chain = new ArrayList<>(blocks.length);
+            for (Block block : blocks) {
+                chain.add(block);
+            }
+            return chain;
+        }
+
+        /**
+         * Gives the ranges within the window to the peers that can take a
+         * request, the fastest first.
+         */
+        private void assign() {
+            int limit = missing + window * batchSize;
+            for (Range range : new ArrayList<>(queue)) {
+                if (range.from >= limit) {
+                    break;
+                }
+                if (received(range)) {
+                    queue.remove(range);
+                    continue;
+                }
+                Source best = null;
+                for (Source source : sources) {
+                    if (source.inFlight < perPeer && !range.excluded.contains(source)
+                            && (best == null || source.averageNanos() < best.averageNanos())) {
+                        best = source;
+                    }
+                }
+                if (best != null) {
+                    queue.remove(range);
+                    send(range, best);
+                }
+            }
+            // Ranges no remaining peer can provide are dropped, so the download fails instead of waiting
+            queue.removeIf(range -> sources.stream().allMatch(range.excluded::contains) && !pending(range));
+        }
+
+        /**
+         * Requests a range from a peer. The request thread checks the blocks
+         * against their headers before reporting.
+         *
+         * @param range The range.
+         * @param source The peer.
+         */
+        private void send(Range range, Source source) {
+            Request request = new Request(range, source);
+            source.inFlight++;
+            inFlight.add(request);
+            request.future = executor.submit(() -> {
+                try {
+                    List<Block> received = source.peer.getBlocks(start + range.from, range.to - range.from);
+                    List<Block> valid = new ArrayList<>();
+                    for (Block block : received) {
+                        int position = range.from + valid.size();
+                        if (position >= range.to || !headers.get(position).matches(block)) {
+                            request.invalid = true; // Another chain, or a forged block
+                            break;
+                        }
+                        valid.add(block);
+                    }
+                    request.blocks = valid;
+                } catch (Exception ex) {
+                    request.error = ex;
+                } finally {
+                    request.nanos = System.nanoTime() - request.started;
+                    answers.add(request);
+                }
+                return null;
+            });
+        }
+
+        /**
+         * Keeps the blocks of an answer and requests again, from other peers,
+         * the part of the range it lacked.
+         *
+         * @param request The answered request.
+         */
+        private void collect(Request request) {
+            if (!inFlight.remove(request)) {
+                return; // Answered after it was given up
+            }
+            Source source = request.source;
+            source.inFlight--;
+            int received = request.expired || request.blocks == null ? 0 : request.blocks.size();
+            for (int i = 0; i < received; i++) {
+                if (blocks[request.range.from + i] == null) {
+                    blocks[request.range.from + i] = request.blocks.get(i);
+                }
+            }
+            if (request.error != null || request.invalid || request.expired) {
+                if (++source.failures >= MAX_FAILURES) {
+                    sources.remove(source);
+                }
+            } else if (received > 0) {
+                source.answered(request.nanos);
+            }
+            while (missing < blocks.length && blocks[missing] != null) {
+                missing++;
+            }
+
+            // The rest of the range goes back to the queue, for the other peers
+            int from = request.range.from + received;
+            if (from < request.range.to) {
+                Set<Source> excluded = new HashSet<>(request.range.excluded);
+                excluded.add(source);
+                Range rest = new Range(from, request.range.to, excluded);
+                if (!received(rest) && !pending(rest)) {
+                    queue.add(rest);
+                }
+            }
+        }
+
+        /**
+         * Requests from another peer the ranges near the first missing block
+         * whose request takes longer than the stall time, and gives up the
+         * requests older than the deadline.
+         */
+        private void requestStalled() {
+            long now = System.nanoTime();
+            for (Request request : new ArrayList<>(inFlight)) {
+                if (now - request.started > TimeUnit.MILLISECONDS.toNanos(DEADLINE_STALLS * stallMillis)) {
+                    // The rest of its range goes back to the queue without its peer
+                    request.expired = true;
+                    request.future.cancel(true);
+                    collect(request);
+                } else if (!request.duplicated && now - request.started > TimeUnit.MILLISECONDS.toNanos(stallMillis)
+                        && request.range.from < missing + window * batchSize && !received(request.range)) {
+                    request.duplicated = true;
+                    Set<Source> excluded = new HashSet<>(request.range.excluded);
+                    excluded.add(request.source);
+                    queue.add(new Range(request.range.from, request.range.to, excluded));
+                }
+            }
+        }
+
+        /**
+         * Checks whether every block of a range was received.
+         *
+         * @param range The range.
+         * @return true if no block of the range is missing.
+         */
+        private boolean received(Range range) {
+            for (int i = range.from; i < range.to; i++) {
+                if (blocks[i] == null) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Checks whether a request covering a range is in flight and not
+         * stalled.
+         *
+         * @param range The range.
+         * @return true if such a request is in flight.
+         */
+        private boolean pending(Range range) {
+            for (Request request : inFlight) {
+                if (!request.duplicated && request.range.from <= range.from && request.range.to >= range.to) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Cancels the requests still in flight.
+         */
+        private void cancel() {
+            for (Request request : inFlight) {
+                if (request.future != null) {
+                    request.future.cancel(true);
+                }
+            }
+        }
+    }
+
+    /**
+     * A peer blocks are downloaded from.
+     */
+    private static final class Source {
+
+        private final IremoteP2P peer;
+        private int inFlight;     // Requests not answered yet
+        private int failures;     // Failed or invalid answers
+        private long totalNanos;  // Time of the valid answers
+        private int answers;      // Number of valid answers
+
+        private Source(IremoteP2P peer) {
+            this.peer = peer;
+        }
+
+        private void answered(long nanos) {
+            totalNanos += nanos;
+            answers++;
+        }
+
+        /**
+         * Returns the mean time of the answers of the peer; a peer not tried
+         * yet counts as the fastest, so every peer is tried.
+         *
+         * @return The mean time, in nanoseconds.
+         */
+        private long averageNanos() {
+            return answers == 0 ? 0 : totalNanos / answers;
+        }
+    }
+
+    /**
+     * A range of blocks, by position in the headers, with the peers not to
+     * ask for it.
+     */
+    private static final class Range implements Comparable<Range> {
+
+        private final int from;              // First position
+        private final int to;                // Position after the last
+        private final Set<Source> excluded;  // Peers that failed or lacked the range
+
+        private Range(int from, int to, Set<Source> excluded) {
+            this.from = from;
+            this.to = to;
+            this.excluded = excluded;
+        }
+
+        @Override
+        public int compareTo(Range other) {
+            return from != other.from ? Integer.compare(from, other.from) : Integer.compare(to, other.to);
+        }
+    }
+
+    /**
+     * A request of a range to a peer, filled in by the request thread.
+     */
+    private static final class Request {
+
+        private final Range range;
+        private final Source source;
+        private final long started = System.nanoTime();
+        private Future<?> future;
+        private volatile boolean duplicated;  // Also requested from another peer
+        private volatile boolean expired;     // Given up after the deadline
+        private volatile List<Block> blocks;  // Blocks matching their headers, from the first of the range
+        private volatile boolean invalid;     // A block did not match its header
+        private volatile Exception error;     // Error of the call
+        private volatile long nanos;          // Time of the call
+
+        private Request(Range range, Source source) {
+            this.range = range;
+            this.source = source;
+        }
+    }
+}
@@ -0,0 +1,370 @@
+package p2p;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/**
+ * Detects the peers that stopped answering, with an accrual failure detector
+ * (the phi detector of Hayashibara et al.) and indirect probes (as in SWIM).
+ *
+ * Every message from a peer, an answer to any call or a message it sends, is
+ * a heartbeat. For each peer the detector keeps the intervals between its
+ * last heartbeats, and computes the suspicion level phi from the time since
+ * the last one: phi is -log10 of the probability that a heartbeat arrives
+ * that late, assuming normally distributed intervals. A peer with phi above
+ * the threshold is suspected; the threshold adapts to each peer, whether it is
+ * heard every few milliseconds or every few seconds.
+ *
+ * Each round, the peers not heard since the last round are probed
+ * concurrently, at most the square root of the number of peers (the ones heard
+ * from the longest ago) plus the suspected ones, each probe with a timeout.
+ * A suspected peer that does not answer is probed through a few other peers,
+ * so a broken link between two nodes does not remove a node alive for the
+ * others; if none of them reaches it either, the peer is removed. The probes
+ * per round and the rounds until a silent peer is probed both grow with the
+ * square root of the number of peers.
+ */
+public class FailureDetector implements FanOut.Observer {
+
+    private static final int WINDOW = 100;             // Intervals kept per peer
+    private static final double MIN_DEVIATION = 0.25;  // Smallest deviation of the intervals, as a fraction of the mean
+
+    private final String self;               // Address of the local node
+    private final PeerRegistry peers;        // Peers watched
+    private final FanOut probes;             // Direct and indirect probes
+    private final long intervalMillis;       // Time between rounds
+    private final long timeoutMillis;        // Deadline of a direct probe
+    private final double threshold;          // Suspicion level of a failed peer
+    private final int indirect;              // Peers asked to probe a suspected peer
+    private final Consumer<String> onFailure; // Told of the peers removed
+    private final Map<String, Arrivals> arrivals = new ConcurrentHashMap<>(); // Heartbeats by address
+
+    /**
+     * Creates a failure detector.
+     *
+     * @param self The address of the local node, never probed.
+     * @param peers The peers to watch.
+     * @param parallelism The maximum number of probes in flight.
+     * @param intervalMillis The time between rounds of probes.
+     * @param timeoutMillis The deadline of a probe.
+     * @param threshold The suspicion level (phi) above which a peer that does
+     * not answer the probes is removed.
+     * @param indirect The number of peers asked to probe a suspected peer.
+     * @param onFailure Told of the address of each peer removed.
+     */
+    public FailureDetector(String self, PeerRegistry peers, int parallelism, long intervalMillis, long timeoutMillis,
+            double threshold, int indirect, Consumer<String> onFailure) {
+        this.self = self;
+        this.peers = peers;
+        this.probes = new FanOut(parallelism, this);
+        this.intervalMillis = intervalMillis;
+        this.timeoutMillis = timeoutMillis;
+        this.threshold = threshold;
+        this.indirect = indirect;
+        this.onFailure = onFailure;
+    }
+
+    /**
+     * Records a message received from a peer.
+     *
+     * @param address The address of the peer.
+     */
+    public void heard(String address) {
+        PeerRegistry.Peer peer = address == null ? null : peers.get(address);
+        if (peer != null) {
+            peer.heard();
+            arrivals.computeIfAbsent(address, a -> new Arrivals()).add(System.currentTimeMillis(), intervalMillis / 10);
+        }
+    }
+
+    /**
+     * Records the answer of a peer to a call.
+     *
+     * @param stub The object of the peer.
+     * @param nanos The duration of the call, in nanoseconds.
+     */
+    @Override
+    public void answered(IremoteP2P stub, long nanos) {
+        String address = peers.addressOf(stub);
+        PeerRegistry.Peer peer = address == null ? null : peers.get(address);
+        if (peer != null) {
+            peer.answered(nanos);
+            heard(address);
+        }
+    }
+
+    /**
+     * Records a failed call on a peer, so the next call reconnects. The
+     * failure alone does not make the peer suspected: only the lack of
+     * heartbeats does.
+     *
+     * @param stub The object of the peer.
+     * @param error The error of the call.
+     */
+    @Override
+    public void failed(IremoteP2P stub, Throwable error) {
+        String address = peers.addressOf(stub);
+        PeerRegistry.Peer peer = address == null ? null : peers.get(address);
+        if (peer != null) {
+            peer.failed();
+        }
+    }
+
+    /**
+     * Returns the suspicion level of a peer.
+     *
+     * @param address The address of the peer.
+     * @return The suspicion level, 0 for a peer just heard from.
+     */
+    public double phi(String address) {
+        PeerRegistry.Peer peer = peers.get(address);
+        if (peer == null) {
+            return 0;
+        }
+        Arrivals peerArrivals = arrivals.get(address);
+        long elapsed = System.currentTimeMillis() - peer.getLastSeen();
+        return phi(elapsed, peerArrivals != null && peerArrivals.count > 0 ? peerArrivals.mean() : expectedInterval(),
+                peerArrivals != null && peerArrivals.count > 1 ? peerArrivals.deviation() : 0);
+    }
+
+    /**
+     * Makes a round of probes: probes the silent peers, asks other peers to
+     * probe the suspected ones that do not answer, and removes those that no
+     * one reaches.
+     */
+    public void probeRound() {
+        List<PeerRegistry.Peer> candidates = new ArrayList<>();
+        for (PeerRegistry.Peer peer : peers.all()) {
+            if (!peer.getAddress().equals(self)) {
+                candidates.add(peer);
+            }
+        }
+        if (candidates.isEmpty()) {
+            return;
+        }
+
+        // The suspected peers, and the peers heard from the longest ago, up to the square root of the peers
+        long now = System.currentTimeMillis();
+        int budget = (int) Math.ceil(Math.sqrt(candidates.size()));
+        Map<PeerRegistry.Peer, Long> lastSeen = new HashMap<>(); // Fixed while sorting
+        for (PeerRegistry.Peer peer : candidates) {
+            lastSeen.put(peer, peer.getLastSeen());
+        }
+        candidates.sort(Comparator.comparingLong(lastSeen::get));
+        List<PeerRegistry.Peer> targets = new ArrayList<>();
+        for (PeerRegistry.Peer peer : candidates) {
+            if (phi(peer.getAddress()) >= threshold) {
+                targets.add(peer);
+            } else if (budget > 0 && now - lastSeen.get(peer) >= intervalMillis) {
+                targets.add(peer); // Not heard since the last round
+                budget--;
+            }
+        }
+        if (targets.isEmpty()) {
+            return;
+        }
+
+        // Probe them directly, all at once
+        probeDirectly(targets);
+
+        // The suspected peers that still did not answer are probed through other peers
+        List<String> suspects = new ArrayList<>();
+        for (PeerRegistry.Peer peer : targets) {
+            if (phi(peer.getAddress()) >= threshold) {
+                suspects.add(peer.getAddress());
+            }
+        }
+        if (suspects.isEmpty()) {
+            return;
+        }
+        for (String reached : probeIndirectly(suspects, candidates)) {
+            heard(reached);
+        }
+
+        // No one reached the peers still suspected
+        for (String address : suspects) {
+            if (phi(address) >= threshold && peers.remove(address) != null) {
+                arrivals.remove(address);
+                onFailure.accept(address);
+            }
+        }
+    }
+
+    /**
+     * Probes peers on behalf of another node. Only the peers this node knows
+     * are probed.
+     *
+     * @param addresses The addresses of the peers to probe.
+     * @return The addresses of the peers that answered.
+     */
+    public List<String> probe(List<String> addresses) {
+        List<PeerRegistry.Peer> targets = new ArrayList<>();
+        for (String address : addresses) {
+            PeerRegistry.Peer peer = peers.get(address);
+            if (peer != null) {
+                targets.add(peer);
+            }
+        }
+        return probeDirectly(targets);
+    }
+
+    /**
+     * Stops the probes in flight.
+     */
+    public void shutdown() {
+        probes.shutdown();
+    }
+
+    /**
+     * Probes peers directly, all at once. The object of a peer marked as
+     * failed is looked up again within its probe, so an unreachable peer
+     * costs at most the deadline of the probe and does not hold up the
+     * others.
+     *
+     * @param targets The peers to probe.
+     * @return The addresses of the peers that answered.
+     */
+    private List<String> probeDirectly(List<PeerRegistry.Peer> targets) {
+        Map<IremoteP2P, PeerRegistry.Peer> stubs = new HashMap<>();
+        for (PeerRegistry.Peer peer : targets) {
+            stubs.put(peers.stub(peer), peer);
+        }
+        List<String> reached = new ArrayList<>();
+        for (Map.Entry<IremoteP2P, String> answer : probes.call("probe", stubs.keySet(),
+                stub -> peers.connect(stubs.get(stub)).getAddress(), timeoutMillis).getValues().entrySet()) {
+            heardThroughNewStub(answer.getKey(), stubs.get(answer.getKey()));
+            reached.add(answer.getValue());
+        }
+        return reached;
+    }
+
+    /**
+     * Asks a few peers, not suspected themselves, to probe the suspected
+     * peers.
+     *
+     * @param suspects The addresses of the suspected peers.
+     * @param candidates The peers of the node.
+     * @return The addresses of the suspected peers that some peer reached.
+     */
+    private List<String> probeIndirectly(List<String> suspects, List<PeerRegistry.Peer> candidates) {
+        Map<IremoteP2P, PeerRegistry.Peer> helpers = new HashMap<>();
+        List<PeerRegistry.Peer> shuffled = new ArrayList<>(candidates);
+        Collections.shuffle(shuffled);
+        for (PeerRegistry.Peer peer : shuffled) {
+            if (helpers.size() == indirect) {
+                break;
+            }
+            if (!suspects.contains(peer.getAddress()) && phi(peer.getAddress()) < threshold) {
+                helpers.put(peers.stub(peer), peer);
+            }
+        }
+        List<String> reached = new ArrayList<>();
+        // The helpers probe with the same timeout, so they get twice as long
+        for (Map.Entry<IremoteP2P, List<String>> answer : probes.call("indirectProbe", helpers.keySet(),
+                stub -> peers.connect(helpers.get(stub)).probe(suspects), 2 * timeoutMillis).getValues().entrySet()) {
+            heardThroughNewStub(answer.getKey(), helpers.get(answer.getKey()));
+            reached.addAll(answer.getValue());
+        }
+        return reached;
+    }
+
+    /**
+     * Records the answer of a peer whose object was replaced during the call:
+     * the answer then comes from the new object, which the observer of the
+     * calls does not know under the old one.
+     *
+     * @param stub The object the call was made for.
+     * @param peer The peer.
+     */
+    private void heardThroughNewStub(IremoteP2P stub, PeerRegistry.Peer peer) {
+        if (peers.addressOf(stub) == null && peers.get(peer.getAddress()) == peer) {
+            heard(peer.getAddress());
+        }
+    }
+
+    /**
+     * Returns the expected interval between heartbeats of a peer not heard
+     * yet: the time for the round-robin of the probes to reach it.
+     *
+     * @return The interval, in milliseconds.
+     */
+    private double expectedInterval() {
+        int size = Math.max(1, peers.size());
+        return intervalMillis * Math.ceil(size / Math.ceil(Math.sqrt(size)));
+    }
+
+    /**
+     * Computes the suspicion level of a peer, with the logistic approximation
+     * of the normal distribution.
+     *
+     * @param elapsed The time since the last heartbeat, in milliseconds.
+     * @param mean The mean interval between heartbeats.
+     * @param deviation The standard deviation of the intervals.
+     * @return The suspicion level.
+     */
+    static double phi(long elapsed, double mean, double deviation) {
+        double sigma = Math.max(deviation, mean * MIN_DEVIATION);
+        double y = (elapsed - mean) / sigma;
+        double e = Math.exp(-y * (1.5976 + 0.070566 * y * y));
+        if (elapsed > mean) {
+            return -Math.log10(e / (1.0 + e));
+        }
+        return -Math.log10(1.0 - 1.0 / (1.0 + e));
+    }
+
+    /**
+     * The last intervals between the heartbeats of a peer.
+     */
+    private static final class Arrivals {
+
+        private final long[] intervals = new long[WINDOW];
+        private int count;    // Intervals in the window
+        private int next;     // Slot of the next interval
+        private long sum;     // Sum of the intervals in the window
+        private long squares; // Sum of the squares of the intervals in the window
+        private long last;    // Time of the last heartbeat
+
+        /**
+         * Records a heartbeat. Heartbeats closer to the previous one than the
+         * minimum interval, such as the answers to a burst of calls, count as
+         * one.
+         *
+         * @param now The time of the heartbeat, in milliseconds.
+         * @param minimum The minimum interval, in milliseconds.
+         */
+        private synchronized void add(long now, long minimum) {
+            if (last > 0 && now - last < minimum) {
+                return;
+            }
+            if (last > 0) {
+                long interval = now - last;
+                if (count == WINDOW) {
+                    sum -= intervals[next];
+                    squares -= intervals[next] * intervals[next];
+                } else {
+                    count++;
+                }
+                intervals[next] = interval;
+                sum += interval;
+                squares += interval * interval;
+                next = (next + 1) % WINDOW;
+            }
+            last = now;
+        }
+
+        private synchronized double mean() {
+            return (double) sum / count;
+        }
+
+        private synchronized double deviation() {
+            double mean = (double) sum / count;
+            return Math.sqrt(Math.max(0, (double) squares / count - mean * mean));
+        }
+    }
+}
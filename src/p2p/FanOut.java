@@ -0,0 +1,344 @@
+package p2p;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Makes the same remote call on a set of peers concurrently, one virtual
+ * thread per call. A semaphore limits how many calls are in flight, and every
+ * call has a deadline: calls that have not answered when it expires are
+ * cancelled and reported as unanswered.
+ *
+ * A call can return as soon as a quorum of peers has answered successfully;
+ * the other calls keep running in the background until they answer or the
+ * deadline expires. A slow peer therefore delays a broadcast only when it is
+ * needed for the quorum.
+ */
+public class FanOut {
+
+    /**
+     * A remote call made on one peer.
+     *
+     * @param <T> The type of the value returned by the call.
+     */
+    @FunctionalInterface
+    public interface PeerCall<T> {
+
+        /**
+         * Makes the call on the given peer.
+         *
+         * @param peer The peer.
+         * @return The value returned by the peer, or null for calls without a
+         * value.
+         * @throws Exception If the call fails.
+         */
+        T call(IremoteP2P peer) throws Exception;
+    }
+
+    /**
+     * Told of the outcome of every call, including the calls that finish in
+     * the background after a quorum.
+     */
+    public interface Observer {
+
+        /**
+         * A peer answered a call.
+         *
+         * @param peer The peer.
+         * @param nanos The duration of the call, in nanoseconds.
+         */
+        void answered(IremoteP2P peer, long nanos);
+
+        /**
+         * A call on a peer failed.
+         *
+         * @param peer The peer.
+         * @param error The error of the call.
+         */
+        void failed(IremoteP2P peer, Throwable error);
+    }
+
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor(); // One thread per call
+    private final Semaphore permits; // Calls allowed in flight at the same time
+    private final Observer observer; // Told of the outcome of the calls, or null
+
+    /**
+     * Creates a fan-out executor.
+     *
+     * @param parallelism The maximum number of calls in flight at the same
+     * time, over all the fan-outs of this executor.
+     */
+    public FanOut(int parallelism) {
+        this(parallelism, null);
+    }
+
+    /**
+     * Creates a fan-out executor that reports the outcome of its calls.
+     *
+     * @param parallelism The maximum number of calls in flight at the same
+     * time, over all the fan-outs of this executor.
+     * @param observer Told of the outcome of every call, or null.
+     */
+    public FanOut(int parallelism, Observer observer) {
+        this.permits = new Semaphore(Math.max(1, parallelism));
+        this.observer = observer;
+    }
+
+    /**
+     * Makes the call on all the peers and waits until every peer answers or
+     * the deadline expires.
+     *
+     * @param <T> The type of the value returned by the call.
+     * @param operation The name of the operation, used in the log.
+     * @param peers The peers to call.
+     * @param call The call to make on each peer.
+     * @param timeoutMillis The deadline of the calls, in milliseconds.
+     * @return The answers received before the deadline.
+     */
+    public <T> Result<T> call(String operation, Collection<IremoteP2P> peers, PeerCall<T> call, long timeoutMillis) {
+        return call(operation, peers, call, peers.size(), timeoutMillis);
+    }
+
+    /**
+     * Makes the call on all the peers and waits until the given number of
+     * peers answers successfully, every peer answers, or the deadline expires.
+     * The calls still running when this method returns continue in the
+     * background until the deadline.
+     *
+     * @param <T> The type of the value returned by the call.
+     * @param operation The name of the operation, used in the log.
+     * @param peers The peers to call.
+     * @param call The call to make on each peer.
+     * @param quorum The number of successful answers to wait for.
+     * @param timeoutMillis The deadline of the calls, in milliseconds.
+     * @return The answers received before this method returned.
+     */
+    public <T> Result<T> call(String operation, Collection<IremoteP2P> peers, PeerCall<T> call,
+            int quorum, long timeoutMillis) {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        CompletionService<T> completion = new ExecutorCompletionService<>(executor);
+        Map<Future<T>, IremoteP2P> calls = new HashMap<>();
+        for (IremoteP2P peer : peers) {
+            calls.put(completion.submit(() -> callWithPermit(peer, call, deadline)), peer);
+        }
+
+        // Collect the answers as they arrive, until the quorum or the deadline
+        Result<T> result = new Result<>();
+        int needed = Math.min(quorum, calls.size());
+        try {
+            while (result.values.size() < needed && !calls.isEmpty()) {
+                Future<T> done = completion.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                if (done == null) {
+                    break; // Deadline expired
+                }
+                collect(operation, done, calls.remove(done), result);
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+
+        result.unanswered.addAll(calls.values());
+        if (!calls.isEmpty()) {
+            if (deadline - System.nanoTime() <= 0) {
+                cancel(operation, calls);
+            } else {
+                // The remaining calls are followed in the background
+                executor.execute(() -> finish(operation, completion, calls, deadline));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Makes the call once a permit is available, failing if none becomes
+     * available before the deadline.
+     *
+     * @param <T> The type of the value returned by the call.
+     * @param peer The peer.
+     * @param call The call.
+     * @param deadline The deadline, in System.nanoTime() units.
+     * @return The value returned by the peer.
+     * @throws Exception If the call fails or no permit is available in time.
+     */
+    private <T> T callWithPermit(IremoteP2P peer, PeerCall<T> call, long deadline) throws Exception {
+        if (!permits.tryAcquire(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+            throw new TimeoutException("No call slot available before the deadline");
+        }
+        long start = System.nanoTime();
+        try {
+            T value = call.call(peer);
+            if (observer != null) {
+                observer.answered(peer, System.nanoTime() - start);
+            }
+            return value;
+        } catch (Exception ex) {
+            if (observer != null) {
+                observer.failed(peer, ex);
+            }
+            throw ex;
+        } finally {
+            permits.release();
+        }
+    }
+
+    /**
+     * Waits for the calls left after a quorum was reached, logging their
+     * failures, and cancels those still running at the deadline. Their
+     * outcomes are not kept: the observer was already told of each one.
+     *
+     * @param <T> The type of the value returned by the calls.
+     * @param operation The name of the operation.
+     * @param completion The completion service of the calls.
+     * @param calls The calls still running and their peers.
+     * @param deadline The deadline, in System.nanoTime() units.
+     */
+    private <T> void finish(String operation, CompletionService<T> completion,
+            Map<Future<T>, IremoteP2P> calls, long deadline) {
+        try {
+            while (!calls.isEmpty()) {
+                Future<T> done = completion.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                if (done == null) {
+                    break;
+                }
+                collect(operation, done, calls.remove(done), null);
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        cancel(operation, calls);
+    }
+
+    /**
+     * Records the outcome of a finished call.
+     *
+     * @param <T> The type of the value returned by the call.
+     * @param operation The name of the operation.
+     * @param done The finished call.
+     * @param peer The peer of the call.
+     * @param result The result receiving the outcome, or null if only the
+     * failure is logged.
+     */
+    private static <T> void collect(String operation, Future<T> done, IremoteP2P peer, Result<T> result) {
+        try {
+            T value = done.get();
+            if (result != null) {
+                result.values.put(peer, value);
+            }
+        } catch (ExecutionException ex) {
+            if (result != null) {
+                result.failures.put(peer, ex.getCause());
+            }
+            Logger.getLogger(FanOut.class.getName()).log(Level.SEVERE,
+                    "Error in " + operation + " on " + peer, ex.getCause());
+        } catch (CancellationException | InterruptedException ex) {
+            if (result != null) {
+                result.failures.put(peer, ex);
+            }
+        }
+    }
+
+    /**
+     * Cancels the calls that did not answer before the deadline.
+     *
+     * @param <T> The type of the value returned by the calls.
+     * @param operation The name of the operation.
+     * @param calls The calls still running and their peers.
+     */
+    private static <T> void cancel(String operation, Map<Future<T>, IremoteP2P> calls) {
+        for (Map.Entry<Future<T>, IremoteP2P> call : calls.entrySet()) {
+            call.getKey().cancel(true);
+            Logger.getLogger(FanOut.class.getName()).log(Level.WARNING,
+                    "No answer to {0} from {1} before the deadline", new Object[]{operation, call.getValue()});
+        }
+    }
+
+    /**
+     * Stops the calls in flight and refuses new ones.
+     */
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * The outcome of a fan-out at the moment it returned: the values of the
+     * peers that answered, the errors of the peers that failed and the peers
+     * that had not answered yet.
+     *
+     * @param <T> The type of the value returned by the call.
+     */
+    public static class Result<T> {
+
+        private final Map<IremoteP2P, T> values = new LinkedHashMap<>();          // Answers by peer
+        private final Map<IremoteP2P, Throwable> failures = new LinkedHashMap<>(); // Errors by peer
+        private final List<IremoteP2P> unanswered = new ArrayList<>();            // Peers without answer
+
+        /**
+         * Returns the values returned by the peers that answered successfully,
+         * in the order they answered.
+         *
+         * @return The values by peer.
+         */
+        public Map<IremoteP2P, T> getValues() {
+            return values;
+        }
+
+        /**
+         * Returns the errors of the peers whose call failed.
+         *
+         * @return The errors by peer.
+         */
+        public Map<IremoteP2P, Throwable> getFailures() {
+            return failures;
+        }
+
+        /**
+         * Returns the peers that had not answered when the fan-out returned,
+         * either because the quorum was reached first or because the deadline
+         * expired.
+         *
+         * @return The peers without answer.
+         */
+        public List<IremoteP2P> getUnanswered() {
+            return unanswered;
+        }
+
+        /**
+         * Returns the number of peers that answered successfully.
+         *
+         * @return The number of successful answers.
+         */
+        public int getSuccessCount() {
+            return values.size();
+        }
+
+        /**
+         * Checks whether every peer answered successfully.
+         *
+         * @return true if there were no failures and no missing answers.
+         */
+        public boolean isComplete() {
+            return failures.isEmpty() && unanswered.isEmpty();
+        }
+
+        @Override
+        public String toString() {
+            return values.size() + " answered, " + failures.size() + " failed, " + unanswered.size() + " unanswered";
+        }
+    }
+}
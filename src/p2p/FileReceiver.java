@@ -0,0 +1,335 @@
+package p2p;
+
+import blockchain.utils.Hash;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Receives files sent in chunks by other nodes. A transfer is opened with the
+ * path and size of the file, its chunks are written at their offsets, in any
+ * order and from several threads, and it is committed with the checksum of
+ * the whole file. The chunks are written through a file channel to a partial
+ * file next to the target, which replaces the target only when the checksum
+ * matches, so the heap holds one chunk at a time and a reader never sees half
+ * a file.
+ *
+ * Several transfers can be open at once, from the same or different peers.
+ * The receiver remembers which ranges of each file it has, so a sender whose
+ * connection was interrupted opens the transfer again with the same id and
+ * resumes from the first byte missing. Transfers idle for too long are
+ * dropped with their partial files by {@link #expire()}, which the owner of
+ * the receiver calls periodically, so a sender that gives up does not hold a
+ * slot and a file open until the next transfer is opened.
+ */
+public class FileReceiver {
+
+    private static final int BUFFER = 64 * 1024; // Bytes read at a time when checking a file
+    private static final int MAX_ID_LENGTH = 128; // Longest transfer id, as it is part of a file name
+
+    private final Path root;          // Folder the paths are relative to
+    private final long idleMillis;    // Time after which an idle transfer is dropped
+    private final int maxOpen;        // Transfers open at the same time
+    private final Map<String, Transfer> transfers = new ConcurrentHashMap<>(); // Open transfers by id
+
+    /**
+     * Creates a receiver.
+     *
+     * @param root The folder the paths of the files are relative to; files
+     * outside it are refused.
+     * @param idleMillis The time, in milliseconds, after which a transfer
+     * without chunks is dropped.
+     * @param maxOpen The number of transfers open at the same time.
+     */
+    public FileReceiver(Path root, long idleMillis, int maxOpen) {
+        this.root = root.toAbsolutePath().normalize();
+        this.idleMillis = idleMillis;
+        this.maxOpen = maxOpen;
+    }
+
+    /**
+     * Opens a transfer, or finds the transfer already open with the same id.
+     *
+     * @param id The id of the transfer, chosen by the sender and kept when it
+     * resumes; letters, digits and dashes only.
+     * @param path The path of the file, relative to the root folder.
+     * @param size The size of the file, in bytes.
+     * @return The number of bytes from the start of the file already
+     * received, where the sender resumes.
+     * @throws IOException If the path is invalid, too many transfers are
+     * open, or the partial file cannot be created.
+     */
+    public long open(String id, String path, long size) throws IOException {
+        if (id == null || id.isEmpty() || id.length() > MAX_ID_LENGTH || !id.matches("[A-Za-z0-9-]+")) {
+            throw new IOException("Invalid transfer id: " + id);
+        }
+        if (size < 0) {
+            throw new IOException("Invalid size: " + size);
+        }
+        Path target = resolve(path);
+        expire();
+        Transfer existing = transfers.get(id);
+        if (existing != null && existing.target.equals(target) && existing.size == size) {
+            return existing.contiguous(); // Resumed
+        }
+        if (existing != null) {
+            drop(id); // Same id for another file: start again
+        }
+        if (transfers.size() >= maxOpen) {
+            throw new IOException("Too many transfers open: " + transfers.size());
+        }
+        Files.createDirectories(target.getParent());
+        Path partial = target.resolveSibling(target.getFileName() + "." + id + ".part");
+        // A partial file left by a previous run is not trusted, as its ranges are unknown
+        FileChannel channel = FileChannel.open(partial, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        Transfer transfer = new Transfer(target, partial, size, channel);
+        if (transfers.putIfAbsent(id, transfer) != null) {
+            transfer.close();
+            return transfers.get(id).contiguous(); // Opened concurrently by another call
+        }
+        return 0;
+    }
+
+    /**
+     * Writes a chunk of a file at its offset.
+     *
+     * @param id The id of the transfer.
+     * @param offset The offset of the chunk in the file.
+     * @param data The bytes of the chunk.
+     * @throws IOException If the transfer is not open, the chunk falls outside
+     * the file, or it cannot be written.
+     */
+    public void write(String id, long offset, byte[] data) throws IOException {
+        Transfer transfer = get(id);
+        if (offset < 0 || offset + data.length > transfer.size) {
+            throw new IOException("Chunk at " + offset + " of " + data.length + " bytes outside the file of "
+                    + transfer.size + " bytes");
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        long position = offset;
+        while (buffer.hasRemaining()) {
+            position += transfer.channel.write(buffer, position); // Positional writes do not share a file position
+        }
+        transfer.received(offset, offset + data.length);
+    }
+
+    /**
+     * Completes a transfer: checks that the whole file was received and that
+     * its checksum matches, and moves it in place of the target. A file whose
+     * checksum does not match is dropped.
+     *
+     * @param id The id of the transfer.
+     * @param checksum The SHA-256 hash of the file, in hexadecimal.
+     * @return The path of the file written.
+     * @throws IOException If chunks are missing, the checksum does not match,
+     * or the file cannot be moved.
+     */
+    public Path commit(String id, String checksum) throws IOException {
+        Transfer transfer = get(id);
+        long contiguous = transfer.contiguous();
+        if (contiguous < transfer.size) {
+            throw new IOException("Transfer incomplete: " + contiguous + " of " + transfer.size + " bytes");
+        }
+        transfer.channel.force(false);
+        String actual = checksum(transfer.channel, transfer.size);
+        if (!actual.equalsIgnoreCase(checksum)) {
+            drop(id);
+            throw new IOException("Checksum mismatch for " + transfer.target + ": " + actual);
+        }
+        transfers.remove(id, transfer);
+        transfer.close();
+        Files.move(transfer.partial, transfer.target, StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        return transfer.target;
+    }
+
+    /**
+     * Receives a whole file in one call, through the same partial file and
+     * atomic move as a chunked transfer.
+     *
+     * @param path The path of the file, relative to the root folder.
+     * @param data The content of the file.
+     * @return The path of the file written.
+     * @throws IOException If the file cannot be written.
+     */
+    public Path receive(String path, byte[] data) throws IOException {
+        String id = "whole-" + Long.toHexString(Thread.currentThread().threadId()) + "-" + Long.toHexString(System.nanoTime());
+        open(id, path, data.length);
+        try {
+            write(id, 0, data);
+            return commit(id, Hash.getHash(data));
+        } finally {
+            drop(id);
+        }
+    }
+
+    /**
+     * Drops the open transfers and deletes their partial files.
+     */
+    public void close() {
+        for (String id : transfers.keySet()) {
+            drop(id);
+        }
+    }
+
+    /**
+     * Returns the open transfer with an id.
+     *
+     * @param id The id of the transfer.
+     * @return The transfer.
+     * @throws IOException If no transfer with that id is open.
+     */
+    private Transfer get(String id) throws IOException {
+        Transfer transfer = transfers.get(id);
+        if (transfer == null) {
+            throw new IOException("Unknown transfer: " + id);
+        }
+        transfer.touched = System.currentTimeMillis();
+        return transfer;
+    }
+
+    /**
+     * Drops the transfers idle for longer than the limit, with their partial
+     * files.
+     */
+    public void expire() {
+        long now = System.currentTimeMillis();
+        for (Iterator<Map.Entry<String, Transfer>> it = transfers.entrySet().iterator(); it.hasNext();) {
+            Map.Entry<String, Transfer> entry = it.next();
+            if (now - entry.getValue().touched > idleMillis) {
+                drop(entry.getKey());
+            }
+        }
+    }
+
+    /**
+     * Drops a transfer and deletes its partial file.
+     *
+     * @param id The id of the transfer.
+     */
+    private void drop(String id) {
+        Transfer transfer = transfers.remove(id);
+        if (transfer != null) {
+            transfer.close();
+            try {
+                Files.deleteIfExists(transfer.partial);
+            } catch (IOException ex) {
+                // Left for the next transfer of the file, which truncates it
+            }
+        }
+    }
+
+    /**
+     * Returns the path of a file under the root folder.
+     *
+     * @param path The path relative to the root folder.
+     * @return The absolute path.
+     * @throws IOException If the path points outside the root folder.
+     */
+    private Path resolve(String path) throws IOException {
+        Path target = root.resolve(path).normalize();
+        if (!target.startsWith(root) || target.equals(root)) {
+            throw new IOException("Path outside the shared folder: " + path);
+        }
+        return target;
+    }
+
+    /**
+     * Hashes the content of a partial file.
+     *
+     * @param channel The channel of the file.
+     * @param size The size of the file.
+     * @return The SHA-256 hash, in hexadecimal.
+     * @throws IOException If the file cannot be read.
+     */
+    private static String checksum(FileChannel channel, long size) throws IOException {
+        MessageDigest digest = Hash.sha256();
+        ByteBuffer buffer = ByteBuffer.allocate(BUFFER);
+        for (long position = 0; position < size;) {
+            buffer.clear();
+            int n = channel.read(buffer, position);
+            if (n < 0) {
+                break;
+            }
+            buffer.flip();
+            digest.update(buffer);
+            position += n;
+        }
+        return Hash.toHexString(digest.digest());
+    }
+
+    /**
+     * A file being received.
+     */
+    private static final class Transfer {
+
+        private final Path target;          // Where the file goes when committed
+        private final Path partial;         // Where the chunks are written
+        private final long size;            // Size of the file
+        private final FileChannel channel;  // Channel of the partial file
+        private final TreeMap<Long, Long> ranges = new TreeMap<>(); // Received ranges, start to end, merged
+        private volatile long touched = System.currentTimeMillis(); // Time of the last call
+
+        private Transfer(Path target, Path partial, long size, FileChannel channel) {
+            this.target = target;
+            this.partial = partial;
+            this.size = size;
+            this.channel = channel;
+        }
+
+        /**
+         * Records a received range, merging it with the ranges it touches.
+         *
+         * @param start The first byte of the range.
+         * @param end The byte after the range.
+         */
+        private synchronized void received(long start, long end) {
+            Map.Entry<Long, Long> before = ranges.floorEntry(start);
+            if (before != null && before.getValue() >= start) {
+                start = before.getKey();
+                end = Math.max(end, before.getValue());
+            }
+            for (Map.Entry<Long, Long> after = ranges.ceilingEntry(start);
+                    after != null && after.getKey() <= end; after = ranges.ceilingEntry(start)) {
+                end = Math.max(end, after.getValue());
+                ranges.remove(after.getKey());
+            }
+            ranges.put(start, end);
+        }
+
+        /**
+         * Returns the number of bytes received from the start of the file
+         * without a gap.
+         *
+         * @return The number of bytes.
+         */
+        private synchronized long contiguous() {
+            if (size == 0) {
+                return 0;
+            }
+            Map.Entry<Long, Long> first = ranges.firstEntry();
+            return first != null && first.getKey() == 0 ? first.getValue() : 0;
+        }
+
+        /**
+         * Closes the channel of the partial file.
+         */
+        private void close() {
+            try {
+                channel.close();
+            } catch (IOException ex) {
+                // Nothing left to write
+            }
+        }
+    }
+}
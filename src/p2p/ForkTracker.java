@@ -0,0 +1,223 @@
+package p2p;
+
+import blockchain.utils.Block;
+import blockchain.utils.BlockChain;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Valid blocks that link to the local chain but are not part of it: the
+ * branches that fork from one of the last blocks of the chain. The chain
+ * follows the branch with the most cumulative work; when a branch gets more
+ * work than the blocks of the chain after its fork point, only those blocks
+ * are swapped for the branch.
+ *
+ * The work of a block is the number of hashes expected to find its hash: each
+ * leading '0' of the Base64 hash is one of 64 digits, so a hash with z leading
+ * zeros is worth 64^z hashes. Of two branches with the same work, the one the
+ * chain already follows is kept.
+ *
+ * Only the branches that fork within a number of blocks from the top of the
+ * chain are kept, so a reorganization is always short; deeper forks are left
+ * to the synchronization with the peers.
+ */
+public class ForkTracker {
+
+    private static final String NO_PARENT = String.format("%08d", 0); // Previous hash of the first block
+
+    private final int maxDepth;  // Blocks from the top of the chain a branch may fork at
+    private final int capacity;  // Maximum number of blocks kept
+    private final Map<String, Side> blocks = new HashMap<>(); // Blocks off the chain, by hash
+
+    /**
+     * Creates a tracker with the given limits.
+     *
+     * @param maxDepth The number of blocks from the top of the chain a branch
+     * may fork at.
+     * @param capacity The maximum number of blocks kept off the chain.
+     */
+    public ForkTracker(int maxDepth, int capacity) {
+        this.maxDepth = maxDepth;
+        this.capacity = capacity;
+    }
+
+    /**
+     * Checks whether a block links to the chain or to a kept branch.
+     *
+     * @param parentHash The hash of the parent of the block.
+     * @param chain The local chain.
+     * @return true if the parent is known.
+     */
+    public synchronized boolean knowsParent(String parentHash, BlockChain chain) {
+        return blocks.containsKey(parentHash) || NO_PARENT.equals(parentHash) || chain.indexOf(parentHash) >= 0;
+    }
+
+    /**
+     * Keeps a block of a branch. The parent of the block must be in the chain
+     * or in a kept branch.
+     *
+     * @param block The block.
+     * @param chain The local chain.
+     * @return true if the block was kept, false if its parent is unknown or
+     * it forks too deep in the chain.
+     */
+    public synchronized boolean add(Block block, BlockChain chain) {
+        Side parent = blocks.get(block.getPreviousHash());
+        int height = parent != null ? parent.height + 1 : chain.indexOf(block.getPreviousHash()) + 1;
+        if (parent == null && height == 0 && !NO_PARENT.equals(block.getPreviousHash())) {
+            return false;
+        }
+        if (height < chain.getSize() - maxDepth) {
+            return false;
+        }
+        blocks.put(block.getCurrentHash(), new Side(block, height));
+        evict();
+        return true;
+    }
+
+    /**
+     * Returns the branch that ends at a block, if it has more work than the
+     * blocks of the chain after its fork point.
+     *
+     * @param tipHash The hash of the last block of the branch.
+     * @param chain The local chain.
+     * @return The blocks of the branch after the fork point, in chain order,
+     * or null if the chain has as much work or the branch does not link to
+     * the chain.
+     */
+    public synchronized List<Block> heavierBranch(String tipHash, BlockChain chain) {
+        List<Block> branch = new ArrayList<>();
+        BigInteger branchWork = BigInteger.ZERO;
+        Side side = blocks.get(tipHash);
+        while (side != null && chain.indexOf(side.block.getCurrentHash()) < 0) {
+            branch.add(side.block);
+            branchWork = branchWork.add(work(side.block.getCurrentHash()));
+            String parentHash = side.block.getPreviousHash();
+            side = blocks.get(parentHash);
+            if (side == null && !NO_PARENT.equals(parentHash) && chain.indexOf(parentHash) < 0) {
+                return null; // The branch lost its link to the chain
+            }
+        }
+        if (branch.isEmpty()) {
+            return null;
+        }
+        Collections.reverse(branch);
+
+        // Compare with the work of the blocks the branch would replace
+        int start = chain.indexOf(branch.get(0).getPreviousHash()) + 1;
+        BigInteger chainWork = BigInteger.ZERO;
+        for (Block block : chain.getBlocks(start, chain.getSize() - start)) {
+            chainWork = chainWork.add(work(block.getCurrentHash()));
+        }
+        return branchWork.compareTo(chainWork) > 0 ? branch : null;
+    }
+
+    /**
+     * Records a reorganization: the blocks of the new branch are now in the
+     * chain, and the blocks they replaced become a branch that can be
+     * switched back to.
+     *
+     * @param start The height of the first replaced block.
+     * @param removed The blocks removed from the chain, in chain order.
+     * @param added The blocks added to the chain, in chain order.
+     */
+    public synchronized void reorganized(int start, List<Block> removed, List<Block> added) {
+        for (Block block : added) {
+            blocks.remove(block.getCurrentHash());
+        }
+        for (int i = 0; i < removed.size(); i++) {
+            blocks.put(removed.get(i).getCurrentHash(), new Side(removed.get(i), start + i));
+        }
+        evict();
+    }
+
+    /**
+     * Drops the blocks that fork too deep in a chain of the given size.
+     *
+     * @param size The size of the local chain.
+     */
+    public synchronized void prune(int size) {
+        blocks.values().removeIf(side -> side.height < size - maxDepth);
+    }
+
+    /**
+     * Returns a kept block.
+     *
+     * @param hash The hash of the block.
+     * @return The block, or null if it is not kept.
+     */
+    public synchronized Block get(String hash) {
+        Side side = blocks.get(hash);
+        return side == null ? null : side.block;
+    }
+
+    /**
+     * Checks whether a block is kept.
+     *
+     * @param hash The hash of the block.
+     * @return true if the block is on a kept branch.
+     */
+    public synchronized boolean contains(String hash) {
+        return blocks.containsKey(hash);
+    }
+
+    /**
+     * Returns the number of blocks kept.
+     *
+     * @return The number of blocks.
+     */
+    public synchronized int size() {
+        return blocks.size();
+    }
+
+    /**
+     * Returns the work of a block: the number of hashes expected to find a
+     * hash with as many leading zeros.
+     *
+     * @param hash The Base64 hash of the block.
+     * @return The work of the block.
+     */
+    public static BigInteger work(String hash) {
+        int zeros = 0;
+        while (zeros < hash.length() && hash.charAt(zeros) == '0') {
+            zeros++;
+        }
+        return BigInteger.ONE.shiftLeft(6 * zeros);
+    }
+
+    /**
+     * Drops the lowest blocks while more than the capacity are kept.
+     */
+    private void evict() {
+        while (blocks.size() > capacity) {
+            Iterator<Side> it = blocks.values().iterator();
+            Side lowest = it.next();
+            while (it.hasNext()) {
+                Side side = it.next();
+                if (side.height < lowest.height) {
+                    lowest = side;
+                }
+            }
+            blocks.remove(lowest.block.getCurrentHash());
+        }
+    }
+
+    /**
+     * A block off the chain, with its height.
+     */
+    private static final class Side {
+
+        private final Block block; // The block
+        private final int height;  // Height the block would have in the chain
+
+        private Side(Block block, int height) {
+            this.block = block;
+            this.height = height;
+        }
+    }
+}
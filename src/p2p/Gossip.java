@@ -0,0 +1,111 @@
+package p2p;
+
+import java.io.Serializable;
+import java.util.UUID;
+
+/**
+ * Metadata carried by the messages relayed between nodes (transactions,
+ * blocks and node announcements): a unique id of the message, the address of
+ * the node where it started, the address of the node that sent it on the last
+ * link and the number of links it has crossed.
+ *
+ * A node relays a message only the first time it sees it, and never back to
+ * its origin or to the node it came from, so each message crosses each link
+ * at most once.
+ */
+public class Gossip implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String id;     // Unique id of the message
+    private final String origin; // Address of the node where the message started
+    private final String sender; // Address of the node that sent the message
+    private final int hops;      // Links crossed by the message
+
+    /**
+     * Creates the metadata of a message.
+     *
+     * @param id The unique id of the message.
+     * @param origin The address of the node where the message started.
+     * @param sender The address of the node that sends the message.
+     * @param hops The number of links crossed.
+     */
+    private Gossip(String id, String origin, String sender, int hops) {
+        this.id = id;
+        this.origin = origin;
+        this.sender = sender;
+        this.hops = hops;
+    }
+
+    /**
+     * Creates the metadata of a new message started at the given node.
+     *
+     * @param origin The address of the node where the message starts.
+     * @return The metadata of the message.
+     */
+    public static Gossip originate(String origin) {
+        return new Gossip(UUID.randomUUID().toString(), origin, origin, 0);
+    }
+
+    /**
+     * Returns the metadata of this message when relayed by the given node.
+     *
+     * @param relay The address of the node that relays the message.
+     * @return The metadata with the node as sender and one more hop.
+     */
+    public Gossip forward(String relay) {
+        return new Gossip(id, origin, relay, hops + 1);
+    }
+
+    /**
+     * Checks whether the message should not be relayed to the given node,
+     * because the node started it or sent it.
+     *
+     * @param address The address of the node.
+     * @return true if the node is the origin or the sender of the message.
+     */
+    public boolean cameFrom(String address) {
+        return origin.equals(address) || sender.equals(address);
+    }
+
+    /**
+     * Returns the unique id of the message.
+     *
+     * @return The id.
+     */
+    public String getId() {
+        return id;
+    }
+
+    /**
+     * Returns the address of the node where the message started.
+     *
+     * @return The origin address.
+     */
+    public String getOrigin() {
+        return origin;
+    }
+
+    /**
+     * Returns the address of the node that sent the message.
+     *
+     * @return The sender address.
+     */
+    public String getSender() {
+        return sender;
+    }
+
+    /**
+     * Returns the number of links crossed by the message.
+     *
+     * @return The number of hops.
+     */
+    public int getHops() {
+        return hops;
+    }
+
+    @Override
+    public String toString() {
+        return id + " from " + origin + " via " + sender + " (" + hops + " hops)";
+    }
+}
@@ -0,0 +1,241 @@
+package p2p;
+
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * Invertible Bloom lookup table of 64-bit keys, used to reconcile the pools of
+ * two nodes. Each node inserts the short ids of its pending transactions in a
+ * table of the same size; subtracting one table from the other cancels the
+ * common keys, and the keys left, the symmetric difference of the two sets,
+ * can be listed as long as the table has enough cells for them. The size of
+ * the table therefore depends on the difference, not on the size of the pools.
+ *
+ * Each key is added to one cell in each of three partitions of the table. A
+ * cell holds the number of keys added, the XOR of the keys and the XOR of a
+ * checksum of the keys, which tells whether a cell holds a single key.
+ */
+public class Iblt implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final int HASHES = 3;                            // Cells per key
+    private static final long CHECK_SEED = 0x9E3779B97F4A7C15L;     // Seed of the key checksum
+
+    private final int[] counts;   // Number of keys in each cell, negative after a subtraction
+    private final long[] keys;    // XOR of the keys in each cell
+    private final long[] checks;  // XOR of the checksums of the keys in each cell
+
+    /**
+     * Creates an empty table. The number of cells is rounded up to a multiple
+     * of three.
+     *
+     * @param cells The number of cells, about 1.5 times the expected size of
+     * the difference.
+     */
+    public Iblt(int cells) {
+        int size = Math.max(HASHES, (cells + HASHES - 1) / HASHES * HASHES);
+        this.counts = new int[size];
+        this.keys = new long[size];
+        this.checks = new long[size];
+    }
+
+    /**
+     * Returns the number of cells of the table.
+     *
+     * @return The number of cells.
+     */
+    public int getCells() {
+        return counts.length;
+    }
+
+    /**
+     * Adds a key to the table.
+     *
+     * @param key The key.
+     */
+    public void insert(long key) {
+        update(key, 1);
+    }
+
+    /**
+     * Returns a new table with the keys of this table minus the keys of the
+     * other. Keys in both tables cancel out.
+     *
+     * @param other A table with the same number of cells.
+     * @return The difference of the tables.
+     * @throws IllegalArgumentException If the tables have different sizes.
+     */
+    public Iblt subtract(Iblt other) {
+        if (other.counts.length != counts.length) {
+            throw new IllegalArgumentException("Tables of different sizes: " + counts.length + ", " + other.counts.length);
+        }
+        Iblt result = new Iblt(counts.length);
+        for (int i = 0; i < counts.length; i++) {
+            result.counts[i] = counts[i] - other.counts[i];
+            result.keys[i] = keys[i] ^ other.keys[i];
+            result.checks[i] = checks[i] ^ other.checks[i];
+        }
+        return result;
+    }
+
+    /**
+     * Lists the keys of a difference of tables, removing them from this
+     * table.
+     *
+     * A table that keeps yielding keys after as many keys as it has cells,
+     * as a crafted table can by bringing the same key back into pure cells,
+     * is not decoded.
+     *
+     * @return The keys only in the first table and the keys only in the
+     * second, or null if the table is too small to list them all.
+     */
+    public Difference decode() {
+        Difference difference = new Difference();
+        Deque<Integer> pure = new ArrayDeque<>();
+        for (int i = 0; i < counts.length; i++) {
+            if (isPure(i)) {
+                pure.add(i);
+            }
+        }
+
+        // Take the keys out of the cells that hold a single one
+        while (!pure.isEmpty()) {
+            int cell = pure.poll();
+            if (!isPure(cell)) {
+                continue; // Emptied by a key taken from another cell
+            }
+            if (difference.size() == counts.length) {
+                return null; // More keys than any decodable table holds
+            }
+            long key = keys[cell];
+            int count = counts[cell];
+            (count > 0 ? difference.local : difference.remote).add(key);
+            update(key, -count);
+            for (int i = 0; i < HASHES; i++) {
+                int other = index(key, i);
+                if (isPure(other)) {
+                    pure.add(other);
+                }
+            }
+        }
+
+        // The decoding is complete only if every cell was emptied
+        for (int i = 0; i < counts.length; i++) {
+            if (counts[i] != 0 || keys[i] != 0 || checks[i] != 0) {
+                return null;
+            }
+        }
+        return difference;
+    }
+
+    /**
+     * Reads a table sent by a peer, checking that its arrays describe a
+     * table of this class: of the same non-zero length, split into the three
+     * partitions.
+     *
+     * @param in The stream to read from.
+     * @throws IOException If the stream cannot be read or the table is
+     * malformed.
+     * @throws ClassNotFoundException If a class of the table is unknown.
+     */
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        if (counts == null || keys == null || checks == null || counts.length == 0
+                || counts.length % HASHES != 0 || keys.length != counts.length || checks.length != counts.length) {
+            throw new InvalidObjectException("Malformed table");
+        }
+    }
+
+    /**
+     * Adds a key to its cells the given number of times.
+     *
+     * @param key The key.
+     * @param count The number of times, negative to remove the key.
+     */
+    private void update(long key, int count) {
+        long check = mix(key ^ CHECK_SEED);
+        for (int i = 0; i < HASHES; i++) {
+            int cell = index(key, i);
+            counts[cell] += count;
+            keys[cell] ^= key;
+            checks[cell] ^= check;
+        }
+    }
+
+    /**
+     * Checks whether a cell holds a single key, added or removed.
+     *
+     * @param cell The cell.
+     * @return true if the cell holds exactly one key.
+     */
+    private boolean isPure(int cell) {
+        return (counts[cell] == 1 || counts[cell] == -1) && checks[cell] == mix(keys[cell] ^ CHECK_SEED);
+    }
+
+    /**
+     * Returns the cell of a key in one partition of the table.
+     *
+     * @param key The key.
+     * @param partition The partition.
+     * @return The index of the cell.
+     */
+    private int index(long key, int partition) {
+        int size = counts.length / HASHES;
+        return partition * size + (int) Long.remainderUnsigned(mix(key + partition), size);
+    }
+
+    /**
+     * Mixes the bits of a value (the SplitMix64 finalizer).
+     *
+     * @param z The value.
+     * @return The mixed value.
+     */
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    /**
+     * The keys of a decoded difference of two tables.
+     */
+    public static class Difference {
+
+        private final List<Long> local = new ArrayList<>();  // Keys only in the first table
+        private final List<Long> remote = new ArrayList<>(); // Keys only in the second table
+
+        /**
+         * Returns the keys only in the first table of the subtraction.
+         *
+         * @return The keys.
+         */
+        public List<Long> getLocal() {
+            return local;
+        }
+
+        /**
+         * Returns the keys only in the second table of the subtraction.
+         *
+         * @return The keys.
+         */
+        public List<Long> getRemote() {
+            return remote;
+        }
+
+        /**
+         * Returns the number of keys in the difference.
+         *
+         * @return The number of keys.
+         */
+        public int size() {
+            return local.size() + remote.size();
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package p2p;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Announcement of the transactions and blocks a node has, by id. A node that
+ * receives an inventory requests from the sender only the objects it does not
+ * have yet, instead of receiving every object from every peer.
+ *
+ * Each id travels with the gossip metadata of the message that brought the
+ * object to the sender, so the receiver continues the same message (origin
+ * and hops) instead of starting a new one.
+ */
+public class Inventory implements Serializable {
+
+    private static final long serialVersionUID = 2L;
+
+    private final String sender;                                 // Address of the announcing node
+    private final Map<String, Gossip> transactions = new LinkedHashMap<>(); // Gossip by transaction id
+    private final Map<String, Gossip> blocks = new LinkedHashMap<>();       // Gossip by block hash
+
+    /**
+     * Creates an empty inventory.
+     *
+     * @param sender The address of the announcing node.
+     */
+    public Inventory(String sender) {
+        this.sender = sender;
+    }
+
+    /**
+     * Adds a transaction to the inventory.
+     *
+     * @param id The id of the transaction entry.
+     * @param gossip The metadata of the message that brought the transaction
+     * to the sender.
+     */
+    public void addTransaction(String id, Gossip gossip) {
+        transactions.put(id, gossip);
+    }
+
+    /**
+     * Adds a block to the inventory.
+     *
+     * @param hash The hash of the block.
+     * @param gossip The metadata of the message that brought the block to the
+     * sender.
+     */
+    public void addBlock(String hash, Gossip gossip) {
+        blocks.put(hash, gossip);
+    }
+
+    /**
+     * Returns the address of the announcing node.
+     *
+     * @return The sender address.
+     */
+    public String getSender() {
+        return sender;
+    }
+
+    /**
+     * Returns the ids of the announced transactions.
+     *
+     * @return The transaction ids.
+     */
+    public List<String> getTransactions() {
+        return new ArrayList<>(transactions.keySet());
+    }
+
+    /**
+     * Returns the hashes of the announced blocks.
+     *
+     * @return The block hashes.
+     */
+    public List<String> getBlocks() {
+        return new ArrayList<>(blocks.keySet());
+    }
+
+    /**
+     * Returns the metadata of an announced object as received by the sender
+     * continued over the link to the receiver: same message and origin, the
+     * sender as last relay and one more hop.
+     *
+     * @param id The id of the transaction or the hash of the block.
+     * @return The metadata for the receiver, or a new message from the sender
+     * if the object was not announced.
+     */
+    public Gossip relayed(String id) {
+        Gossip gossip = transactions.containsKey(id) ? transactions.get(id) : blocks.get(id);
+        return gossip == null ? Gossip.originate(sender) : gossip.forward(sender);
+    }
+
+    /**
+     * Checks whether the inventory announces nothing.
+     *
+     * @return true if there are no transactions and no blocks.
+     */
+    public boolean isEmpty() {
+        return transactions.isEmpty() && blocks.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        return "Inventory from " + sender + ": " + transactions.size() + " transactions, " + blocks.size() + " blocks";
+    }
+}
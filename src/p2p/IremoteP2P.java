@@ -2,14 +2,18 @@ package p2p;
 
 import blockchain.utils.Block;
 import blockchain.utils.BlockChain;
+import blockchain.utils.BlockHeader;
+import blockchain.utils.CompactBlock;
 import currdig.core.Entry;
+import currdig.core.SignedEntry;
 import currdig.core.User;
 import java.rmi.Remote;
 import java.rmi.RemoteException;
 import java.security.PublicKey;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.CopyOnWriteArraySet;
 
 /**
  * Remote interface for a Peer-to-Peer (P2P) network with functionalities for
@@ -35,6 +39,16 @@ public interface IremoteP2P extends Remote {
      */
     public void addNode(IremoteP2P node) throws RemoteException;
 
+    /**
+     * Adds a node announced by another node and relays the announcement to
+     * the peers it has not come from.
+     *
+     * @param node The node to add to the network.
+     * @param gossip The metadata of the announcement.
+     * @throws RemoteException If a remote communication error occurs.
+     */
+    public void addNode(IremoteP2P node, Gossip gossip) throws RemoteException;
+
     /**
      * Retrieves the list of nodes currently in the network.
      *
@@ -65,12 +79,51 @@ public interface IremoteP2P extends Remote {
     public boolean addTransaction(PublicKey targetUserPubKey, Entry entry, byte[] signature) throws RemoteException;
 
     /**
-     * Retrieves the set of transactions from this node.
+     * Adds a transaction relayed by another node. Transactions already seen
+     * are dropped before their signature is verified.
+     *
+     * @param targetUserPubKey The public key of the target user for the
+     * transaction.
+     * @param entry The entry that is part of the transaction.
+     * @param signature The signature for the transaction.
+     * @param gossip The metadata of the relayed message.
+     * @return True if the transaction was added, false if it was already
+     * known.
+     * @throws RemoteException If a remote communication error occurs.
+     */
+    public boolean addTransaction(PublicKey targetUserPubKey, Entry entry, byte[] signature, Gossip gossip) throws RemoteException;
+
+    /**
+     * Adds a batch of signed transactions. The signatures are verified in
+     * parallel, duplicates and entries with invalid signatures are dropped, and
+     * the accepted entries are propagated to each peer in a single call.
+     *
+     * @param entries The signed entries to add.
+     * @return The number of entries accepted.
+     * @throws RemoteException If a remote communication error occurs.
+     */
+    public int addTransactions(List<SignedEntry> entries) throws RemoteException;
+
+    /**
+     * Adds a batch of signed transactions relayed by another node.
+     * Transactions already seen are dropped before their signatures are
+     * verified.
+     *
+     * @param entries The signed entries to add.
+     * @param gossip The metadata of the relayed message.
+     * @return The number of entries accepted.
+     * @throws RemoteException If a remote communication error occurs.
+     */
+    public int addTransactions(List<SignedEntry> entries, Gossip gossip) throws RemoteException;
+
+    /**
+     * Retrieves the pending transactions of this node, in the order they
+     * arrived.
      *
-     * @return A thread-safe set of entries representing the transactions.
+     * @return A list of the pending entries.
      * @throws RemoteException If a remote communication error occurs.
      */
-    public CopyOnWriteArraySet<Entry> getTransactions() throws RemoteException;
+    public List<Entry> getTransactions() throws RemoteException;
 
     /**
      * Removes the specified transactions from this node.
@@ -78,16 +131,36 @@ public interface IremoteP2P extends Remote {
      * @param myTransactions The transactions to remove.
      * @throws RemoteException If a remote communication error occurs.
      */
-    public void removeTransactions(CopyOnWriteArraySet<Entry> myTransactions) throws RemoteException;
+    public void removeTransactions(Collection<Entry> myTransactions) throws RemoteException;
 
     /**
-     * Synchronizes transactions with another node.
+     * Reconciles the pending transactions with another node, transferring
+     * only the transactions missing on each side.
      *
      * @param node The node to synchronize with.
      * @throws RemoteException If a remote communication error occurs.
      */
     public void synchronizeTransactions(IremoteP2P node) throws RemoteException;
 
+    /**
+     * Builds an invertible Bloom lookup table with the short ids of the
+     * pending transactions, for reconciliation.
+     *
+     * @param cells The number of cells of the table.
+     * @return The table.
+     * @throws RemoteException If a remote communication error occurs.
+     */
+    public Iblt getMempoolSketch(int cells) throws RemoteException;
+
+    /**
+     * Retrieves pending transactions by short id, with their signatures.
+     *
+     * @param shortIds The short ids of the transaction entries.
+     * @return The signed entries pending on this node.
+     * @throws RemoteException If a remote communication error occurs.
+     */
+    public List<SignedEntry> getSignedTransactionsByShortId(List<Long> shortIds) throws RemoteException;
+
     /**
      * Retrieves all entries for a given entity (e.g., a user).
      *
@@ -165,7 +238,8 @@ public interface IremoteP2P extends Remote {
     public List<User> listUsers() throws RemoteException;
 
     /**
-     * Synchronizes the user data folder with another node.
+     * Offers the user data folder of this node to another node, which copies
+     * the files it lacks or has in an older version.
      *
      * @param node The node to synchronize with.
      * @throws RemoteException If a remote communication error occurs.
@@ -183,20 +257,85 @@ public interface IremoteP2P extends Remote {
     /**
      * Receives a file from a remote node.
      *
-     * @param remotePath The path where the file will be stored.
+     * @param remotePath The path where the file will be stored, relative to
+     * the UsersData folder of the node.
      * @param fileData The byte array containing the file data.
      * @throws RemoteException If a remote communication error occurs.
      */
     void receiveFile(String remotePath, byte[] fileData) throws RemoteException;
 
     /**
-     * Synchronizes user data from a host node.
+     * Opens a chunked transfer of a file, or finds the transfer already open
+     * with the same id so an interrupted sender can resume it.
+     *
+     * @param transferId The id of the transfer, chosen by the sender.
+     * @param remotePath The path where the file will be stored, relative to
+     * the UsersData folder of the node.
+     * @param size The size of the file, in bytes.
+     * @return The number of bytes from the start of the file already
+     * received.
+     * @throws RemoteException If the transfer cannot be opened.
+     */
+    long openTransfer(String transferId, String remotePath, long size) throws RemoteException;
+
+    /**
+     * Writes a chunk of a file of an open transfer.
+     *
+     * @param transferId The id of the transfer.
+     * @param offset The offset of the chunk in the file.
+     * @param data The bytes of the chunk.
+     * @throws RemoteException If the transfer is not open or the chunk cannot
+     * be written.
+     */
+    void writeChunk(String transferId, long offset, byte[] data) throws RemoteException;
+
+    /**
+     * Completes a transfer once every chunk was written, storing the file if
+     * its checksum matches.
+     *
+     * @param transferId The id of the transfer.
+     * @param checksum The SHA-256 hash of the file, in hexadecimal.
+     * @throws RemoteException If chunks are missing or the checksum does not
+     * match.
+     */
+    void commitTransfer(String transferId, String checksum) throws RemoteException;
+
+    /**
+     * Synchronizes user data from a host node, copying only the files that
+     * differ.
      *
      * @param hostNode The host node to synchronize data from.
      * @throws RemoteException If a remote communication error occurs.
      */
     public void syncUserDataFromHost(IremoteP2P hostNode) throws RemoteException;
 
+    /**
+     * Returns the manifest of the user data folder.
+     *
+     * @return The hash, size and version of every file.
+     * @throws RemoteException If a remote communication error occurs.
+     */
+    public UsersDataManifest getUsersDataManifest() throws RemoteException;
+
+    /**
+     * Returns the content of files of the user data folder.
+     *
+     * @param paths The paths of the files, relative to the folder.
+     * @return The content of the files found, by path.
+     * @throws RemoteException If a remote communication error occurs.
+     */
+    public Map<String, byte[]> getUsersDataFiles(List<String> paths) throws RemoteException;
+
+    /**
+     * Tells the node that the user data folder of a peer changed. The node
+     * copies the files that differ if the digest is not its own.
+     *
+     * @param source The peer.
+     * @param digest The digest of the manifest of the peer.
+     * @throws RemoteException If a remote communication error occurs.
+     */
+    public void usersDataChanged(IremoteP2P source, String digest) throws RemoteException;
+
     // ::::::::: M I N E R :::::::::::
     /**
      * Starts mining with the given message and number of leading zeros
@@ -243,6 +382,103 @@ public interface IremoteP2P extends Remote {
      */
     public void addBlock(Block b) throws RemoteException;
 
+    /**
+     * Adds a block relayed by another node. Blocks already seen are dropped
+     * before they are validated.
+     *
+     * @param b The block to add.
+     * @param gossip The metadata of the relayed message.
+     * @throws RemoteException If a remote communication error occurs.
+     */
+    public void addBlock(Block b, Gossip gossip) throws RemoteException;
+
+    /**
+     * Receives the ids of transactions and blocks a peer has. The node
+     * requests from the peer the objects it lacks.
+     *
+     * @param sender The peer that announces the objects.
+     * @param inventory The announced transactions and blocks.
+     * @throws RemoteException If a remote communication error occurs.
+     */
+    public void announceInventory(IremoteP2P sender, Inventory inventory) throws RemoteException;
+
+    /**
+     * Probes peers on behalf of a node that suspects them and cannot reach
+     * them itself.
+     *
+     * @param addresses The addresses of the peers to probe.
+     * @return The addresses of the peers that answered.
+     * @throws RemoteException If a remote communication error occurs.
+     */
+    public List<String> probe(List<String> addresses) throws RemoteException;
+
+    /**
+     * Swaps known addresses with a peer, which remembers them as candidates
+     * for its links.
+     *
+     * @param sample Addresses known by the peer, including its own.
+     * @return Addresses known by this node, including its own.
+     * @throws RemoteException If a remote communication error occurs.
+     */
+    public List<String> exchangePeers(List<String> sample) throws RemoteException;
+
+    /**
+     * Retrieves pending transactions by id, with their signatures.
+     *
+     * @param ids The ids of the transaction entries.
+     * @return The signed entries pending on this node.
+     * @throws RemoteException If a remote communication error occurs.
+     */
+    public List<SignedEntry> getSignedTransactions(List<String> ids) throws RemoteException;
+
+    /**
+     * Retrieves blocks of the chain by hash.
+     *
+     * @param hashes The hashes of the blocks.
+     * @return The blocks found on this node.
+     * @throws RemoteException If a remote communication error occurs.
+     */
+    public List<Block> getBlocksByHash(List<String> hashes) throws RemoteException;
+
+    /**
+     * Retrieves a block of the chain by hash.
+     *
+     * @param hash The hash of the block.
+     * @return The block, or null if it is not in the chain of this node.
+     * @throws RemoteException If a remote communication error occurs.
+     */
+    public Block getBlockByHash(String hash) throws RemoteException;
+
+    /**
+     * Retrieves the height of a block of the chain.
+     *
+     * @param hash The hash of the block.
+     * @return The height of the block, or -1 if it is not in the chain of this
+     * node.
+     * @throws RemoteException If a remote communication error occurs.
+     */
+    public int getHeight(String hash) throws RemoteException;
+
+    /**
+     * Retrieves blocks of the chain by hash, in compact form: the header and
+     * the short ids of the transactions.
+     *
+     * @param hashes The hashes of the blocks.
+     * @return The compact blocks found on this node.
+     * @throws RemoteException If a remote communication error occurs.
+     */
+    public List<CompactBlock> getCompactBlocks(List<String> hashes) throws RemoteException;
+
+    /**
+     * Retrieves some transactions of a block, to complete a compact block.
+     *
+     * @param hash The hash of the block.
+     * @param indexes The positions of the transactions in the block.
+     * @return The transactions, in the order of the positions.
+     * @throws RemoteException If a remote communication error occurs.
+     */
+    public List<Entry> getBlockTransactions(String hash, List<Integer> indexes) throws RemoteException;
+
     /**
      * Retrieves the size of the blockchain.
      *
@@ -267,6 +503,35 @@ public interface IremoteP2P extends Remote {
      */
     public BlockChain getBlockchain() throws RemoteException;
 
+    /**
+     * Retrieves the headers of a range of blocks.
+     *
+     * @param from The height of the first block.
+     * @param count The maximum number of headers to return.
+     * @return The headers of the blocks in the range.
+     * @throws RemoteException If a remote communication error occurs.
+     */
+    public List<BlockHeader> getBlockHeaders(int from, int count) throws RemoteException;
+
+    /**
+     * Retrieves a range of blocks.
+     *
+     * @param from The height of the first block.
+     * @param count The maximum number of blocks to return.
+     * @return The blocks in the range.
+     * @throws RemoteException If a remote communication error occurs.
+     */
+    public List<Block> getBlocks(int from, int count) throws RemoteException;
+
+    /**
+     * Finds the highest block of this node's chain listed in a locator.
+     *
+     * @param locator Block hashes of the caller's chain, most recent first.
+     * @return The height of the last common block, or -1 if there is none.
+     * @throws RemoteException If a remote communication error occurs.
+     */
+    public int findCommonAncestor(List<String> locator) throws RemoteException;
+
     /**
      * Synchronizes the blockchain with another node.
      *
@@ -0,0 +1,340 @@
+package p2p;
+
+import blockchain.utils.CompactBlock;
+import currdig.core.Entry;
+import currdig.core.SignedEntry;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pool of the pending transactions of a node. Entries are indexed by their id
+ * and by their description in concurrent hash maps, so duplicates are found
+ * without scanning the pool, and they are kept in insertion order for block
+ * assembly. The pool is limited in number of entries and in bytes; when it is
+ * full new entries are refused until blocks take the pending ones.
+ *
+ * Entries are also indexed by their short id, so compact blocks can be
+ * rebuilt from the pool. The entries removed most recently are kept aside for
+ * the same purpose, since a miner asks its peers to remove the transactions
+ * of a block before the block is relayed.
+ */
+public class Mempool {
+
+    /**
+     * Result of adding an entry to the pool.
+     */
+    public enum AddResult {
+        ADDED, DUPLICATE, FULL
+    }
+
+    private final int maxEntries; // Maximum number of pending entries
+    private final long maxBytes;  // Maximum estimated size of the pending entries
+
+    private final ConcurrentHashMap<String, Slot> byId = new ConcurrentHashMap<>();          // Entries by id
+    private final ConcurrentHashMap<String, String> byDescription = new ConcurrentHashMap<>(); // Ids by description
+    private final ConcurrentSkipListMap<Long, Entry> order = new ConcurrentSkipListMap<>();  // Entries by arrival
+    private final ConcurrentHashMap<Long, Entry> byShortId = new ConcurrentHashMap<>();      // Entries by short id
+    private final Map<Long, Entry> recent;                 // Removed entries by short id, oldest first
+    private final AtomicLong sequence = new AtomicLong();  // Arrival number of the next entry
+    private final AtomicInteger count = new AtomicInteger(); // Number of entries, including reserved places
+    private final AtomicInteger pending = new AtomicInteger(); // Number of entries in the pool, without reservations
+    private final AtomicLong bytes = new AtomicLong();       // Estimated size of the entries
+
+    /**
+     * Creates a pool with the given limits.
+     *
+     * @param maxEntries The maximum number of pending entries.
+     * @param maxBytes The maximum estimated size, in bytes, of the pending
+     * entries.
+     */
+    public Mempool(int maxEntries, long maxBytes) {
+        this(maxEntries, maxBytes, 0);
+    }
+
+    /**
+     * Creates a pool with the given limits that keeps a number of removed
+     * entries for rebuilding compact blocks.
+     *
+     * @param maxEntries The maximum number of pending entries.
+     * @param maxBytes The maximum estimated size, in bytes, of the pending
+     * entries.
+     * @param recentEntries The number of removed entries kept.
+     */
+    public Mempool(int maxEntries, long maxBytes, int recentEntries) {
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+        this.recent = new LinkedHashMap<>() {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Entry> eldest) {
+                return size() > recentEntries;
+            }
+        };
+    }
+
+    /**
+     * Adds an entry to the pool, unless an entry with the same description is
+     * pending or the pool is full.
+     *
+     * @param entry The entry to add.
+     * @return The result of the operation.
+     */
+    public AddResult add(Entry entry) {
+        return add(entry, null);
+    }
+
+    /**
+     * Adds an entry with its signature to the pool, unless an entry with the
+     * same description is pending or the pool is full. The signature is kept
+     * so the entry can be sent to peers that request it.
+     *
+     * @param entry The entry to add.
+     * @param signature The signature of the entry, or null if unknown.
+     * @return The result of the operation.
+     */
+    public AddResult add(Entry entry, byte[] signature) {
+        String id = entry.getId();
+        // The description is claimed first, so two equal entries cannot both be added
+        if (byDescription.putIfAbsent(entry.getDescription(), id) != null) {
+            return AddResult.DUPLICATE;
+        }
+
+        // Reserve room in the pool
+        long size = sizeOf(entry) + (signature == null ? 0 : signature.length);
+        count.incrementAndGet();
+        bytes.addAndGet(size);
+        if (count.get() > maxEntries || bytes.get() > maxBytes) {
+            count.decrementAndGet();
+            bytes.addAndGet(-size);
+            byDescription.remove(entry.getDescription(), id);
+            return AddResult.FULL;
+        }
+
+        long arrival = sequence.getAndIncrement();
+        byId.put(id, new Slot(entry, signature, arrival, size));
+        order.put(arrival, entry);
+        pending.incrementAndGet();
+        byShortId.putIfAbsent(CompactBlock.shortId(entry), entry);
+        return AddResult.ADDED;
+    }
+
+    /**
+     * Removes the given entries from the pool. Entries that are not pending
+     * are ignored.
+     *
+     * @param entries The entries to remove.
+     * @return The number of entries removed.
+     */
+    public int removeAll(Collection<Entry> entries) {
+        int removed = 0;
+        for (Entry entry : entries) {
+            Slot slot = byId.remove(entry.getId());
+            if (slot != null) {
+                order.remove(slot.arrival);
+                byDescription.remove(slot.entry.getDescription(), entry.getId());
+                long shortId = CompactBlock.shortId(slot.entry);
+                byShortId.remove(shortId, slot.entry);
+                synchronized (recent) {
+                    recent.put(shortId, slot.entry);
+                }
+                pending.decrementAndGet();
+                count.decrementAndGet();
+                bytes.addAndGet(-slot.size);
+                removed++;
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Checks whether an entry with the given description is pending.
+     *
+     * @param description The description.
+     * @return true if an entry with the description is pending.
+     */
+    public boolean containsDescription(String description) {
+        return byDescription.containsKey(description);
+    }
+
+    /**
+     * Checks whether the entry is pending.
+     *
+     * @param entry The entry.
+     * @return true if the entry is pending.
+     */
+    public boolean contains(Entry entry) {
+        return byId.containsKey(entry.getId());
+    }
+
+    /**
+     * Checks whether an entry with the given id is pending.
+     *
+     * @param id The id of the entry.
+     * @return true if the entry is pending.
+     */
+    public boolean containsId(String id) {
+        return byId.containsKey(id);
+    }
+
+    /**
+     * Returns a pending entry with its signature.
+     *
+     * @param id The id of the entry.
+     * @return The signed entry, or null if the entry is not pending or its
+     * signature is unknown.
+     */
+    public SignedEntry getSigned(String id) {
+        Slot slot = byId.get(id);
+        return slot == null || slot.signature == null ? null : new SignedEntry(slot.entry, slot.signature);
+    }
+
+    /**
+     * Finds an entry, pending or recently removed, by its short id.
+     *
+     * @param shortId The short id of the entry.
+     * @return The entry, or null if none is known.
+     */
+    public Entry getByShortId(long shortId) {
+        Entry entry = byShortId.get(shortId);
+        if (entry == null) {
+            synchronized (recent) {
+                entry = recent.get(shortId);
+            }
+        }
+        return entry;
+    }
+
+    /**
+     * Returns a pending entry with its signature, by short id.
+     *
+     * @param shortId The short id of the entry.
+     * @return The signed entry, or null if no pending entry with a known
+     * signature has the short id.
+     */
+    public SignedEntry getSignedByShortId(long shortId) {
+        Entry entry = byShortId.get(shortId);
+        return entry == null ? null : getSigned(entry.getId());
+    }
+
+    /**
+     * Builds an invertible Bloom lookup table with the short ids of the
+     * pending entries, for reconciliation with the pool of another node.
+     *
+     * @param cells The number of cells of the table.
+     * @return The table.
+     */
+    public Iblt sketch(int cells) {
+        Iblt sketch = new Iblt(cells);
+        for (long shortId : byShortId.keySet()) {
+            sketch.insert(shortId);
+        }
+        return sketch;
+    }
+
+    /**
+     * Returns the oldest pending entries, in insertion order, without removing
+     * them.
+     *
+     * @param max The maximum number of entries.
+     * @return The oldest entries.
+     */
+    public List<Entry> oldest(int max) {
+        List<Entry> entries = new ArrayList<>(Math.min(max, size()));
+        for (Entry entry : order.values()) {
+            if (entries.size() >= max) {
+                break;
+            }
+            entries.add(entry);
+        }
+        return entries;
+    }
+
+    /**
+     * Returns all pending entries in insertion order.
+     *
+     * @return The pending entries.
+     */
+    public List<Entry> entries() {
+        return new ArrayList<>(order.values());
+    }
+
+    /**
+     * Returns the number of pending entries.
+     *
+     * @return The number of entries.
+     */
+    public int size() {
+        return Math.max(0, pending.get()); // Counted, not walked; never negative while a removal overtakes an addition
+    }
+
+    /**
+     * Checks whether the pool has no pending entries.
+     *
+     * @return true if there are no entries.
+     */
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /**
+     * Returns the estimated size, in bytes, of the pending entries.
+     *
+     * @return The estimated size.
+     */
+    public long getBytes() {
+        return bytes.get();
+    }
+
+    /**
+     * Checks whether the pool has reached one of its limits.
+     *
+     * @return true if new entries are refused.
+     */
+    public boolean isFull() {
+        return count.get() >= maxEntries || bytes.get() >= maxBytes;
+    }
+
+    /**
+     * Estimates the size of an entry: its description, its two keys and its
+     * time.
+     *
+     * @param entry The entry.
+     * @return The estimated size in bytes.
+     */
+    private static long sizeOf(Entry entry) {
+        return entry.getDescription().getBytes(StandardCharsets.UTF_8).length
+                + entry.getEntityPublicKey().getEncoded().length
+                + entry.getTargetUserPublicKey().getEncoded().length
+                + Long.BYTES;
+    }
+
+    @Override
+    public String toString() {
+        return "Mempool[" + size() + " entries, " + getBytes() + " bytes]";
+    }
+
+    /**
+     * A pending entry with its signature, arrival number and estimated size.
+     */
+    private static final class Slot {
+
+        private final Entry entry;
+        private final byte[] signature;
+        private final long arrival;
+        private final long size;
+
+        private Slot(Entry entry, byte[] signature, long arrival, long size) {
+            this.entry = entry;
+            this.signature = signature;
+            this.arrival = arrival;
+            this.size = size;
+        }
+    }
+}
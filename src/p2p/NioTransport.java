@@ -0,0 +1,768 @@
+package p2p;
+
+import currdig.utils.RMI;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.rmi.ConnectException;
+import java.rmi.RemoteException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Transport of the calls between nodes over non-blocking sockets.
+ *
+ * Each node listens on the port of its address plus an offset
+ * (currdig.transport.nio.portOffset, 1000 by default); the RMI registry on
+ * the port of the address is kept for the clients. A process keeps one
+ * connection per peer and sends all the calls to that peer over it, without
+ * waiting for the previous answers: every message is a frame made of its
+ * length, the id of the call and its kind, and answers are matched to calls
+ * by id, in whatever order they come back. The server reads the frames on a
+ * selector thread and runs each call on its own virtual thread, so a slow call
+ * does not hold the calls behind it.
+ *
+ * The arguments and results are written with Java serialization; blocks and
+ * entries already replace themselves with their binary codec. Node objects
+ * passed as arguments or results are sent as their address and become a
+ * connection to that node on the other side.
+ */
+public class NioTransport implements Transport {
+
+    private static final int PORT_OFFSET = Integer.getInteger("currdig.transport.nio.portOffset", 1000);
+    private static final long CALL_TIMEOUT_MILLIS = Long.getLong("currdig.transport.nio.timeoutMillis", 60_000L);
+    private static final int CONNECT_TIMEOUT_MILLIS = Integer.getInteger("currdig.transport.nio.connectTimeoutMillis", 5000);
+    private static final int MAX_FRAME = Integer.getInteger("currdig.transport.nio.maxFrame", 64 << 20);
+
+    private static final byte REQUEST = 0;  // Call of a method
+    private static final byte RESPONSE = 1; // Value returned by a call
+    private static final byte FAILURE = 2;  // Exception thrown by a call
+    private static final int FRAME_HEADER = Long.BYTES + 1; // Id and kind, after the length
+
+    private static final Map<String, Method> METHODS = new HashMap<>(); // Methods of IremoteP2P by key
+
+    static {
+        for (Method method : IremoteP2P.class.getMethods()) {
+            METHODS.put(methodKey(method), method);
+        }
+    }
+
+    private final RmiTransport clients = new RmiTransport();                           // Registry for the clients
+    private final Map<String, IremoteP2P> exported = new ConcurrentHashMap<>();       // Local nodes by address
+    private final Map<String, Connection> connections = new ConcurrentHashMap<>();    // Connections by address
+    private final Map<String, CompletableFuture<Connection>> connecting = new ConcurrentHashMap<>(); // Connections being opened
+    private final List<Server> servers = new CopyOnWriteArrayList<>();                // Servers of the local nodes
+    private final ExecutorService workers = Executors.newVirtualThreadPerTaskExecutor(); // Calls served
+
+    /**
+     * Binds the node in the RMI registry for the clients and starts serving
+     * it to the other nodes on the port of its address plus the offset.
+     *
+     * @param node The local node.
+     * @param address The address of the node.
+     * @throws IOException If the registry or the socket cannot be opened.
+     */
+    @Override
+    public void export(IremoteP2P node, String address) throws IOException {
+        clients.export(node, address);
+        Server server = new Server(node, RMI.getAdressPort(address) + PORT_OFFSET);
+        servers.add(server);
+        exported.put(address, node);
+        Thread thread = new Thread(server, "nio-server-" + address);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Opens a connection to the node, or reuses the open one, and returns an
+     * object that sends the calls over it. The local nodes are returned
+     * directly.
+     *
+     * @param address The address of the node.
+     * @return The object of the node.
+     * @throws IOException If the node cannot be reached.
+     */
+    @Override
+    public IremoteP2P connect(String address) throws IOException {
+        IremoteP2P local = exported.get(address);
+        if (local != null) {
+            return local;
+        }
+        connection(address);
+        return peer(address);
+    }
+
+    /**
+     * Closes the connections and the servers.
+     */
+    @Override
+    public void close() {
+        for (Server server : servers) {
+            server.close();
+        }
+        for (Connection connection : connections.values()) {
+            connection.close(new IOException("Transport closed"));
+        }
+        workers.shutdownNow();
+    }
+
+    /**
+     * Returns the object of a node, without connecting to it yet.
+     *
+     * @param address The address of the node.
+     * @return The local node with that address, or an object that sends the
+     * calls to it.
+     */
+    private IremoteP2P resolve(String address) {
+        IremoteP2P local = exported.get(address);
+        return local != null ? local : peer(address);
+    }
+
+    /**
+     * Creates an object that sends the calls to a node.
+     *
+     * @param address The address of the node.
+     * @return The object of the node.
+     */
+    private IremoteP2P peer(String address) {
+        return (IremoteP2P) Proxy.newProxyInstance(IremoteP2P.class.getClassLoader(),
+                new Class<?>[]{IremoteP2P.class}, new Peer(address));
+    }
+
+    /**
+     * Returns the open connection to a node, opening it if needed. Only one
+     * connection to a node is opened at a time, and the calls made meanwhile
+     * wait for it; connecting to one node does not hold up the calls to the
+     * others.
+     *
+     * @param address The address of the node.
+     * @return The connection.
+     * @throws IOException If the node cannot be reached.
+     */
+    private Connection connection(String address) throws IOException {
+        Connection connection = connections.get(address);
+        if (connection != null && connection.open) {
+            return connection;
+        }
+        CompletableFuture<Connection> opened = new CompletableFuture<>();
+        CompletableFuture<Connection> opening = connecting.putIfAbsent(address, opened);
+        if (opening != null) {
+            // Another call is connecting to the node, within the connect timeout
+            try {
+                return opening.get();
+            } catch (ExecutionException ex) {
+                if (ex.getCause() instanceof IOException) {
+                    throw (IOException) ex.getCause();
+                }
+                throw new IOException("Cannot reach " + address, ex.getCause());
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while connecting to " + address, ex);
+            }
+        }
+        try {
+            connection = connections.get(address);
+            if (connection == null || !connection.open) {
+                connection = new Connection(address); // Opened by a call that found no connection in between
+                connections.put(address, connection);
+            }
+            opened.complete(connection);
+            return connection;
+        } catch (IOException | RuntimeException ex) {
+            opened.completeExceptionally(ex);
+            throw ex;
+        } finally {
+            connecting.remove(address, opened);
+        }
+    }
+
+    /**
+     * Returns the key of a method: its name and parameter types.
+     *
+     * @param method The method.
+     * @return The key.
+     */
+    private static String methodKey(Method method) {
+        return method.getName() + Arrays.toString(method.getParameterTypes());
+    }
+
+    /**
+     * Writes a frame: the length of the rest, the id of the call, the kind of
+     * message and the payload.
+     *
+     * @param id The id of the call.
+     * @param kind The kind of message.
+     * @param payload The payload.
+     * @return The frame, ready to be written.
+     */
+    private static ByteBuffer frame(long id, byte kind, byte[] payload) {
+        ByteBuffer frame = ByteBuffer.allocate(Integer.BYTES + FRAME_HEADER + payload.length);
+        frame.putInt(FRAME_HEADER + payload.length).putLong(id).put(kind).put(payload).flip();
+        return frame;
+    }
+
+    /**
+     * Serializes a value, replacing the node objects by their addresses.
+     *
+     * @param value The value.
+     * @return The serialized bytes.
+     * @throws IOException If the value cannot be serialized.
+     */
+    private byte[] encode(Object value) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new NodeOutputStream(bytes)) {
+            out.writeObject(value);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Deserializes a value, replacing the node addresses by node objects.
+     *
+     * @param data The serialized bytes.
+     * @param offset The position of the value in the bytes.
+     * @return The value.
+     * @throws IOException If the value cannot be read.
+     * @throws ClassNotFoundException If a class of the value is unknown.
+     */
+    private Object decode(byte[] data, int offset) throws IOException, ClassNotFoundException {
+        try (ObjectInputStream in = new NodeInputStream(new ByteArrayInputStream(data, offset, data.length - offset))) {
+            return in.readObject();
+        }
+    }
+
+    /**
+     * Serializes an exception thrown by a call. Exceptions that cannot be
+     * serialized are replaced by a RemoteException with their description.
+     *
+     * @param id The id of the call.
+     * @param error The exception.
+     * @return The failure frame.
+     */
+    private ByteBuffer failure(long id, Throwable error) {
+        try {
+            return frame(id, FAILURE, encode(error));
+        } catch (IOException ex) {
+            try {
+                return frame(id, FAILURE, encode(new RemoteException(error.toString())));
+            } catch (IOException impossible) {
+                throw new IllegalStateException(impossible);
+            }
+        }
+    }
+
+    /**
+     * The address of a node, sent in place of the node object.
+     */
+    private static final class NodeRef implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private final String address;
+
+        private NodeRef(String address) {
+            this.address = address;
+        }
+    }
+
+    /**
+     * Object stream that writes node objects as their address.
+     */
+    private static final class NodeOutputStream extends ObjectOutputStream {
+
+        private NodeOutputStream(OutputStream out) throws IOException {
+            super(out);
+            enableReplaceObject(true);
+        }
+
+        @Override
+        protected Object replaceObject(Object obj) throws IOException {
+            if (obj instanceof IremoteP2P) {
+                IremoteP2P node = (IremoteP2P) obj;
+                if (Proxy.isProxyClass(node.getClass()) && Proxy.getInvocationHandler(node) instanceof Peer) {
+                    return new NodeRef(((Peer) Proxy.getInvocationHandler(node)).address);
+                }
+                return new NodeRef(node.getAddress());
+            }
+            return obj;
+        }
+    }
+
+    /**
+     * Object stream that reads node addresses as node objects.
+     */
+    private final class NodeInputStream extends ObjectInputStream {
+
+        private NodeInputStream(InputStream in) throws IOException {
+            super(in);
+            enableResolveObject(true);
+        }
+
+        @Override
+        protected Object resolveObject(Object obj) {
+            return obj instanceof NodeRef ? resolve(((NodeRef) obj).address) : obj;
+        }
+    }
+
+    /**
+     * Sends the calls made on a node object over the connection to the node.
+     */
+    private final class Peer implements InvocationHandler {
+
+        private final String address; // Address of the node
+
+        private Peer(String address) {
+            this.address = address;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            if (method.getDeclaringClass() == Object.class) {
+                switch (method.getName()) {
+                    case "equals":
+                        return args[0] != null && Proxy.isProxyClass(args[0].getClass())
+                                && Proxy.getInvocationHandler(args[0]) instanceof Peer
+                                && ((Peer) Proxy.getInvocationHandler(args[0])).address.equals(address);
+                    case "hashCode":
+                        return address.hashCode();
+                    default:
+                        return "NioPeer[" + address + "]";
+                }
+            }
+            Throwable error;
+            try {
+                return connection(address).call(methodKey(method), args == null ? new Object[0] : args);
+            } catch (RemoteException | RuntimeException | Error ex) {
+                throw ex;
+            } catch (IOException ex) {
+                error = new ConnectException("Cannot reach " + address, ex);
+            } catch (Throwable ex) {
+                error = ex;
+            }
+            // Checked exceptions not declared by the method are wrapped
+            for (Class<?> declared : method.getExceptionTypes()) {
+                if (declared.isInstance(error)) {
+                    throw error;
+                }
+            }
+            throw new RemoteException("Error calling " + method.getName() + " on " + address, error);
+        }
+    }
+
+    /**
+     * Client side of the connection to a node. Calls are written as soon as
+     * they are made; a reader thread completes each call when its answer
+     * arrives. The reader is a platform thread: it spends its life blocked on
+     * the socket, and waking it directly is faster than through the poller of
+     * the virtual threads.
+     */
+    private final class Connection {
+
+        private final String address;                 // Address of the node
+        private final SocketChannel channel;          // Blocking channel to the node
+        private final Map<Long, CompletableFuture<byte[]>> pending = new ConcurrentHashMap<>(); // Calls by id
+        private final AtomicLong ids = new AtomicLong(); // Id of the last call
+        private volatile boolean open = true;
+
+        /**
+         * Connects to the node and starts reading its answers.
+         *
+         * @param address The address of the node.
+         * @throws IOException If the node cannot be reached.
+         */
+        private Connection(String address) throws IOException {
+            this.address = address;
+            this.channel = SocketChannel.open();
+            try {
+                // Connected with a timeout, so an unreachable node fails fast instead of after the system timeout
+                channel.socket().connect(new InetSocketAddress(RMI.getAdressServer(address),
+                        RMI.getAdressPort(address) + PORT_OFFSET), CONNECT_TIMEOUT_MILLIS);
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            } catch (IOException ex) {
+                channel.close();
+                throw ex;
+            }
+            Thread reader = new Thread(this::readAnswers, "nio-client-" + address);
+            reader.setDaemon(true);
+            reader.start();
+        }
+
+        /**
+         * Sends a call and waits for its answer.
+         *
+         * @param key The key of the method.
+         * @param args The arguments.
+         * @return The value returned by the node.
+         * @throws Throwable The exception thrown by the node, or the error of
+         * the connection.
+         */
+        private Object call(String key, Object[] args) throws Throwable {
+            long id = ids.incrementAndGet();
+            CompletableFuture<byte[]> answer = new CompletableFuture<>();
+            pending.put(id, answer);
+            byte[] body;
+            try {
+                write(frame(id, REQUEST, encode(new Object[]{key, args})));
+                body = answer.get(CALL_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (ExecutionException ex) {
+                throw ex.getCause();
+            } catch (TimeoutException ex) {
+                throw new RemoteException("No answer from " + address + " in " + CALL_TIMEOUT_MILLIS + " ms");
+            } finally {
+                pending.remove(id);
+            }
+
+            // The answer is decoded by the caller, so the reader is free for the next one
+            Object value;
+            try {
+                value = decode(body, FRAME_HEADER);
+            } catch (ClassNotFoundException | IOException ex) {
+                throw new RemoteException("Cannot read the answer from " + address, ex);
+            }
+            if (body[Long.BYTES] == FAILURE) {
+                throw (Throwable) value;
+            }
+            return value;
+        }
+
+        /**
+         * Writes a frame. Frames of concurrent calls are written one at a
+         * time.
+         *
+         * @param frame The frame.
+         * @throws IOException If the connection fails.
+         */
+        private synchronized void write(ByteBuffer frame) throws IOException {
+            try {
+                while (frame.hasRemaining()) {
+                    channel.write(frame);
+                }
+            } catch (IOException ex) {
+                close(ex);
+                throw ex;
+            }
+        }
+
+        /**
+         * Reads the answers and completes the calls they belong to, until the
+         * connection closes.
+         */
+        private void readAnswers() {
+            ByteBuffer length = ByteBuffer.allocate(Integer.BYTES);
+            try {
+                while (open) {
+                    length.clear();
+                    readFully(length);
+                    int size = length.flip().getInt();
+                    if (size < FRAME_HEADER || size > MAX_FRAME) {
+                        throw new IOException("Invalid frame of " + size + " bytes");
+                    }
+                    ByteBuffer body = ByteBuffer.allocate(size);
+                    readFully(body);
+
+                    // The whole frame is handed to the caller, which reads the kind and the payload
+                    CompletableFuture<byte[]> answer = pending.get(body.getLong(0));
+                    if (answer != null) {
+                        answer.complete(body.array());
+                    }
+                }
+            } catch (IOException ex) {
+                close(ex);
+            }
+        }
+
+        /**
+         * Fills a buffer from the channel.
+         *
+         * @param buffer The buffer.
+         * @throws IOException If the connection closes before the buffer is
+         * full.
+         */
+        private void readFully(ByteBuffer buffer) throws IOException {
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer) < 0) {
+                    throw new IOException("Connection closed by " + address);
+                }
+            }
+        }
+
+        /**
+         * Closes the connection and fails the calls waiting for an answer.
+         *
+         * @param cause The reason.
+         */
+        private void close(IOException cause) {
+            if (!open) {
+                return;
+            }
+            open = false;
+            connections.remove(address, this);
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+                // Already closing
+            }
+            for (CompletableFuture<byte[]> answer : pending.values()) {
+                answer.completeExceptionally(new ConnectException("Connection to " + address + " closed", cause));
+            }
+        }
+    }
+
+    /**
+     * Server side: accepts the connections of other nodes, reads their frames
+     * on a selector and runs each call on a virtual thread.
+     */
+    private final class Server implements Runnable {
+
+        private final IremoteP2P node;              // Node receiving the calls
+        private final Selector selector;            // Selector of the channels
+        private final ServerSocketChannel acceptor; // Listening channel
+        private volatile boolean running = true;
+
+        /**
+         * Opens the listening socket.
+         *
+         * @param node The node receiving the calls.
+         * @param port The port to listen on.
+         * @throws IOException If the socket cannot be opened.
+         */
+        private Server(IremoteP2P node, int port) throws IOException {
+            this.node = node;
+            this.selector = Selector.open();
+            this.acceptor = ServerSocketChannel.open();
+            acceptor.bind(new InetSocketAddress(port));
+            acceptor.configureBlocking(false);
+            acceptor.register(selector, SelectionKey.OP_ACCEPT);
+        }
+
+        @Override
+        public void run() {
+            while (running) {
+                try {
+                    selector.select();
+                    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+                        try {
+                            if (key.isValid() && key.isAcceptable()) {
+                                accept();
+                            }
+                            if (key.isValid() && key.isReadable()) {
+                                ((Session) key.attachment()).read();
+                            }
+                            if (key.isValid() && key.isWritable()) {
+                                ((Session) key.attachment()).flush();
+                            }
+                        } catch (IOException ex) {
+                            // The peer closed or broke the connection
+                            key.cancel();
+                            key.channel().close();
+                        }
+                    }
+                } catch (ClosedSelectorException ex) {
+                    return; // Closed by close()
+                } catch (IOException ex) {
+                    if (running) {
+                        Logger.getLogger(NioTransport.class.getName()).log(Level.SEVERE, "Error in the NIO server", ex);
+                    }
+                }
+            }
+        }
+
+        /**
+         * Accepts a connection and registers it for reading.
+         *
+         * @throws IOException If the connection cannot be configured.
+         */
+        private void accept() throws IOException {
+            SocketChannel channel = acceptor.accept();
+            if (channel != null) {
+                channel.configureBlocking(false);
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+                key.attach(new Session(channel, key));
+            }
+        }
+
+        /**
+         * Stops the server and closes its socket.
+         */
+        private void close() {
+            running = false;
+            try {
+                selector.close();
+                acceptor.close();
+            } catch (IOException ex) {
+                Logger.getLogger(NioTransport.class.getName()).log(Level.WARNING, "Error closing the NIO server", ex);
+            }
+        }
+
+        /**
+         * A connection accepted by the server: the frames read but not yet
+         * complete and the answers waiting to be written.
+         */
+        private final class Session {
+
+            private final SocketChannel channel;
+            private final SelectionKey key;
+            private final Queue<ByteBuffer> answers = new ConcurrentLinkedQueue<>();
+            private ByteBuffer input = ByteBuffer.allocate(64 * 1024);
+
+            private Session(SocketChannel channel, SelectionKey key) {
+                this.channel = channel;
+                this.key = key;
+            }
+
+            /**
+             * Reads the available bytes and starts a call for each complete
+             * request frame.
+             *
+             * @throws IOException If the connection is closed or a frame is
+             * invalid.
+             */
+            private void read() throws IOException {
+                if (channel.read(input) < 0) {
+                    throw new IOException("Connection closed");
+                }
+                input.flip();
+                int needed = 0;
+                while (input.remaining() >= Integer.BYTES) {
+                    int size = input.getInt(input.position());
+                    if (size < FRAME_HEADER || size > MAX_FRAME) {
+                        throw new IOException("Invalid frame of " + size + " bytes");
+                    }
+                    if (input.remaining() < Integer.BYTES + size) {
+                        needed = Integer.BYTES + size;
+                        break;
+                    }
+                    input.getInt();
+                    long id = input.getLong();
+                    byte kind = input.get();
+                    byte[] payload = new byte[size - FRAME_HEADER];
+                    input.get(payload);
+                    if (kind == REQUEST) {
+                        workers.execute(() -> handle(id, payload));
+                    }
+                }
+                input.compact();
+
+                // Grow the buffer for frames larger than it
+                if (needed > input.capacity()) {
+                    ByteBuffer larger = ByteBuffer.allocate(needed);
+                    input.flip();
+                    larger.put(input);
+                    input = larger;
+                }
+            }
+
+            /**
+             * Runs a call on the node and queues its answer.
+             *
+             * @param id The id of the call.
+             * @param payload The serialized method key and arguments.
+             */
+            private void handle(long id, byte[] payload) {
+                ByteBuffer answer;
+                try {
+                    Object[] request = (Object[]) decode(payload, 0);
+                    Method method = METHODS.get((String) request[0]);
+                    if (method == null) {
+                        throw new RemoteException("Unknown method " + request[0]);
+                    }
+                    answer = frame(id, RESPONSE, encode(method.invoke(node, (Object[]) request[1])));
+                } catch (InvocationTargetException ex) {
+                    answer = failure(id, ex.getCause());
+                } catch (Exception ex) {
+                    answer = failure(id, ex);
+                }
+                send(answer);
+            }
+
+            /**
+             * Writes an answer right away if nothing is queued before it, and
+             * otherwise queues it and asks the selector to write it when the
+             * socket has room.
+             *
+             * @param answer The answer frame.
+             */
+            private synchronized void send(ByteBuffer answer) {
+                if (answers.isEmpty()) {
+                    try {
+                        channel.write(answer);
+                    } catch (IOException ex) {
+                        close();
+                        return;
+                    }
+                    if (!answer.hasRemaining()) {
+                        return;
+                    }
+                }
+                answers.add(answer);
+                if (key.isValid()) {
+                    key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                    selector.wakeup();
+                }
+            }
+
+            /**
+             * Writes the queued answers while the socket accepts them.
+             *
+             * @throws IOException If the connection fails.
+             */
+            private synchronized void flush() throws IOException {
+                for (ByteBuffer answer; (answer = answers.peek()) != null; answers.poll()) {
+                    channel.write(answer);
+                    if (answer.hasRemaining()) {
+                        return; // Socket full, wait for the next write event
+                    }
+                }
+                key.interestOps(SelectionKey.OP_READ);
+            }
+
+            /**
+             * Closes the connection after an error writing an answer.
+             */
+            private void close() {
+                try {
+                    channel.close();
+                } catch (IOException ignored) {
+                    // Already closing
+                }
+            }
+        }
+    }
+}
@@ -2,14 +2,11 @@ package p2p;
 
 import blockchain.utils.BlockChain;
 import java.net.InetAddress;
-import java.rmi.Naming;
 import java.rmi.RemoteException;
-import java.rmi.registry.LocateRegistry;
 import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import currdig.utils.GuiUtils;
-import currdig.utils.RMI;
 import currdig.utils.Utils;
 import java.net.DatagramPacket;
 import java.net.DatagramSocket;
@@ -231,7 +228,8 @@ public class NodeP2PGui extends javax.swing.JFrame implements P2Plistener {
 
     /**
      * This method handles the manual connection to a node based on user input.
-     * It attempts to connect to a manually entered node address via RMI.
+     * It attempts to connect to a manually entered node address with the
+     * selected transport.
      *
      * @param evt The event triggered by the manual connection button.
      */
@@ -240,7 +238,7 @@ public class NodeP2PGui extends javax.swing.JFrame implements P2Plistener {
         String address = txtNodeAddress.getText();
 
         try {
-            IremoteP2P node = (IremoteP2P) RMI.getRemote(address);
+            IremoteP2P node = Transport.get().connect(address);
             myremoteObject.addNode(node);
         } catch (Exception ex) {
             onException(ex, "connect");
@@ -285,7 +283,8 @@ public class NodeP2PGui extends javax.swing.JFrame implements P2Plistener {
 
     /**
      * This method connects to a selected P2P node from the discovered nodes
-     * list. It establishes an RMI connection with the selected peer node.
+     * list. It establishes a connection with the selected peer node using the
+     * selected transport.
      *
      * @param evt The event triggered by the connect button.
      */
@@ -300,7 +299,7 @@ public class NodeP2PGui extends javax.swing.JFrame implements P2Plistener {
         }
 
         try {
-            IremoteP2P node = (IremoteP2P) RMI.getRemote(selectedServer);
+            IremoteP2P node = Transport.get().connect(selectedServer);
             myremoteObject.addNode(node);
         } catch (Exception ex) {
             onException(ex, "connect");
@@ -325,13 +324,11 @@ public class NodeP2PGui extends javax.swing.JFrame implements P2Plistener {
             String name = txtServerListeningObjectName.getText();
             //local adress of server
             String host = InetAddress.getLocalHost().getHostAddress();
-            //create registry to object
-            LocateRegistry.createRegistry(port);
             //create adress of remote object
             address = String.format("//%s:%d/%s", host, port, name);
             myremoteObject = new OremoteP2P(address, this);
-            //link adress to object
-            Naming.rebind(address, myremoteObject);
+            //make the object available to clients and nodes with the selected transport
+            Transport.get().export(myremoteObject, address);
 
             btnConnect.setEnabled(true);
             btnFind.setEnabled(true);
@@ -2,18 +2,30 @@ package p2p;
 
 import blockchain.utils.Block;
 import blockchain.utils.BlockChain;
+import blockchain.utils.BlockHeader;
+import blockchain.utils.BlockStore;
+import blockchain.utils.CompactBlock;
+import blockchain.utils.MerkleTree;
 import blockchain.utils.SecurityUtils;
 
 import currdig.core.Entry;
+import currdig.core.SignedEntry;
 import currdig.core.User;
 import java.rmi.RemoteException;
 import java.rmi.server.UnicastRemoteObject;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
 import java.util.List;
-import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.CopyOnWriteArraySet;
 import currdig.utils.RMI;
 import java.io.IOException;
+import java.math.BigInteger;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
@@ -23,10 +35,14 @@ import java.util.logging.Logger;
 import java.util.stream.Collectors;
 import blockchain.utils.Miner;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 
@@ -46,12 +62,84 @@ import java.util.concurrent.TimeUnit;
 public class OremoteP2P extends UnicastRemoteObject implements IremoteP2P {
 
     private final String address;
-    private final CopyOnWriteArrayList<IremoteP2P> network; // List of connected peers in the network
-    private CopyOnWriteArraySet<Entry> transactionBuffer; // Buffer for pending transactions
+    private final PeerRegistry peers; // Peers of the network, by address
+    private final Mempool mempool; // Pool of pending transactions
+    private final UsersDataReplica usersData = new UsersDataReplica("UsersData", USERS_DATA_BATCH_BYTES); // Replicated user records
+    private final FileReceiver fileReceiver = new FileReceiver(Paths.get("UsersData"), TRANSFER_IDLE_MILLIS, TRANSFER_MAX_OPEN); // Files received, only in the shared folder
     private final P2Plistener listener; // Listener to handle events like start and block announcements
     private Map<PublicKey, List<Entry>> userEntries; // Map of user entries by their public key
 
-    private static final String BLOCHAIN_FILENAME = "currdig.obj"; // Filename to save/load blockchain
+    private static final String BLOCHAIN_FILENAME = "currdig.obj"; // Legacy whole-chain file, migrated on startup
+    private static final String BLOCKSTORE_DIRECTORY = "currdig.db"; // Folder of the append-only block store
+    // When the block store forces writes to disk (ALWAYS, BATCH or NONE)
+    private static final String BLOCKSTORE_SYNC = System.getProperty("currdig.store.sync", "ALWAYS");
+    // Whether the block store is read through memory mappings with lazily decoded blocks
+    private static final boolean BLOCKSTORE_MAPPED = Boolean.parseBoolean(System.getProperty("currdig.store.mmap", "true"));
+    private static final int SYNC_HEADER_BATCH = 2000; // Headers requested per call when synchronizing
+    private static final int SYNC_BLOCK_BATCH = 50; // Blocks requested per call when synchronizing
+    // Block batches in flight per peer when synchronizing, batches past the first missing block, and
+    // time after which a batch is also requested from another peer
+    private static final int SYNC_PER_PEER = Integer.getInteger("currdig.sync.perPeer", 2);
+    private static final int SYNC_WINDOW = Integer.getInteger("currdig.sync.window", 16);
+    private static final long SYNC_STALL_MILLIS = Long.getLong("currdig.sync.stallMillis", 5000L);
+    // Blocks from the top of the chain a branch may fork at to be switched to without synchronizing,
+    // and blocks kept off the chain
+    private static final int FORK_MAX_DEPTH = Integer.getInteger("currdig.fork.maxDepth", 100);
+    private static final int FORK_CAPACITY = Integer.getInteger("currdig.fork.capacity", 1000);
+    // Blocks kept while their parent is missing
+    private static final int ORPHAN_CAPACITY = Integer.getInteger("currdig.orphan.capacity", 1000);
+    // Limits of the pool of pending transactions
+    private static final int MEMPOOL_MAX_ENTRIES = Integer.getInteger("currdig.mempool.maxEntries", 100_000);
+    private static final long MEMPOOL_MAX_BYTES = Long.getLong("currdig.mempool.maxBytes", 64L * 1024 * 1024);
+    // Removed transactions kept to rebuild compact blocks
+    private static final int MEMPOOL_RECENT_ENTRIES = Integer.getInteger("currdig.mempool.recentEntries", 10_000);
+    // Leading zeros of the hash of a mined block, the least work a block from a peer must have
+    private static final int BLOCK_ZEROS = Integer.getInteger("currdig.block.zeros", 4);
+    // Maximum number of transactions taken from the pool for a block, oldest first
+    private static final int BLOCK_MAX_TRANSACTIONS = Integer.getInteger("currdig.block.maxTransactions", 1000);
+    // Threads verifying the signatures of transaction batches
+    private static final int VERIFY_THREADS = Integer.getInteger("currdig.verify.threads",
+            Runtime.getRuntime().availableProcessors());
+
+    // Calls to peers in flight at the same time, over all broadcasts
+    private static final int FANOUT_PARALLELISM = Integer.getInteger("currdig.fanout.parallelism", 64);
+    // Deadline of each call made to the peers during a broadcast
+    private static final long FANOUT_TIMEOUT_MILLIS = Long.getLong("currdig.fanout.timeoutMillis", 5000L);
+    // Fraction of the peers a broadcast waits for before returning
+    private static final double FANOUT_QUORUM = Double.parseDouble(System.getProperty("currdig.fanout.quorum", "0.5"));
+    // Transfers received at the same time, and time after which an idle one is dropped
+    private static final int TRANSFER_MAX_OPEN = Integer.getInteger("currdig.transfer.maxOpen", 64);
+    private static final long TRANSFER_IDLE_MILLIS = Long.getLong("currdig.transfer.idleMillis", 10 * 60_000L);
+    // Largest content of the UsersData files requested from a peer in one call
+    private static final int USERS_DATA_BATCH_BYTES = Integer.getInteger("currdig.usersdata.batchBytes", 1024 * 1024);
+
+    // Messages remembered to drop repetitions, and for how long
+    private static final int GOSSIP_SEEN_CAPACITY = Integer.getInteger("currdig.gossip.seenCapacity", 100_000);
+    private static final long GOSSIP_SEEN_TTL_MILLIS = Long.getLong("currdig.gossip.seenTtlMillis", 10 * 60_000L);
+    // Links a relayed message may cross
+    private static final int GOSSIP_MAX_HOPS = Integer.getInteger("currdig.gossip.maxHops", 16);
+
+    // Cells of the first and the largest tables used to reconcile the pools
+    private static final int RECONCILE_INITIAL_CELLS = Integer.getInteger("currdig.reconcile.initialCells", 64);
+    private static final int RECONCILE_MAX_CELLS = Integer.getInteger("currdig.reconcile.maxCells", 1 << 16);
+    // Time announcements are gathered before being sent to the peers
+    private static final long INVENTORY_WINDOW_MILLIS = Long.getLong("currdig.inventory.windowMillis", 100L);
+
+    // Time between rounds of probes of the peers, and deadline of each probe
+    private static final long FAILURE_PROBE_INTERVAL_MILLIS = Long.getLong("currdig.failure.probeIntervalMillis", 1000L);
+    private static final long FAILURE_PROBE_TIMEOUT_MILLIS = Long.getLong("currdig.failure.probeTimeoutMillis", 1000L);
+    // Suspicion level (phi) above which a peer that answers no probe is removed
+    private static final double FAILURE_PHI_THRESHOLD = Double.parseDouble(System.getProperty("currdig.failure.phiThreshold", "8"));
+    // Peers asked to probe a suspected peer
+    private static final int FAILURE_INDIRECT_PROBES = Integer.getInteger("currdig.failure.indirectProbes", 3);
+
+    // Links each node looks for, and links it accepts from joining nodes
+    private static final int TOPOLOGY_DEGREE = Integer.getInteger("currdig.topology.degree", 8);
+    private static final int TOPOLOGY_MAX_DEGREE = Integer.getInteger("currdig.topology.maxDegree", 16);
+    // Addresses swapped with a random peer, how often, and how many are remembered
+    private static final int TOPOLOGY_SAMPLE_SIZE = Integer.getInteger("currdig.topology.sampleSize", 16);
+    private static final long TOPOLOGY_EXCHANGE_INTERVAL_MILLIS = Long.getLong("currdig.topology.exchangeIntervalMillis", 10_000L);
+    private static final int TOPOLOGY_KNOWN_CAPACITY = Integer.getInteger("currdig.topology.knownCapacity", 1000);
 
     // Concurrent mining object for distributed mining
     Miner myMiner;
@@ -59,6 +147,21 @@ public class OremoteP2P extends UnicastRemoteObject implements IremoteP2P {
     BlockChain myBlockchain;
 
     private final ScheduledExecutorService executorService; // Executor service for scheduled tasks
+    private final BlockDownloader blockDownloader = new BlockDownloader(SYNC_BLOCK_BATCH, SYNC_PER_PEER,
+            SYNC_WINDOW, SYNC_STALL_MILLIS); // Block downloads from several peers
+    private final ForkTracker forks = new ForkTracker(FORK_MAX_DEPTH, FORK_CAPACITY); // Branches off the chain
+    private final OrphanPool orphans = new OrphanPool(ORPHAN_CAPACITY); // Blocks waiting for their parent
+    private final ExecutorService verifyExecutor = Executors.newFixedThreadPool(VERIFY_THREADS); // Signature checks
+    private final FanOut fanOut; // Concurrent calls to the peers, reported to the failure detector
+    private final FailureDetector detector; // Removes the peers that stopped answering
+    private final ScheduledExecutorService detectorExecutor = Executors.newSingleThreadScheduledExecutor(); // Probes
+    private final Topology topology; // Bounded set of links to the network
+    private final ScheduledExecutorService topologyExecutor = Executors.newSingleThreadScheduledExecutor(); // Peer exchanges
+    private final SeenCache seen = new SeenCache(GOSSIP_SEEN_CAPACITY, GOSSIP_SEEN_TTL_MILLIS); // Relayed messages seen
+    private final Queue<Announcement> announcements = new ConcurrentLinkedQueue<>(); // Waiting to be announced
+    private final Set<String> requested = ConcurrentHashMap.newKeySet(); // Objects being pulled from a peer
+    private final ScheduledExecutorService inventoryExecutor = Executors.newSingleThreadScheduledExecutor(); // Announcements
+    private final ExecutorService pullExecutor = Executors.newVirtualThreadPerTaskExecutor(); // Requests of announced objects
 
     /**
      * Constructor to initialize the peer-to-peer object with an address and
@@ -71,30 +174,51 @@ public class OremoteP2P extends UnicastRemoteObject implements IremoteP2P {
      * @throws RemoteException if there is an issue with remote communication.
      */
     public OremoteP2P(String address, P2Plistener listener) throws RemoteException {
-        super(RMI.getAdressPort(address));
+        super(RMI.getAdressPort(address), RMI.SOCKET_FACTORY, RMI.SOCKET_FACTORY); // Compressed sockets, shared with the registry
         this.address = address;
-        this.network = new CopyOnWriteArrayList<>();
-        this.transactionBuffer = new CopyOnWriteArraySet<>();
+        this.peers = new PeerRegistry(Transport.get());
+        this.detector = new FailureDetector(address, peers, FANOUT_PARALLELISM, FAILURE_PROBE_INTERVAL_MILLIS,
+                FAILURE_PROBE_TIMEOUT_MILLIS, FAILURE_PHI_THRESHOLD, FAILURE_INDIRECT_PROBES, this::onPeerFailure);
+        this.fanOut = new FanOut(FANOUT_PARALLELISM, detector);
+        this.topology = new Topology(address, peers, TOPOLOGY_DEGREE, TOPOLOGY_MAX_DEGREE,
+                TOPOLOGY_SAMPLE_SIZE, TOPOLOGY_KNOWN_CAPACITY);
+        this.mempool = new Mempool(MEMPOOL_MAX_ENTRIES, MEMPOOL_MAX_BYTES, MEMPOOL_RECENT_ENTRIES);
         this.listener = listener;
         myMiner = new Miner(listener); // Initialize the mining object with the listener
         myBlockchain = new BlockChain(); // Initialize the blockchain
         userEntries = new HashMap<>(); // Initialize user entries map
 
         try {
-            myBlockchain.load("currdig.obj"); // Load blockchain from file
+            // Open the block store, migrating the legacy file on first use
+            BlockStore store = new BlockStore(BLOCKSTORE_DIRECTORY,
+                    BlockStore.SyncPolicy.valueOf(BLOCKSTORE_SYNC.toUpperCase()), BLOCKSTORE_MAPPED);
+            myBlockchain.open(store, BLOCHAIN_FILENAME);
         } catch (Exception e) {
-            // Handle loading errors if any
+            Logger.getLogger(OremoteP2P.class.getName()).log(Level.SEVERE, "Error opening the block store", e);
         }
 
         listener.onStart("Object " + address + " listening"); // Notify listener that the object is listening
         System.out.println("Object " + address + " listening");
 
-        // Start the health-check thread
-        startHealthCheck();
+        // Probe the peers periodically to detect the ones that stopped answering
+        detectorExecutor.scheduleWithFixedDelay(this::probePeers,
+                FAILURE_PROBE_INTERVAL_MILLIS, FAILURE_PROBE_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+
+        // Swap addresses with a random peer periodically and replace the links lost
+        topologyExecutor.scheduleWithFixedDelay(this::maintainTopology,
+                TOPOLOGY_EXCHANGE_INTERVAL_MILLIS, TOPOLOGY_EXCHANGE_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
 
         // Set up periodic block creation task every 30 seconds
         executorService = Executors.newSingleThreadScheduledExecutor();
         executorService.scheduleAtFixedRate(this::checkAndMineBlock, 0, 30, TimeUnit.SECONDS);
+
+        // Drop the file transfers abandoned by their senders
+        executorService.scheduleWithFixedDelay(fileReceiver::expire,
+                TRANSFER_IDLE_MILLIS, Math.max(1, TRANSFER_IDLE_MILLIS / 2), TimeUnit.MILLISECONDS);
+
+        // Send the gathered announcements at the end of each window
+        inventoryExecutor.scheduleWithFixedDelay(this::flushAnnouncements,
+                INVENTORY_WINDOW_MILLIS, INVENTORY_WINDOW_MILLIS, TimeUnit.MILLISECONDS);
     }
 
     /**
@@ -104,7 +228,7 @@ public class OremoteP2P extends UnicastRemoteObject implements IremoteP2P {
     private void checkAndMineBlock() {
         try {
             // If there are pending transactions, we will mine
-            if (!getTransactions().isEmpty()) {
+            if (!mempool.isEmpty()) {
                 // Start mining the block
                 mineBlock();
             } else {
@@ -118,14 +242,14 @@ public class OremoteP2P extends UnicastRemoteObject implements IremoteP2P {
 
     /**
      * Mines a new block if there are pending transactions. This involves
-     * removing the transactions from the buffer, creating a block, and adding
-     * it to the blockchain.
+     * removing the oldest transactions from the pool, creating a block, and
+     * adding it to the blockchain.
      *
      * @throws Exception if there are issues during the mining process.
      */
     private void mineBlock() throws Exception {
-        // Get the transactions for the block
-        CopyOnWriteArraySet<Entry> blockTransactions = getTransactions();
+        // Get the oldest transactions for the block
+        List<Entry> blockTransactions = mempool.oldest(BLOCK_MAX_TRANSACTIONS);
 
         // If no transactions, we cannot mine a block
         if (blockTransactions.isEmpty()) {
@@ -133,25 +257,19 @@ public class OremoteP2P extends UnicastRemoteObject implements IremoteP2P {
             return;
         }
 
-        // Remove the transactions from the local buffer
+        // Remove the transactions from the local buffer; the removal is propagated to the peers
         removeTransactions(blockTransactions);
 
-        // Notify other peers to remove the transactions as well
-        for (IremoteP2P peer : network) {
-            peer.removeTransactions(blockTransactions);
-        }
-
         // Create the block with the transactions
-        Block b = new Block(myBlockchain.getLastBlockHash(), blockTransactions);
+        Block b = new Block(myBlockchain.getLastBlockHash(), new CopyOnWriteArraySet<>(blockTransactions));
 
         // Start mining the block with difficulty (number of leading zeros)
-        int zeros = 4; // Difficulty level
-        int nonce = mine(b.getMinerData(), zeros); // Block mining process
+        int nonce = mine(b.getMinerData(), BLOCK_ZEROS); // Block mining process
 
         System.out.println("Block mined, nonce found: " + nonce);
 
         // Update the nonce and add the block to the blockchain
-        b.setNonce(nonce, zeros);
+        b.setNonce(nonce, BLOCK_ZEROS);
         addBlock(b);
 
         // Log block added to the blockchain
@@ -172,77 +290,106 @@ public class OremoteP2P extends UnicastRemoteObject implements IremoteP2P {
     }
 
     /**
-     * Checks if a node with the given address is already part of the network.
-     * This method iterates through the network and compares the addresses of
-     * the nodes.
+     * Adds a new node to the network. This method ensures that the node is not
+     * already part of the network and synchronizes user data and blockchain
+     * with the new node. The node is linked to this one unless this node
+     * already has the maximum number of links.
      *
-     * @param address The address of the node to check.
-     * @return True if the node is found in the network, false otherwise.
+     * @param node The node to add to the network.
+     * @throws RemoteException if there is an issue with remote communication.
      */
-    private boolean isInNetwork(String address) {
-        for (int i = network.size() - 1; i >= 0; i--) {
-            try {
-                // If the node address matches, return true
-                if (network.get(i).getAddress().equals(address)) {
-                    return true;
-                }
-            } catch (RemoteException ex) {
-                // If there's an exception (node is unreachable), remove it from the network
-                network.remove(i);
-            }
-        }
-        return false; // Node not found
+    @Override
+    public void addNode(IremoteP2P node) throws RemoteException {
+        addNode(node, Gossip.originate(address));
     }
 
     /**
-     * Adds a new node to the network. This method ensures that the node is not
-     * already part of the network and synchronizes user data and blockchain
-     * with the new node.
+     * Adds a node announced by another node. An announcement already seen is
+     * dropped. A node that asks to join directly is linked while this node has
+     * fewer links than the maximum degree; a node announced by others only
+     * while it has fewer than the target degree, and is otherwise remembered
+     * as a candidate for later links. The announcement of a node this node
+     * did not know is relayed to the peers it has not come from.
      *
      * @param node The node to add to the network.
+     * @param gossip The metadata of the announcement.
      * @throws RemoteException if there is an issue with remote communication.
      */
     @Override
-    public void addNode(IremoteP2P node) throws RemoteException {
+    public void addNode(IremoteP2P node, Gossip gossip) throws RemoteException {
+        detector.heard(gossip.getSender());
+        if (!seen.markSeen("node:" + gossip.getId())) {
+            return; // Announcement already handled
+        }
         try {
-            // If the node is already part of the network, don't add it
-            if (isInNetwork(node.getAddress())) {
-                System.out.println("Already have address: " + node.getAddress());
+            // The address of the node is asked once and kept in the registry
+            String nodeAddress = node.getAddress();
+            boolean learned = topology.learn(nodeAddress);
+
+            // Link to the node if it joins through this node or this node needs more links
+            boolean direct = gossip.getHops() == 0;
+            boolean room = nodeAddress.equals(this.address) || (direct ? topology.accepts() : topology.needsPeers());
+            boolean link = room && peers.add(nodeAddress, node);
+            if (link) {
+                linked(node, nodeAddress);
+            } else if (learned) {
+                System.out.println("Remembered node: " + nodeAddress);
+            } else {
+                // Neither a new link nor a new node, so nothing to relay
+                System.out.println("Already have address: " + nodeAddress);
                 return;
             }
 
-            // Add the new node to the network
-            network.add(node);
-            listener.onConnect(node.getAddress());
-            System.out.println("Added node: " + node.getAddress());
-
-            // If the node isn't this one, propagate the new node to the other node
-            if (!node.getAddress().equals(this.address)) {
-                node.addNode(this);
-            }
-
-            // Synchronize user data between the nodes
-            syncUserDataFolder(node);  // Synchronize user data when a new node joins
+            // Propagate the new node to the peers the announcement has not come from
+            Gossip next = gossip.forward(address);
+            relay("addNode", gossip, nodeAddress, peer -> {
+                peer.addNode(node, next);
+                return null;
+            });
 
-            // Propagate the new node to all connected peers in the network
-            for (IremoteP2P peer : network) {
-                peer.addNode(node);
+            if (!link) {
+                return; // The node synchronizes with its own peers
             }
 
             // Print the entire network for monitoring
             System.out.println("P2P Network:");
-            for (IremoteP2P peer : network) {
-                System.out.println(peer.getAddress());
+            for (String peerAddress : peers.addresses()) {
+                System.out.println(peerAddress);
             }
 
-            // Synchronize the blockchain with the new node
+            // Synchronize the blockchain and the pending transactions with the new node
             synchronizeBlockchain();
+            if (!nodeAddress.equals(this.address)) {
+                synchronizeTransactions(node);
+            }
         } catch (Exception ex) {
             // Log any exceptions that occur during the process
             Logger.getLogger(OremoteP2P.class.getName()).log(Level.SEVERE, null, ex);
         }
     }
 
+    /**
+     * Starts using a new link: notifies the listener, links the node back to
+     * this one and copies the user data to it.
+     *
+     * @param node The node linked.
+     * @param nodeAddress The address of the node.
+     * @throws RemoteException if there is an issue with remote communication.
+     */
+    private void linked(IremoteP2P node, String nodeAddress) throws RemoteException {
+        // The node was added to the network
+        listener.onConnect(nodeAddress);
+        System.out.println("Added node: " + nodeAddress);
+
+        // If the node isn't this one, propagate the new node to the other node
+        if (!nodeAddress.equals(this.address)) {
+            node.addNode(this);
+        }
+
+        // Synchronize user data between the nodes
+        syncUserDataFolder(node);  // Synchronize user data when a new node joins
+    }
+
     /**
      * Retrieves the list of nodes currently part of the network.
      *
@@ -251,55 +398,84 @@ public class OremoteP2P extends UnicastRemoteObject implements IremoteP2P {
      */
     @Override
     public List<IremoteP2P> getNetwork() throws RemoteException {
-        return new ArrayList<>(network);
+        return peers.stubs();
     }
 
     /**
-     * Starts a health check thread that monitors the status of the nodes in the
-     * network. The thread periodically checks each node for responsiveness and
-     * removes unresponsive nodes from the network.
+     * Makes a round of probes of the failure detector. Errors are logged so
+     * they do not cancel the next rounds.
      */
-    private void startHealthCheck() {
-        new Thread(() -> {
-            while (true) {
-                try {
-                    List<IremoteP2P> unresponsiveNodes = new ArrayList<>(); // List of unresponsive nodes
-                    List<String> removedAddresses = new ArrayList<>(); // List of addresses of removed nodes
-
-                    for (IremoteP2P node : network) {
-                        try {
-                            // Perform a lightweight RMI call to check if the node is responsive
-                            node.getAddress(); // If this call fails, the node is unresponsive
-                        } catch (RemoteException e) {
-                            // Mark the node as unresponsive and record its address
-                            unresponsiveNodes.add(node);
-                            try {
-                                removedAddresses.add(node.getAddress()); // Attempt to retrieve address only once
-                            } catch (RemoteException ignored) {
-                                removedAddresses.add("Unknown address (RemoteException)");
-                            }
-                        }
-                    }
-
-                    // Remove unresponsive nodes from the network
-                    for (IremoteP2P unresponsiveNode : unresponsiveNodes) {
-                        network.remove(unresponsiveNode);
-                    }
+    private void probePeers() {
+        try {
+            detector.probeRound();
+        } catch (Exception ex) {
+            Logger.getLogger(OremoteP2P.class.getName()).log(Level.SEVERE, "Error probing the peers", ex);
+        }
+    }
 
-                    // Notify about removed nodes
-                    for (String un_address : removedAddresses) {
-                        listener.onDisconnect("Removed unresponsive node: " + un_address);
-                        System.out.println("Removed unresponsive node: " + un_address);
-                    }
+    /**
+     * Notifies the removal of a peer that stopped answering.
+     *
+     * @param peerAddress The address of the peer.
+     */
+    private void onPeerFailure(String peerAddress) {
+        topology.forget(peerAddress);
+        listener.onDisconnect("Removed unresponsive node: " + peerAddress);
+        System.out.println("Removed unresponsive node: " + peerAddress);
+    }
 
-                    // Sleep before the next health check cycle
-                    Thread.sleep(5000); // Perform health checks every 5 seconds
-                } catch (InterruptedException e) {
-                    // Handle any exceptions during health check process
+    /**
+     * Probes peers on behalf of a node that suspects them, so a broken link
+     * between two nodes is not taken for a failed node.
+     *
+     * @param addresses The addresses of the peers to probe.
+     * @return The addresses of the peers that answered.
+     * @throws RemoteException If a remote communication error occurs.
+     */
+    @Override
+    public List<String> probe(List<String> addresses) throws RemoteException {
+        return detector.probe(addresses);
+    }
 
+    /**
+     * Swaps a sample of the known addresses with a random peer, and links to
+     * random candidates until this node has the target degree again. Errors
+     * are logged so they do not cancel the next rounds.
+     */
+    private void maintainTopology() {
+        try {
+            PeerRegistry.Peer partner = topology.randomPeer();
+            if (partner != null) {
+                List<String> offered = topology.sample();
+                for (List<String> answer : fanOut.call("exchangePeers", List.of(peers.stub(partner)),
+                        peer -> peer.exchangePeers(offered), FANOUT_TIMEOUT_MILLIS).getValues().values()) {
+                    topology.learnAll(answer);
                 }
             }
-        }).start(); // Start the health check thread
+            for (String candidate : topology.candidates()) {
+                try {
+                    addNode(Transport.get().connect(candidate));
+                } catch (IOException ex) {
+                    // The candidate left the network
+                    topology.forget(candidate);
+                }
+            }
+        } catch (Exception ex) {
+            Logger.getLogger(OremoteP2P.class.getName()).log(Level.SEVERE, "Error maintaining the topology", ex);
+        }
+    }
+
+    /**
+     * Swaps known addresses with a peer, so both keep a random sample of the
+     * network to replace the links they lose.
+     *
+     * @param sample Addresses known by the peer, including its own.
+     * @return Addresses known by this node, including its own.
+     * @throws RemoteException If a remote communication error occurs.
+     */
+    @Override
+    public List<String> exchangePeers(List<String> sample) throws RemoteException {
+        return topology.exchange(sample);
     }
 
     // ::::::::::::::::::::::::: USER MANAGEMENT :::::::::::::::::::::::::
@@ -341,16 +517,17 @@ public class OremoteP2P extends UnicastRemoteObject implements IremoteP2P {
 
         // Initialize variables for consensus
         int trueCount = localAuthResult ? 1 : 0; // Include local result
-        int totalPeers = network.size();
+        int totalPeers = peers.size();
 
         // Iterate through peers and request authentication
-        for (IremoteP2P peer : network) {
+        for (PeerRegistry.Peer peer : peers.all()) {
             if (!peer.getAddress().equals(this.address)) { // Avoid sending back to the originating node
                 try {
-                    if (peer.authenticateLocal(username, password)) {
+                    if (peers.stub(peer).authenticateLocal(username, password)) {
                         trueCount++;
                     }
                 } catch (RemoteException e) {
+                    peer.failed();
                     System.err.println("Failed to communicate with peer " + peer.getAddress() + ": " + e.getMessage());
                 }
             }
@@ -403,7 +580,7 @@ public class OremoteP2P extends UnicastRemoteObject implements IremoteP2P {
             newUser.save(password);
 
             // After adding the user, notify all other nodes to sync UsersData from this node
-            notifyNodesToSyncUsersData();
+            notifyNodesToSyncUsersData(null);
 
             return true; // User added successfully
         } catch (Exception ex) {
@@ -483,79 +660,108 @@ public class OremoteP2P extends UnicastRemoteObject implements IremoteP2P {
     }
 
     /**
-     * Synchronizes the UsersData folder from the current node to a remote node.
-     * The entire UsersData folder is copied to the remote node.
+     * Offers the UsersData folder of this node to a remote node. The remote
+     * node compares the digest of the folder with its own and, if they differ,
+     * copies the files it lacks or has in an older version.
      *
      * @param node The remote node to sync the UsersData folder to.
      * @throws RemoteException If a remote communication error occurs.
      */
     @Override
     public void syncUserDataFolder(IremoteP2P node) throws RemoteException {
-        // Local path for the UsersData folder
-        String localFolderPath = "UsersData";
-
-        // Ensure the 'UsersData' folder exists on the remote node
+        String digest;
         try {
-            System.out.println("Syncing the entire UsersData folder from this node to the new node...");
-
-            // Use the remote node's functionality to transfer files
-            copyFolderToRemote(localFolderPath, node);  // Copy the entire UsersData folder to the new node
-
-            System.out.println("Successfully synced the UsersData folder to the new node.");
+            digest = usersData.manifest().digest();
         } catch (IOException e) {
-            // Log error if syncing the folder fails
+            // Log error if the folder cannot be read
             System.err.println("Error syncing UsersData folder: " + e.getMessage());
+            return;
         }
+        node.usersDataChanged(this, digest);
     }
 
     /**
-     * Copies the entire folder from the local node to a remote node. It handles
-     * both directories and files. If a directory is encountered, it is created
-     * on the remote node. If a file is encountered, it is sent to the remote
-     * node.
+     * Returns the manifest of the UsersData folder: the hash, size and
+     * version of every file.
      *
-     * @param sourceDirPath The local directory path to copy from.
-     * @param node The remote node to copy the data to.
-     * @throws IOException If an I/O error occurs while reading or writing
-     * files.
-     * @throws RemoteException If a remote communication error occurs.
+     * @return The manifest.
+     * @throws RemoteException If the folder cannot be read.
      */
-    private void copyFolderToRemote(String sourceDirPath, IremoteP2P node) throws IOException, RemoteException {
-        Path sourcePath = Paths.get(sourceDirPath);
-        String targetFolderPath = "UsersData";  // Remote path on the new node
+    @Override
+    public UsersDataManifest getUsersDataManifest() throws RemoteException {
+        try {
+            return usersData.manifest();
+        } catch (IOException e) {
+            throw new RemoteException("Failed to read the UsersData folder", e);
+        }
+    }
 
-        // Check if the source directory exists
-        if (!Files.exists(sourcePath)) {
-            System.err.println("Source directory does not exist: " + sourceDirPath);
-            return;
+    /**
+     * Returns the content of files of the UsersData folder.
+     *
+     * @param paths The paths of the files, relative to the folder.
+     * @return The content of the files found, by path.
+     * @throws RemoteException If a file cannot be read.
+     */
+    @Override
+    public Map<String, byte[]> getUsersDataFiles(List<String> paths) throws RemoteException {
+        try {
+            return usersData.read(paths);
+        } catch (IOException e) {
+            throw new RemoteException("Failed to read the UsersData files", e);
         }
+    }
 
-        // Retrieve the remote node's file handling capabilities via RMI
-        try (var paths = Files.walk(sourcePath)) {
-            paths.forEach(path -> {
-                try {
-                    Path relativePath = sourcePath.relativize(path);
-                    String remotePath = targetFolderPath + "/" + relativePath.toString();
-
-                    // If it's a directory, create it on the remote node
-                    if (Files.isDirectory(path)) {
-                        node.createRemoteDirectory(remotePath);  // Create the directory remotely
-                        System.out.println("Created directory on remote: " + remotePath);
-                    } else {
-                        // If it's a file, send it to the remote node
-                        byte[] fileBytes = Files.readAllBytes(path);  // Read the file's bytes
-                        node.receiveFile(remotePath, fileBytes);  // Send the file to the remote node
-                        System.out.println("Copied file to remote: " + remotePath);
-                    }
-                } catch (RemoteException e) {
-                    System.err.println("Error copying " + path + " to remote node: " + e.getMessage());
-                } catch (IOException ex) {
-                    Logger.getLogger(OremoteP2P.class.getName()).log(Level.SEVERE, null, ex);
-                }
-            });
+    /**
+     * Receives the digest of the UsersData folder of a peer whose folder
+     * changed or that just linked to this node. If the digest differs from
+     * the local one, the files that differ are copied from the peer in the
+     * background, and the other peers are told if any file changed here.
+     *
+     * @param source The peer.
+     * @param digest The digest of the manifest of the peer.
+     * @throws RemoteException If a remote communication error occurs.
+     */
+    @Override
+    public void usersDataChanged(IremoteP2P source, String digest) throws RemoteException {
+        try {
+            if (digest.equals(usersData.manifest().digest())) {
+                return; // Same files
+            }
         } catch (IOException e) {
-            System.err.println("Error walking through source directory: " + e.getMessage());
+            throw new RemoteException("Failed to read the UsersData folder", e);
+        }
+        pullExecutor.execute(() -> {
+            try {
+                if (pullUsersData(source) > 0) {
+                    notifyNodesToSyncUsersData(addressOf(source));
+                }
+            } catch (Exception ex) {
+                Logger.getLogger(OremoteP2P.class.getName()).log(Level.SEVERE, "Error copying the UsersData files", ex);
+            }
+        });
+    }
+
+    /**
+     * Copies from a peer the UsersData files this node lacks or has in an
+     * older version, a batch of files per call.
+     *
+     * @param source The peer.
+     * @return The number of files copied.
+     * @throws IOException If the local folder cannot be read or written, or
+     * the peer cannot be reached.
+     */
+    private int pullUsersData(IremoteP2P source) throws IOException {
+        UsersDataManifest remote = source.getUsersDataManifest();
+        List<String> wanted = usersData.manifest().newerIn(remote);
+        int written = 0;
+        for (List<String> batch : usersData.batches(wanted, remote)) {
+            written += usersData.apply(source.getUsersDataFiles(batch), remote);
         }
+        if (written > 0) {
+            System.out.println("Copied " + written + " UsersData files from " + addressOf(source));
+        }
+        return written;
     }
 
     /**
@@ -588,20 +794,15 @@ public class OremoteP2P extends UnicastRemoteObject implements IremoteP2P {
      * the file content.
      *
      * @param remotePath The path where the file should be stored on the remote
-     * node.
+     * node, relative to its UsersData folder; files outside it are refused.
      * @param fileData The content of the file to store on the remote node.
      * @throws RemoteException If a remote communication error occurs.
      */
     @Override
     public void receiveFile(String remotePath, byte[] fileData) throws RemoteException {
         try {
-            Path targetFile = Paths.get(remotePath);
-
-            // Ensure parent directories exist before writing the file
-            Files.createDirectories(targetFile.getParent());
-
-            // Write the file content to the target location
-            Files.write(targetFile, fileData);
+            // Written to a partial file and moved in place, creating the parent directories
+            fileReceiver.receive(remotePath, fileData);
             System.out.println("Received and stored file on remote node: " + remotePath);
         } catch (IOException e) {
             // Log the error and throw a RemoteException if file receiving fails
@@ -611,34 +812,108 @@ public class OremoteP2P extends UnicastRemoteObject implements IremoteP2P {
     }
 
     /**
-     * Notifies all nodes in the network to synchronize their UsersData folder
-     * from this node. This method is called after a new user is added or when a
-     * node joins the network.
+     * Opens a chunked transfer of a file, or finds the transfer already open
+     * with the same id so an interrupted sender can resume it.
      *
+     * @param transferId The id of the transfer, chosen by the sender.
+     * @param remotePath The path where the file will be stored, relative to
+     * the UsersData folder; files outside it are refused.
+     * @param size The size of the file, in bytes.
+     * @return The number of bytes from the start of the file already
+     * received.
+     * @throws RemoteException If the transfer cannot be opened.
+     */
+    @Override
+    public long openTransfer(String transferId, String remotePath, long size) throws RemoteException {
+        try {
+            return fileReceiver.open(transferId, remotePath, size);
+        } catch (IOException e) {
+            throw new RemoteException("Failed to open the transfer of " + remotePath, e);
+        }
+    }
+
+    /**
+     * Writes a chunk of a file of an open transfer.
+     *
+     * @param transferId The id of the transfer.
+     * @param offset The offset of the chunk in the file.
+     * @param data The bytes of the chunk.
+     * @throws RemoteException If the transfer is not open or the chunk cannot
+     * be written.
+     */
+    @Override
+    public void writeChunk(String transferId, long offset, byte[] data) throws RemoteException {
+        try {
+            fileReceiver.write(transferId, offset, data);
+        } catch (IOException e) {
+            throw new RemoteException("Failed to write a chunk of transfer " + transferId, e);
+        }
+    }
+
+    /**
+     * Completes a transfer once every chunk was written, storing the file if
+     * its checksum matches.
+     *
+     * @param transferId The id of the transfer.
+     * @param checksum The SHA-256 hash of the file, in hexadecimal.
+     * @throws RemoteException If chunks are missing or the checksum does not
+     * match.
+     */
+    @Override
+    public void commitTransfer(String transferId, String checksum) throws RemoteException {
+        try {
+            Path file = fileReceiver.commit(transferId, checksum);
+            System.out.println("Received and stored file on remote node: " + file);
+        } catch (IOException e) {
+            System.err.println("Error receiving file on remote node: " + e.getMessage());
+            throw new RemoteException("Failed to commit transfer " + transferId, e);
+        }
+    }
+
+    /**
+     * Notifies the peers that the UsersData folder of this node changed, with
+     * its digest; each peer copies the files that differ and notifies its own
+     * peers in turn, so the change reaches the whole network. This method is
+     * called after a new user is added or after files were copied from a peer.
+     *
+     * @param skipped The address of the peer the change came from, or null.
      * @throws RemoteException If a remote communication error occurs.
      */
-    private void notifyNodesToSyncUsersData() throws RemoteException {
-        for (IremoteP2P peer : network) {
-            // Only notify peers that are not the current node itself
-            if (!peer.getAddress().equals(this.address)) {
-                peer.syncUserDataFromHost(this);  // Notify other nodes to sync from this node (the host)
-            }
+    private void notifyNodesToSyncUsersData(String skipped) throws RemoteException {
+        String digest;
+        try {
+            digest = usersData.manifest().digest();
+        } catch (IOException e) {
+            throw new RemoteException("Failed to read the UsersData folder", e);
         }
+        // Only notify peers that are not the current node itself nor the source of the change
+        fanOut.call("usersDataChanged", peers.others(peerAddress -> peerAddress.equals(address)
+                || peerAddress.equals(skipped)), peer -> {
+            peer.usersDataChanged(this, digest);
+            return null;
+        }, FANOUT_TIMEOUT_MILLIS);
     }
 
     /**
-     * Synchronizes the UsersData folder from the host node (this node). This
-     * method will call the syncUserDataFolder method on the host node to copy
-     * the UsersData folder.
+     * Copies from a host node the UsersData files this node lacks or has in
+     * an older version, and notifies the other peers if any file changed.
      *
      * @param hostNode The host node that has the up-to-date UsersData folder.
      * @throws RemoteException If a remote communication error occurs.
      */
     @Override
     public void syncUserDataFromHost(IremoteP2P hostNode) throws RemoteException {
-        // Sync the UsersData folder from the host node (Node 1)
-        System.out.println("Syncing UsersData from host node: " + hostNode.getAddress());
-        hostNode.syncUserDataFolder(this);  // Call the sync function on the host node to get the data
+        String hostAddress = addressOf(hostNode);
+        System.out.println("Syncing UsersData from host node: " + hostAddress);
+        try {
+            if (pullUsersData(hostNode) > 0) {
+                notifyNodesToSyncUsersData(hostAddress);
+            }
+        } catch (RemoteException e) {
+            throw e;
+        } catch (IOException e) {
+            throw new RemoteException("Failed to sync the UsersData folder", e);
+        }
     }
 
     // ::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
@@ -652,7 +927,7 @@ public class OremoteP2P extends UnicastRemoteObject implements IremoteP2P {
      */
     @Override
     public int getTransactionsSize() throws RemoteException {
-        return transactionBuffer.size();
+        return mempool.size();
     }
 
     /**
@@ -669,128 +944,327 @@ public class OremoteP2P extends UnicastRemoteObject implements IremoteP2P {
      */
     @Override
     public boolean addTransaction(PublicKey targetUserPubKey, Entry entry, byte[] signature) throws RemoteException {
+        return addTransaction(targetUserPubKey, entry, signature, Gossip.originate(address));
+    }
+
+    /**
+     * Adds a transaction relayed by another node. A transaction already seen
+     * is dropped before its signature is verified; a new one is verified,
+     * added to the local pool and relayed to the peers it has not come from.
+     *
+     * @param targetUserPubKey The public key of the target user.
+     * @param entry The transaction entry.
+     * @param signature The digital signature of the transaction.
+     * @param gossip The metadata of the relayed message.
+     * @return True if the transaction was added, false if it was already
+     * known.
+     * @throws RemoteException If a remote communication error occurs.
+     */
+    @Override
+    public boolean addTransaction(PublicKey targetUserPubKey, Entry entry, byte[] signature, Gossip gossip) throws RemoteException {
+        detector.heard(gossip.getSender());
+        // Drop the transaction if it was already seen, before verifying it
+        String id = "tx:" + entry.getId();
+        if (!seen.markSeen(id)) {
+            return false;
+        }
+
         try {
             // Verify the signature
             if (!SecurityUtils.verifySign(entry.toString().getBytes(), signature, entry.getEntityPublicKey())) {
                 throw new RemoteException("Invalid signature");
             }
         } catch (Exception ex) {
+            // A badly signed copy must not hide a valid one
+            seen.forget(id);
             Logger.getLogger(OremoteP2P.class.getName()).log(Level.SEVERE, null, ex);
             throw new RemoteException("Error verifying signature", ex);
         }
 
-        synchronized (transactionBuffer) {
-            // Check for duplicate transactions
-            for (Entry trans : transactionBuffer) {
-                if (entry.getDescription().equals(trans.getDescription())) {
-                    listener.onTransaction("Duplicate transaction: " + entry.getDescription());
-                    return false; // Do not propagate duplicate transaction
-                }
-            }
+        // Add the transaction to the local node, unless it is a duplicate
+        switch (mempool.add(entry, signature)) {
+            case DUPLICATE:
+                listener.onTransaction("Duplicate transaction: " + entry.getDescription());
+                return false; // Do not propagate duplicate transaction
+            case FULL:
+                seen.forget(id);
+                throw new RemoteException("Transaction pool is full, try again later");
+            default:
+                break;
+        }
+
+        // Announce the transaction to the peers it has not come from
+        announce(false, entry.getId(), gossip);
+
+        System.out.println("Transaction successfully added: " + entry.getDescription());
+
+        return true;
+    }
+
+    /**
+     * Adds a batch of signed transactions to the local transaction buffer and
+     * propagates the accepted ones to the other nodes. Entries whose
+     * description is repeated in the batch or already pending are dropped
+     * before verification; the signatures of the others are verified in
+     * parallel on a bounded pool. The accepted entries are sent to each peer
+     * in a single call.
+     *
+     * @param entries The signed entries to add.
+     * @return The number of entries accepted.
+     * @throws RemoteException If a remote communication error occurs.
+     */
+    @Override
+    public int addTransactions(List<SignedEntry> entries) throws RemoteException {
+        return addTransactions(entries, Gossip.originate(address));
+    }
 
-            // Add the transaction to the local node
-            transactionBuffer.add(entry);
+    /**
+     * Adds a batch of signed transactions relayed by another node, as in
+     * {@link #addTransactions(List)}. Transactions already seen are dropped
+     * before their signatures are verified, and the accepted ones are relayed
+     * to the peers the batch has not come from.
+     *
+     * @param entries The signed entries to add.
+     * @param gossip The metadata of the relayed message.
+     * @return The number of entries accepted.
+     * @throws RemoteException If a remote communication error occurs.
+     */
+    @Override
+    public int addTransactions(List<SignedEntry> entries, Gossip gossip) throws RemoteException {
+        detector.heard(gossip.getSender());
+        // Drop the duplicates before spending time verifying them
+        Set<String> descriptions = new HashSet<>();
+        List<SignedEntry> candidates = new ArrayList<>();
+        for (SignedEntry signed : entries) {
+            String description = signed.getEntry().getDescription();
+            if (!mempool.containsDescription(description) && descriptions.add(description)
+                    && seen.markSeen("tx:" + signed.getEntry().getId())) {
+                candidates.add(signed);
+            }
         }
 
-        // Propagate the transaction to the network nodes
-        for (IremoteP2P iremoteP2P : network) {
-            try {
-                if (!iremoteP2P.getAddress().equals(this.address)) { // Avoid sending back to the originating node
-                    iremoteP2P.addTransaction(targetUserPubKey, entry, signature);
+        // Verify the signatures in parallel
+        List<SignedEntry> verified = verifySignatures(candidates);
+        if (verified.size() < candidates.size()) {
+            // Badly signed copies must not hide valid ones
+            Set<SignedEntry> valid = new HashSet<>(verified);
+            for (SignedEntry signed : candidates) {
+                if (!valid.contains(signed)) {
+                    seen.forget("tx:" + signed.getEntry().getId());
                 }
-            } catch (RemoteException ex) {
-                Logger.getLogger(OremoteP2P.class.getName()).log(Level.SEVERE, "Error propagating transaction", ex);
             }
         }
 
-        System.out.println("Transaction successfully added: " + entry.getDescription());
+        // Add the verified entries, dropping those added by other calls meanwhile
+        List<SignedEntry> accepted = new ArrayList<>();
+        int refused = 0;
+        for (SignedEntry signed : verified) {
+            Mempool.AddResult result = mempool.add(signed.getEntry(), signed.getSignature());
+            if (result == Mempool.AddResult.ADDED) {
+                accepted.add(signed);
+            } else if (result == Mempool.AddResult.FULL) {
+                seen.forget("tx:" + signed.getEntry().getId());
+                refused++;
+            }
+        }
 
-        return true;
+        listener.onTransaction("Batch of " + entries.size() + " transactions: " + accepted.size() + " accepted, "
+                + (entries.size() - candidates.size()) + " duplicated, " + (candidates.size() - verified.size()) + " invalid, "
+                + refused + " refused (pool full)");
+        if (accepted.isEmpty()) {
+            return 0; // Nothing new to propagate
+        }
+
+        // Announce the accepted transactions to the peers they have not come from
+        for (SignedEntry signed : accepted) {
+            announce(false, signed.getEntry().getId(), gossip);
+        }
+
+        System.out.println(accepted.size() + " transactions successfully added");
+        return accepted.size();
+    }
+
+    /**
+     * Verifies the signatures of a list of signed entries on the verification
+     * pool. The list is split into one contiguous part per worker, so the
+     * result keeps the order of the list.
+     *
+     * @param entries The signed entries to verify.
+     * @return The entries with a valid signature.
+     * @throws RemoteException If the verification is interrupted.
+     */
+    private List<SignedEntry> verifySignatures(List<SignedEntry> entries) throws RemoteException {
+        List<SignedEntry> valid = new ArrayList<>();
+        if (entries.isEmpty()) {
+            return valid;
+        }
+
+        // One task for each part of the list
+        int parts = Math.min(VERIFY_THREADS, entries.size());
+        int partSize = (entries.size() + parts - 1) / parts;
+        List<Callable<List<SignedEntry>>> tasks = new ArrayList<>();
+        for (int from = 0; from < entries.size(); from += partSize) {
+            List<SignedEntry> part = entries.subList(from, Math.min(entries.size(), from + partSize));
+            tasks.add(() -> {
+                List<SignedEntry> ok = new ArrayList<>();
+                for (SignedEntry signed : part) {
+                    Entry entry = signed.getEntry();
+                    try {
+                        if (SecurityUtils.verifySign(entry.toString().getBytes(), signed.getSignature(), entry.getEntityPublicKey())) {
+                            ok.add(signed);
+                        }
+                    } catch (Exception ex) {
+                        // A malformed signature or key makes only this entry invalid
+                        Logger.getLogger(OremoteP2P.class.getName()).log(Level.WARNING, "Invalid signature: " + entry.getDescription(), ex);
+                    }
+                }
+                return ok;
+            });
+        }
+
+        try {
+            for (Future<List<SignedEntry>> result : verifyExecutor.invokeAll(tasks)) {
+                valid.addAll(result.get());
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new RemoteException("Signature verification interrupted", ex);
+        } catch (ExecutionException ex) {
+            throw new RemoteException("Error verifying signatures", ex.getCause());
+        }
+        return valid;
     }
 
     /**
-     * Returns a copy of the transaction buffer, ensuring thread-safety with
-     * CopyOnWriteArraySet.
+     * Returns the pending transactions in the order they arrived.
      *
-     * @return A thread-safe set of transactions.
+     * @return A new list with the pending transactions.
      * @throws RemoteException If a remote communication error occurs.
      */
     @Override
-    public CopyOnWriteArraySet<Entry> getTransactions() throws RemoteException {
-        return new CopyOnWriteArraySet<Entry>(transactionBuffer);
+    public List<Entry> getTransactions() throws RemoteException {
+        return mempool.entries();
     }
 
     /**
-     * Synchronizes the transactions with the provided node. If the remote node
-     * has new transactions, it synchronizes with the current node and
-     * propagates the changes to the rest of the network.
+     * Reconciles the pending transactions with the provided node. Both pools
+     * are summarized in invertible Bloom lookup tables of the same size; the
+     * difference of the tables gives the transactions missing on each side,
+     * which are the only ones transferred. The tables start small and double
+     * until the difference can be decoded; if it still cannot be decoded at
+     * the maximum size, the signed entries of the node's pool this node lacks
+     * are requested. Every entry received is verified as a relayed one.
      *
      * @param node The remote node to synchronize with.
      * @throws RemoteException If a remote communication error occurs.
      */
     @Override
     public void synchronizeTransactions(IremoteP2P node) throws RemoteException {
-        // Store the size before synchronization
-        int oldsize = transactionBuffer.size();
-        listener.onMessage("Synchronizing transactions with node", node.getAddress());
-
-        // Add all the transactions from the node (duplicates will be removed by the Set)
-        this.transactionBuffer.addAll(node.getTransactions());
-        int newSize = transactionBuffer.size();
-
-        // If the size has increased, synchronize further
-        if (oldsize < newSize) {
-            listener.onMessage("sinchronizeTransactions", "different size");
-            // Ask the node to synchronize with the current node's transactions
-            node.synchronizeTransactions(this);
-            listener.onTransaction(address);
-            listener.onMessage("sinchronizeTransactions", "");
-
-            // Request synchronization from other nodes in the network
-            for (IremoteP2P iremoteP2P : network) {
-                // If the size on the remote node is smaller, sync with the current node
-                if (iremoteP2P.getTransactionsSize() < newSize) {
-                    listener.onMessage("sinchronizeTransactions", "");
-                    iremoteP2P.synchronizeTransactions(this);
+        String nodeAddress = addressOf(node);
+        listener.onMessage("Synchronizing transactions with node", nodeAddress);
+
+        // Find the difference with tables large enough to decode it
+        Iblt.Difference difference = null;
+        for (int cells = RECONCILE_INITIAL_CELLS; difference == null && cells <= RECONCILE_MAX_CELLS; cells *= 2) {
+            Iblt remote = node.getMempoolSketch(cells);
+            difference = mempool.sketch(remote.getCells()).subtract(remote).decode();
+        }
+        Gossip gossip = Gossip.originate(nodeAddress);
+        if (difference == null) {
+            // The pools differ too much: request the signed entries this node lacks, which are verified as relayed ones
+            List<String> ids = new ArrayList<>();
+            for (Entry entry : node.getTransactions()) {
+                if (!mempool.containsId(entry.getId())) {
+                    ids.add(entry.getId());
                 }
             }
+            List<SignedEntry> missing = ids.isEmpty() ? new ArrayList<>() : node.getSignedTransactions(ids);
+            int added = missing.isEmpty() ? 0 : addTransactions(missing, gossip);
+            listener.onMessage("synchronizeTransactions", added + " transactions added from the whole pool");
+            return;
+        }
+
+        // Receive the transactions only the node has
+        int added = 0;
+        if (!difference.getRemote().isEmpty()) {
+            List<SignedEntry> missing = node.getSignedTransactionsByShortId(difference.getRemote());
+            if (!missing.isEmpty()) {
+                added = addTransactions(missing, gossip);
+            }
+        }
+
+        // Send the transactions only this node has
+        List<SignedEntry> extra = getSignedTransactionsByShortId(difference.getLocal());
+        if (!extra.isEmpty()) {
+            node.addTransactions(extra, Gossip.originate(address));
         }
+        listener.onMessage("synchronizeTransactions", difference.size() + " different transactions, "
+                + added + " received, " + extra.size() + " sent");
     }
 
     /**
-     * Removes the specified transactions from the local transaction buffer and
-     * propagates the removal to other nodes.
+     * Builds an invertible Bloom lookup table with the short ids of the
+     * pending transactions.
      *
-     * @param myTransactions The transactions to remove from the local buffer.
+     * @param cells The number of cells of the table.
+     * @return The table.
      * @throws RemoteException If a remote communication error occurs.
      */
     @Override
-    public void removeTransactions(CopyOnWriteArraySet<Entry> myTransactions) throws RemoteException {
-        // Log the state of the transaction buffer before removal
-        System.out.println("Before removal: " + transactionBuffer);
-        System.out.println("Transactions to remove: " + myTransactions);
+    public Iblt getMempoolSketch(int cells) throws RemoteException {
+        if (cells > RECONCILE_MAX_CELLS) {
+            throw new RemoteException("Sketch too large: " + cells + " cells");
+        }
+        return mempool.sketch(cells);
+    }
 
-        // Remove the transactions from the local buffer
-        boolean removed = transactionBuffer.removeAll(myTransactions);
+    /**
+     * Returns the pending transactions with the given short ids, with their
+     * signatures.
+     *
+     * @param shortIds The short ids of the transaction entries.
+     * @return The signed entries pending here, in the order of the short ids.
+     * @throws RemoteException If a remote communication error occurs.
+     */
+    @Override
+    public List<SignedEntry> getSignedTransactionsByShortId(List<Long> shortIds) throws RemoteException {
+        List<SignedEntry> entries = new ArrayList<>();
+        for (long shortId : shortIds) {
+            SignedEntry signed = mempool.getSignedByShortId(shortId);
+            if (signed != null) {
+                entries.add(signed);
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * Removes the specified transactions from the local transaction pool and
+     * propagates the removal to other nodes. Only the given transactions are
+     * looked up, and the removal is propagated only if some of them were
+     * still pending here, which ends the propagation once every node has
+     * removed them.
+     *
+     * @param myTransactions The transactions to remove from the local pool.
+     * @throws RemoteException If a remote communication error occurs.
+     */
+    @Override
+    public void removeTransactions(Collection<Entry> myTransactions) throws RemoteException {
+        // Remove the transactions from the local pool
+        int removed = mempool.removeAll(myTransactions);
         listener.onTransaction("Attempting to remove " + myTransactions.size() + " transactions");
 
-        if (removed) {
-            System.out.println("Transactions removed from buffer: " + myTransactions);
-        } else {
-            System.out.println("No transactions were removed from buffer.");
+        if (removed == 0) {
+            System.out.println("No transactions were removed from the pool.");
+            return;
         }
+        System.out.println(removed + " transactions removed from the pool, " + mempool.size() + " pending");
 
         // Propagate the removal to other nodes in the network
-        for (IremoteP2P iremoteP2P : network) {
-            // If the remote node shares common transactions, remove them
-            if (iremoteP2P.getTransactions().retainAll(transactionBuffer)) {
-                System.out.println("Removing transactions from remote node...");
-                iremoteP2P.removeTransactions(myTransactions);
-            }
-        }
-
-        // Log the state of the transaction buffer after removal
-        System.out.println("After removal: " + transactionBuffer);
+        fanOut.call("removeTransactions", peers.stubs(), peer -> {
+            peer.removeTransactions(myTransactions);
+            return null;
+        }, quorum(), FANOUT_TIMEOUT_MILLIS);
     }
 
     /**
@@ -853,13 +1327,14 @@ public class OremoteP2P extends UnicastRemoteObject implements IremoteP2P {
             listener.onStartMining(msg, zeros);
 
             // Propagate the mining request to other nodes in the network
-            for (IremoteP2P iremoteP2P : network) {
+            fanOut.call("startMining", peers.stubs(), peer -> {
                 // If the remote node is not already mining, start mining there as well
-                if (!iremoteP2P.isMining()) {
-                    listener.onStartMining(iremoteP2P.getAddress() + " mining", zeros);
-                    iremoteP2P.startMining(msg, zeros);
+                if (!peer.isMining()) {
+                    listener.onStartMining(peers.addressOf(peer) + " mining", zeros);
+                    peer.startMining(msg, zeros);
                 }
-            }
+                return null;
+            }, quorum(), FANOUT_TIMEOUT_MILLIS);
         } catch (Exception ex) {
             // Log and propagate any exceptions encountered during mining
             listener.onException(ex, "startMining");
@@ -879,12 +1354,13 @@ public class OremoteP2P extends UnicastRemoteObject implements IremoteP2P {
         myMiner.stopMining(nonce);
 
         // Propagate the stop mining request to other nodes
-        for (IremoteP2P iremoteP2P : network) {
+        fanOut.call("stopMining", peers.stubs(), peer -> {
             // If the remote node is mining, stop the mining process there
-            if (iremoteP2P.isMining()) {
-                iremoteP2P.stopMining(nonce);
+            if (peer.isMining()) {
+                peer.stopMining(nonce);
             }
-        }
+            return null;
+        }, quorum(), FANOUT_TIMEOUT_MILLIS);
     }
 
     /**
@@ -931,8 +1407,10 @@ public class OremoteP2P extends UnicastRemoteObject implements IremoteP2P {
     /**
      * Adds a block to the local blockchain after validating it and checking if
      * it fits with the current blockchain. If the block is valid and fits, it
-     * is added to the blockchain, saved to a file, and propagated to other
-     * peers.
+     * is added to the blockchain, appended to the block store, and propagated
+     * to other peers. A block on a branch is kept, and the chain switches to
+     * the branch when it has more work; a block whose parent is unknown waits
+     * in the orphan pool while the parent is requested.
      *
      * @param b The block to be added.
      * @throws RemoteException If a remote communication error occurs during the
@@ -940,27 +1418,64 @@ public class OremoteP2P extends UnicastRemoteObject implements IremoteP2P {
      */
     @Override
     public void addBlock(Block b) throws RemoteException {
+        addBlock(b, Gossip.originate(address));
+    }
+
+    /**
+     * Adds a block relayed by another node. A block already seen is dropped
+     * before it is validated; a new one is handled as in
+     * {@link #addBlock(Block)} and relayed to the peers it has not come from.
+     * Only blocks with a SHA-256 Merkle root are accepted from the network;
+     * legacy roots are only trusted for the blocks already in the store.
+     *
+     * @param b The block to be added.
+     * @param gossip The metadata of the relayed message.
+     * @throws RemoteException If a remote communication error occurs during the
+     * process.
+     */
+    @Override
+    public void addBlock(Block b, Gossip gossip) throws RemoteException {
+        detector.heard(gossip.getSender());
+        // Drop the block if it was already seen, before validating it
+        String id = "block:" + b.getCurrentHash();
+        if (!seen.markSeen(id)) {
+            return;
+        }
         try {
-            // Validate the block's integrity and structure
-            if (!b.isValid()) {
+            // Validate the block's integrity, structure, Merkle tree version and proof of work
+            if (!b.isValid() || !hasCurrentMerkleTree(b.getMerkleRoot())
+                    || !hasDifficulty(b.getCurrentHash())) {
+                // A forged copy must not hide the valid block
+                seen.forget(id);
                 throw new RemoteException("Invalid block");
             }
 
-            // Check if the block's previous hash matches the last block in the current blockchain
-            if (myBlockchain.getLastBlockHash().equals(b.getPreviousHash())) {
-                // Add the valid block to the local blockchain
-                myBlockchain.add(b);
+            boolean updated = false;
+            synchronized (myBlockchain) {
+                if (myBlockchain.contains(b.getCurrentHash()) || forks.contains(b.getCurrentHash())) {
+                    return; // Already added, through another path
+                }
+                if (!forks.knowsParent(b.getPreviousHash(), myBlockchain)) {
+                    // Keep the block until its parent arrives, and ask for the parent
+                    if (orphans.add(b, gossip)) {
+                        System.out.println("Block " + b.getCurrentHash() + " is an orphan, requesting its parent");
+                        pullExecutor.execute(() -> requestParent(b.getCurrentHash(), gossip));
+                    }
+                    return;
+                }
 
-                // Save the updated blockchain to the file
-                myBlockchain.save(BLOCHAIN_FILENAME);
+                // Connect the block, then the orphans waiting for it
+                Deque<OrphanPool.Orphan> ready = new ArrayDeque<>(orphans.take(b.getCurrentHash()));
+                updated = connect(b, gossip);
+                while (!ready.isEmpty()) {
+                    OrphanPool.Orphan orphan = ready.poll();
+                    ready.addAll(orphans.take(orphan.getBlock().getCurrentHash()));
+                    updated |= connect(orphan.getBlock(), orphan.getGossip());
+                }
+                forks.prune(myBlockchain.getSize());
+            }
+            if (updated) {
                 listener.onBlockchainUpdate(myBlockchain);
-
-                // Propagate the block to the network to update other peers' blockchains
-                propagateBlock(b);
-            } else {
-                // If the block doesn't fit, synchronize the blockchain with the network
-                System.out.println("Block does not fit, synchronizing...");
-                synchronizeBlockchain();
             }
 
         } catch (Exception ex) {
@@ -970,26 +1485,465 @@ public class OremoteP2P extends UnicastRemoteObject implements IremoteP2P {
     }
 
     /**
-     * Propagates the block to all peers in the network to ensure consistency
-     * across nodes. Each peer receives and processes the block.
+     * Connects a valid block whose parent is known. A block on the top of the
+     * chain is appended to it; any other block is kept on its branch, and the
+     * chain switches to the branch if it has more work. The block is
+     * propagated in both cases, so the peers learn about the branch too. The
+     * caller holds the lock of the blockchain.
+     *
+     * @param b The block.
+     * @param gossip The metadata of the message that brought the block.
+     * @return true if the chain changed, otherwise false.
+     * @throws Exception If the block cannot be added to the chain.
+     */
+    private boolean connect(Block b, Gossip gossip) throws Exception {
+        if (myBlockchain.getLastBlockHash().equals(b.getPreviousHash())) {
+            // Add the valid block to the local blockchain (appended to the block store)
+            myBlockchain.add(b);
+            propagateBlock(b, gossip);
+            return true;
+        }
+        if (!forks.add(b, myBlockchain)) {
+            // Too deep for a short reorganization: the peers decide which chain is longer
+            System.out.println("Block " + b.getCurrentHash() + " forks too deep, synchronizing...");
+            pullExecutor.execute(this::synchronizeInBackground);
+            return false;
+        }
+        propagateBlock(b, gossip);
+        List<Block> branch = forks.heavierBranch(b.getCurrentHash(), myBlockchain);
+        if (branch == null) {
+            return false;
+        }
+        reorganize(branch);
+        return true;
+    }
+
+    /**
+     * Switches the chain to a heavier branch, replacing only the blocks after
+     * the fork point. The replaced blocks are kept as a branch, their
+     * transactions that the branch does not include go back to the pool, and
+     * the transactions of the branch leave it. The caller holds the lock of
+     * the blockchain.
+     *
+     * @param branch The blocks of the branch after the fork point.
+     * @throws Exception If the chain or the block store cannot be updated.
+     */
+    private void reorganize(List<Block> branch) throws Exception {
+        int start = myBlockchain.indexOf(branch.get(0).getPreviousHash()) + 1;
+        List<Block> removed = myBlockchain.getBlocks(start, myBlockchain.getSize() - start);
+        for (Block block : removed) {
+            block.transactions(); // Read the bodies before the store drops them
+        }
+        myBlockchain.replaceFrom(start, branch);
+        forks.reorganized(start, removed, branch);
+
+        // The pool follows the chain: transactions of the branch leave, orphaned ones come back
+        Set<Entry> confirmed = new HashSet<>();
+        for (Block block : branch) {
+            confirmed.addAll(block.transactions());
+        }
+        mempool.removeAll(confirmed);
+        int restored = 0;
+        for (Block block : removed) {
+            for (Entry entry : block.transactions()) {
+                if (!confirmed.contains(entry) && mempool.add(entry) == Mempool.AddResult.ADDED) {
+                    restored++;
+                }
+            }
+        }
+        System.out.println("Reorganized at height " + start + ": " + removed.size() + " blocks replaced by "
+                + branch.size() + ", " + restored + " transactions back in the pool");
+    }
+
+    /**
+     * Requests the missing ancestor of an orphan block from the peer that sent
+     * the block. The ancestor is added as if the peer had sent it, so its own
+     * missing parent is requested in turn; if the line of orphans grows deeper
+     * than a short reorganization, or the peer is not known, the blockchain is
+     * synchronized instead.
+     *
+     * @param hash The hash of the orphan block.
+     * @param gossip The metadata of the message that brought the orphan,
+     * continued by its ancestor.
+     */
+    private void requestParent(String hash, Gossip gossip) {
+        String missing = orphans.missingAncestor(hash);
+        PeerRegistry.Peer sender = peers.get(gossip.getSender());
+        if (sender == null || orphans.depth(hash) > FORK_MAX_DEPTH) {
+            synchronizeInBackground();
+            return;
+        }
+        if (!requested.add(missing)) {
+            return; // Already being requested
+        }
+        try {
+            for (Block parent : peers.stub(sender).getBlocksByHash(List.of(missing))) {
+                seen.forget("block:" + parent.getCurrentHash()); // It may have been dropped from the pool
+                addBlock(parent, gossip);
+            }
+        } catch (Exception ex) {
+            Logger.getLogger(OremoteP2P.class.getName()).log(Level.SEVERE, "Error requesting the parent of a block", ex);
+        } finally {
+            requested.remove(missing);
+        }
+    }
+
+    /**
+     * Synchronizes the blockchain, logging the errors, for the calls made by
+     * background tasks.
+     */
+    private void synchronizeInBackground() {
+        try {
+            synchronizeBlockchain();
+        } catch (Exception ex) {
+            Logger.getLogger(OremoteP2P.class.getName()).log(Level.SEVERE, "Error synchronizing blockchain", ex);
+        }
+    }
+
+    /**
+     * Propagates the block to the peers it has not come from to ensure
+     * consistency across nodes. The block's hash is announced in the next
+     * inventory, and the peers that lack the block request it.
      *
      * @param b The block to be propagated.
+     * @param gossip The metadata of the message that brought the block.
      * @throws RemoteException If a remote communication error occurs while
      * propagating the block.
      */
-    private void propagateBlock(Block b) throws RemoteException {
-        // Propagate the block to all peers in the network
-        for (IremoteP2P peer : network) {
-            try {
-                // Ensure that the block is only added once per peer
-                peer.addBlock(b);
-            } catch (RemoteException e) {
-                // Log any errors while propagating the block to a peer
-                System.err.println("Error propagating block to " + peer.getAddress());
+    private void propagateBlock(Block b, Gossip gossip) throws RemoteException {
+        announce(true, b.getCurrentHash(), gossip);
+    }
+
+    /**
+     * Queues a transaction or block to be announced to the peers in the next
+     * inventory.
+     *
+     * @param block true for a block, false for a transaction.
+     * @param id The hash of the block or the id of the transaction entry.
+     * @param gossip The metadata of the message that brought the object.
+     */
+    private void announce(boolean block, String id, Gossip gossip) {
+        if (gossip.getHops() < GOSSIP_MAX_HOPS) {
+            announcements.add(new Announcement(block, id, gossip));
+        }
+    }
+
+    /**
+     * Sends the announcements gathered during the last window, one inventory
+     * per peer, leaving out of each inventory the objects that came from that
+     * peer.
+     */
+    private void flushAnnouncements() {
+        List<Announcement> batch = new ArrayList<>();
+        for (Announcement a; (a = announcements.poll()) != null;) {
+            batch.add(a);
+        }
+        if (batch.isEmpty()) {
+            return;
+        }
+        try {
+            // Build the inventory of each peer first, so peers with nothing new are not called
+            Map<IremoteP2P, Inventory> inventories = new HashMap<>();
+            for (IremoteP2P peer : peers.others(address::equals)) {
+                String peerAddress = peers.addressOf(peer);
+                Inventory inventory = new Inventory(address);
+                for (Announcement a : batch) {
+                    if (!a.gossip.cameFrom(peerAddress)) {
+                        if (a.block) {
+                            inventory.addBlock(a.id, a.gossip);
+                        } else {
+                            inventory.addTransaction(a.id, a.gossip);
+                        }
+                    }
+                }
+                if (!inventory.isEmpty()) {
+                    inventories.put(peer, inventory);
+                }
             }
+            fanOut.call("announceInventory", inventories.keySet(), peer -> {
+                peer.announceInventory(this, inventories.get(peer));
+                return null;
+            }, quorum(), FANOUT_TIMEOUT_MILLIS);
+        } catch (Exception ex) {
+            // An error must not cancel the next windows
+            Logger.getLogger(OremoteP2P.class.getName()).log(Level.SEVERE, "Error sending announcements", ex);
         }
     }
 
+    /**
+     * Receives an inventory from a peer and requests from it, in the
+     * background, the transactions and blocks this node has not seen and is
+     * not already requesting. The requested objects are then added as if the
+     * peer had sent them.
+     *
+     * @param sender The peer that sends the inventory.
+     * @param inventory The announced transactions and blocks.
+     * @throws RemoteException If a remote communication error occurs.
+     */
+    @Override
+    public void announceInventory(IremoteP2P sender, Inventory inventory) throws RemoteException {
+        detector.heard(inventory.getSender());
+        List<String> transactions = new ArrayList<>();
+        for (String id : inventory.getTransactions()) {
+            if (!seen.contains("tx:" + id) && !mempool.containsId(id) && requested.add(id)) {
+                transactions.add(id);
+            }
+        }
+        List<String> blocks = new ArrayList<>();
+        for (String hash : inventory.getBlocks()) {
+            if (!seen.contains("block:" + hash) && !myBlockchain.contains(hash) && !forks.contains(hash)
+                    && !orphans.contains(hash) && requested.add(hash)) {
+                blocks.add(hash);
+            }
+        }
+        if (!transactions.isEmpty() || !blocks.isEmpty()) {
+            pullExecutor.execute(() -> pull(sender, inventory, transactions, blocks));
+        }
+    }
+
+    /**
+     * Requests the missing objects of an inventory from the peer that
+     * announced them and adds them. Each object continues the message that
+     * brought it to the peer, so its origin and hops are kept.
+     *
+     * @param sender The peer that announced the objects.
+     * @param inventory The inventory announcing the objects.
+     * @param transactions The ids of the missing transactions.
+     * @param blocks The hashes of the missing blocks.
+     */
+    private void pull(IremoteP2P sender, Inventory inventory, List<String> transactions, List<String> blocks) {
+        try {
+            if (!transactions.isEmpty()) {
+                // Transactions of the same message are added together
+                Map<String, List<SignedEntry>> byMessage = new LinkedHashMap<>();
+                Map<String, Gossip> messages = new HashMap<>();
+                for (SignedEntry signed : sender.getSignedTransactions(transactions)) {
+                    Gossip gossip = inventory.relayed(signed.getEntry().getId());
+                    messages.putIfAbsent(gossip.getId(), gossip);
+                    byMessage.computeIfAbsent(gossip.getId(), id -> new ArrayList<>()).add(signed);
+                }
+                for (Map.Entry<String, List<SignedEntry>> message : byMessage.entrySet()) {
+                    addTransactions(message.getValue(), messages.get(message.getKey()));
+                }
+            }
+            if (!blocks.isEmpty()) {
+                for (CompactBlock compact : sender.getCompactBlocks(blocks)) {
+                    Block b = rebuild(sender, compact);
+                    if (b != null) {
+                        addBlock(b, inventory.relayed(b.getCurrentHash()));
+                    }
+                }
+            }
+        } catch (Exception ex) {
+            Logger.getLogger(OremoteP2P.class.getName()).log(Level.SEVERE, "Error requesting announced objects", ex);
+        } finally {
+            // Objects that were not received can be requested from other peers
+            requested.removeAll(transactions);
+            requested.removeAll(blocks);
+        }
+    }
+
+    /**
+     * Rebuilds a block from its compact form with the transactions of the
+     * local pool, requesting from the peer only the ones missing. If the
+     * rebuilt block does not match the header, the full block is requested.
+     *
+     * @param sender The peer that sent the compact block.
+     * @param compact The compact block.
+     * @return The block, or null if the peer no longer has it.
+     * @throws RemoteException If a remote communication error occurs.
+     */
+    private Block rebuild(IremoteP2P sender, CompactBlock compact) throws RemoteException {
+        String hash = compact.getHeader().getCurrentHash();
+        long[] shortIds = compact.getShortIds();
+
+        // Take the transactions known here and list the missing ones
+        List<Entry> entries = new ArrayList<>(shortIds.length);
+        List<Integer> missing = new ArrayList<>();
+        for (int i = 0; i < shortIds.length; i++) {
+            Entry entry = mempool.getByShortId(shortIds[i]);
+            if (entry == null) {
+                missing.add(i);
+            }
+            entries.add(entry);
+        }
+
+        // Request the missing transactions
+        if (!missing.isEmpty()) {
+            List<Entry> received = sender.getBlockTransactions(hash, missing);
+            if (received.size() == missing.size()) {
+                for (int i = 0; i < missing.size(); i++) {
+                    entries.set(missing.get(i), received.get(i));
+                }
+            }
+        }
+        System.out.println("Compact block " + hash + ": " + shortIds.length + " transactions, "
+                + missing.size() + " requested");
+
+        Block b = entries.contains(null) ? null : compact.rebuild(entries);
+        if (b == null) {
+            // Short id collision or incomplete answer, fall back to the full block
+            List<Block> full = sender.getBlocksByHash(List.of(hash));
+            b = full.isEmpty() ? null : full.get(0);
+        }
+        return b;
+    }
+
+    /**
+     * Returns the compact form of the blocks of the local chain with the
+     * given hashes.
+     *
+     * @param hashes The hashes of the blocks.
+     * @return The compact blocks found, in the order of the hashes.
+     * @throws RemoteException If a remote communication error occurs.
+     */
+    @Override
+    public List<CompactBlock> getCompactBlocks(List<String> hashes) throws RemoteException {
+        List<CompactBlock> blocks = new ArrayList<>();
+        for (Block b : getBlocksByHash(hashes)) {
+            blocks.add(new CompactBlock(b));
+        }
+        return blocks;
+    }
+
+    /**
+     * Returns some transactions of a block of the local chain.
+     *
+     * @param hash The hash of the block.
+     * @param indexes The positions of the transactions in the block.
+     * @return The transactions, in the order of the positions, or an empty
+     * list if the block is not in the chain.
+     * @throws RemoteException If a remote communication error occurs.
+     */
+    @Override
+    public List<Entry> getBlockTransactions(String hash, List<Integer> indexes) throws RemoteException {
+        Block block = myBlockchain.getBlockByHash(hash);
+        if (block == null) {
+            return new ArrayList<>();
+        }
+        List<Entry> transactions = new ArrayList<>(block.transactions());
+        List<Entry> entries = new ArrayList<>(indexes.size());
+        for (int i : indexes) {
+            if (i < 0 || i >= transactions.size()) {
+                throw new RemoteException("Block " + hash + " has no transaction " + i);
+            }
+            entries.add(transactions.get(i));
+        }
+        return entries;
+    }
+
+    /**
+     * Returns the pending transactions with the given ids, with their
+     * signatures.
+     *
+     * @param ids The ids of the transaction entries.
+     * @return The signed entries that are pending here, in the order of the
+     * ids.
+     * @throws RemoteException If a remote communication error occurs.
+     */
+    @Override
+    public List<SignedEntry> getSignedTransactions(List<String> ids) throws RemoteException {
+        List<SignedEntry> entries = new ArrayList<>();
+        for (String id : ids) {
+            SignedEntry signed = mempool.getSigned(id);
+            if (signed != null) {
+                entries.add(signed);
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * Returns the blocks of the local chain with the given hashes.
+     *
+     * @param hashes The hashes of the blocks.
+     * @return The blocks found, in the order of the hashes.
+     * @throws RemoteException If a remote communication error occurs.
+     */
+    @Override
+    public List<Block> getBlocksByHash(List<String> hashes) throws RemoteException {
+        List<Block> blocks = new ArrayList<>();
+        for (String hash : hashes) {
+            Block block = myBlockchain.getBlockByHash(hash);
+            if (block == null) {
+                block = forks.get(hash); // Blocks of branches are served too, for the orphans of peers
+            }
+            if (block != null) {
+                blocks.add(block);
+            }
+        }
+        return blocks;
+    }
+
+    /**
+     * Returns the block of the local chain with the given hash, found through
+     * the index of hashes of the chain.
+     *
+     * @param hash The hash of the block.
+     * @return The block, or null if it is not in the chain.
+     * @throws RemoteException If a remote communication error occurs.
+     */
+    @Override
+    public Block getBlockByHash(String hash) throws RemoteException {
+        return myBlockchain.getBlockByHash(hash);
+    }
+
+    /**
+     * Returns the height of a block of the local chain, found through the
+     * index of hashes of the chain.
+     *
+     * @param hash The hash of the block.
+     * @return The height of the block, or -1 if it is not in the chain.
+     * @throws RemoteException If a remote communication error occurs.
+     */
+    @Override
+    public int getHeight(String hash) throws RemoteException {
+        return myBlockchain.indexOf(hash);
+    }
+
+    /**
+     * Relays a message to the peers of the network, except this node and the
+     * nodes the message started at or came from. Messages that crossed the
+     * maximum number of links are not relayed.
+     *
+     * @param operation The name of the remote call, used in the log.
+     * @param gossip The metadata of the message as received.
+     * @param skipped The address of another peer to leave out, or null.
+     * @param call The call relaying the message to a peer.
+     * @return The answers of the peers.
+     */
+    private FanOut.Result<Void> relay(String operation, Gossip gossip, String skipped, FanOut.PeerCall<Void> call) {
+        if (gossip.getHops() >= GOSSIP_MAX_HOPS) {
+            return new FanOut.Result<>();
+        }
+        List<IremoteP2P> targets = peers.others(peerAddress -> peerAddress.equals(address)
+                || peerAddress.equals(skipped) || gossip.cameFrom(peerAddress));
+        return fanOut.call(operation, targets, call, quorum(), FANOUT_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * Returns the address of a node, from the registry if it is a known peer
+     * and otherwise by asking the node.
+     *
+     * @param node The node.
+     * @return The address of the node.
+     * @throws RemoteException If the node is not known and cannot be reached.
+     */
+    private String addressOf(IremoteP2P node) throws RemoteException {
+        String nodeAddress = peers.addressOf(node);
+        return nodeAddress != null ? nodeAddress : node.getAddress();
+    }
+
+    /**
+     * Returns the number of peers a broadcast waits for, the configured
+     * fraction of the network rounded up.
+     *
+     * @return The quorum of the current network.
+     */
+    private int quorum() {
+        return Math.max(1, (int) Math.ceil(peers.size() * FANOUT_QUORUM));
+    }
+
     /**
      * Returns the size of the local blockchain.
      *
@@ -1027,37 +1981,197 @@ public class OremoteP2P extends UnicastRemoteObject implements IremoteP2P {
     }
 
     /**
-     * Synchronizes the local blockchain with the largest valid blockchain from
-     * the network. If a peer has a longer valid blockchain, it is adopted by
-     * the local node.
+     * Returns the headers of a range of blocks of the local blockchain.
+     *
+     * @param from The height of the first block.
+     * @param count The maximum number of headers to return.
+     * @return The headers of the blocks in the range.
+     * @throws RemoteException If a remote communication error occurs.
+     */
+    @Override
+    public List<BlockHeader> getBlockHeaders(int from, int count) throws RemoteException {
+        return myBlockchain.getHeaders(from, Math.min(count, SYNC_HEADER_BATCH));
+    }
+
+    /**
+     * Returns a range of blocks of the local blockchain.
+     *
+     * @param from The height of the first block.
+     * @param count The maximum number of blocks to return.
+     * @return The blocks in the range.
+     * @throws RemoteException If a remote communication error occurs.
+     */
+    @Override
+    public List<Block> getBlocks(int from, int count) throws RemoteException {
+        return myBlockchain.getBlocks(from, Math.min(count, SYNC_BLOCK_BATCH));
+    }
+
+    /**
+     * Finds the highest block of the local blockchain listed in a locator.
+     *
+     * @param locator Block hashes of the caller's chain, most recent first.
+     * @return The height of the last common block, or -1 if there is none.
+     * @throws RemoteException If a remote communication error occurs.
+     */
+    @Override
+    public int findCommonAncestor(List<String> locator) throws RemoteException {
+        return myBlockchain.findCommonAncestor(locator);
+    }
+
+    /**
+     * Synchronizes the local blockchain with the valid blockchains of the
+     * network that have more work. Only the blocks after the last block in
+     * common with a peer are downloaded, and they replace the local blocks
+     * after it only if they have more cumulative work, the same rule a fork
+     * is chosen by. The sizes of the chains of all the peers are asked at
+     * once, and the longest chain is tried first; as a shorter chain can have
+     * more work, every peer is tried. The blocks are downloaded from all the
+     * peers.
      *
      * @throws RemoteException If a remote communication error occurs during the
      * synchronization process.
      */
     @Override
     public void synchronizeBlockchain() throws RemoteException {
-        // Check all nodes in the network to compare blockchain sizes
-        for (IremoteP2P iremoteP2P : network) {
-            // If a peer has a larger blockchain, try to synchronize
-            if (iremoteP2P.getBlockchainSize() > myBlockchain.getSize()) {
-                BlockChain remote = iremoteP2P.getBlockchain();
-
-                // Only synchronize if the peer's blockchain is valid
-                if (remote.isValid()) {
-                    // Update the local blockchain with the peer's blockchain
-                    myBlockchain = remote;
-                    
-                    try {
-                        myBlockchain.save(BLOCHAIN_FILENAME);
-                    } catch (Exception ex) {
-                        Logger.getLogger(OremoteP2P.class.getName()).log(Level.SEVERE, null, ex);
-                    }
-
-                    // The blockchain should be updated with only the missing blocks
+        // Compare the blockchain sizes of all nodes in the network, longest first
+        Map<IremoteP2P, Integer> sizes = fanOut.call("getBlockchainSize", peers.others(address::equals),
+                IremoteP2P::getBlockchainSize, FANOUT_TIMEOUT_MILLIS).getValues();
+        List<IremoteP2P> sources = new ArrayList<>(sizes.keySet());
+        sources.sort((a, b) -> Integer.compare(sizes.get(b), sizes.get(a)));
+        for (IremoteP2P iremoteP2P : sources) {
+            try {
+                // If the chain of the peer has more work, download the blocks we are missing
+                if (synchronizeWith(iremoteP2P, sizes.get(iremoteP2P), sources)) {
                     listener.onBlockchainUpdate(myBlockchain);
                 }
+            } catch (Exception ex) {
+                Logger.getLogger(OremoteP2P.class.getName()).log(Level.SEVERE, "Error synchronizing blockchain", ex);
+            }
+        }
+    }
+
+    /**
+     * Downloads the chain of a peer after the last block both chains have in
+     * common. The headers are downloaded from the peer and checked first
+     * (links and proof of work, with at least the difficulty of a mined
+     * block); the blocks are then downloaded in batches from all the given
+     * peers at once, each batch checked against its headers as it arrives.
+     * The local chain switches to the downloaded blocks only if they have
+     * more cumulative work than the local blocks after the common block; the
+     * switch is a reorganization, so the replaced blocks are kept as a branch
+     * and the pool of transactions follows the chain.
+     *
+     * @param peer The peer to synchronize with.
+     * @param remoteSize The size of the peer's blockchain.
+     * @param sources The peers to download the blocks from; those on another
+     * chain or that lack the blocks are left out.
+     * @return true if the local blockchain was updated, otherwise false.
+     * @throws Exception If the peer cannot be reached or sends invalid headers,
+     * or no peer has some of the blocks.
+     */
+    private boolean synchronizeWith(IremoteP2P peer, int remoteSize, List<IremoteP2P> sources) throws Exception {
+        // Find the last block both chains have in common
+        int ancestor = peer.findCommonAncestor(myBlockchain.getLocator());
+        int start = ancestor + 1;
+        String previous = ancestor < 0 ? String.format("%08d", 0) : myBlockchain.get(ancestor).getCurrentHash();
+
+        // Download the headers of the missing blocks and check their links, Merkle tree version and proof of work
+        List<BlockHeader> headers = new ArrayList<>();
+        while (start + headers.size() < remoteSize) {
+            List<BlockHeader> batch = peer.getBlockHeaders(start + headers.size(), SYNC_HEADER_BATCH);
+            if (batch.isEmpty()) {
+                break;
+            }
+            for (BlockHeader header : batch) {
+                if (!header.getPreviousHash().equals(previous) || !header.isValid()
+                        || !hasCurrentMerkleTree(header.getMerkleRoot())
+                        || !hasDifficulty(header.getCurrentHash())) {
+                    throw new Exception("Invalid header at height " + (start + headers.size()));
+                }
+                previous = header.getCurrentHash();
+                headers.add(header);
+            }
+        }
+        BigInteger remoteWork = BigInteger.ZERO;
+        for (BlockHeader header : headers) {
+            remoteWork = remoteWork.add(ForkTracker.work(header.getCurrentHash()));
+        }
+        if (headers.isEmpty() || remoteWork.compareTo(workFrom(start)) <= 0) {
+            return false;
+        }
+
+        // Download the blocks from all the peers, the peer of the headers first
+        List<IremoteP2P> downloadFrom = new ArrayList<>(sources);
+        downloadFrom.remove(peer);
+        downloadFrom.add(0, peer);
+        List<Block> blocks = blockDownloader.download(start, headers, downloadFrom);
+
+        // Replace the blocks after the common block if it is still in the chain and they still have more work
+        synchronized (myBlockchain) {
+            if (myBlockchain.indexOf(blocks.get(0).getPreviousHash()) + 1 != start
+                    || remoteWork.compareTo(workFrom(start)) <= 0) {
+                return false;
             }
+            reorganize(blocks);
+            forks.prune(myBlockchain.getSize());
         }
+        System.out.println("Synchronized " + blocks.size() + " blocks from " + downloadFrom.size()
+                + " peers, headers from " + addressOf(peer));
+        return true;
+    }
+
+    /**
+     * Returns the cumulative work of the local blocks from a height to the
+     * top of the chain.
+     *
+     * @param start The height of the first block.
+     * @return The work of the blocks.
+     */
+    private BigInteger workFrom(int start) {
+        BigInteger work = BigInteger.ZERO;
+        for (Block block : myBlockchain.getBlocks(start, myBlockchain.getSize() - start)) {
+            work = work.add(ForkTracker.work(block.getCurrentHash()));
+        }
+        return work;
+    }
+
+    /**
+     * Checks that a block hash has at least the difficulty of a mined block.
+     *
+     * @param hash The Base64 hash of the block.
+     * @return true if the hash starts with the required number of zeros.
+     */
+    private static boolean hasDifficulty(String hash) {
+        return hash != null && hash.startsWith("0".repeat(BLOCK_ZEROS));
     }
 
+    /**
+     * Checks that a Merkle root was built with SHA-256. Legacy roots are 32-bit
+     * String.hashCode() values, so two sets of transactions with the same root
+     * are easy to find; a block received from a peer with one could hold
+     * different transactions on each node under the same hash.
+     *
+     * @param merkleRoot The Merkle root of the block.
+     * @return true if the root is a SHA-256 root.
+     */
+    private static boolean hasCurrentMerkleTree(String merkleRoot) {
+        return MerkleTree.versionOf(merkleRoot) == MerkleTree.VERSION_SHA256;
+    }
+
+    /**
+     * A transaction or block waiting to be announced, with the metadata of
+     * the message that brought it.
+     */
+    private static final class Announcement {
+
+        private final boolean block; // true for a block, false for a transaction
+        private final String id;     // Hash of the block or id of the transaction entry
+        private final Gossip gossip; // Metadata of the message that brought the object
+
+        private Announcement(boolean block, String id, Gossip gossip) {
+            this.block = block;
+            this.id = id;
+            this.gossip = gossip;
+        }
+    }
 }
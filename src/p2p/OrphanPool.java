@@ -0,0 +1,172 @@
+package p2p;
+
+import blockchain.utils.Block;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Valid blocks whose parent is not known yet, kept until the parent arrives
+ * instead of resynchronizing the chain. The blocks are indexed by hash and by
+ * the hash of their parent, so the blocks waiting for a block are found when
+ * it is added. The pool is limited in number of blocks; when it is full the
+ * oldest block is dropped.
+ */
+public class OrphanPool {
+
+    private final int capacity; // Maximum number of blocks kept
+    private final LinkedHashMap<String, Orphan> orphans = new LinkedHashMap<>(); // Blocks by hash, oldest first
+    private final Map<String, Set<String>> byParent = new HashMap<>(); // Hashes of the blocks by parent hash
+
+    /**
+     * Creates a pool with the given limit.
+     *
+     * @param capacity The maximum number of blocks kept.
+     */
+    public OrphanPool(int capacity) {
+        this.capacity = capacity;
+    }
+
+    /**
+     * Adds a block whose parent is missing.
+     *
+     * @param block The block.
+     * @param gossip The metadata of the message that brought the block, used
+     * to relay it once its parent arrives.
+     * @return true if the block was added, false if it was already in the
+     * pool.
+     */
+    public synchronized boolean add(Block block, Gossip gossip) {
+        String hash = block.getCurrentHash();
+        if (orphans.containsKey(hash)) {
+            return false;
+        }
+        orphans.put(hash, new Orphan(block, gossip));
+        byParent.computeIfAbsent(block.getPreviousHash(), parent -> new LinkedHashSet<>()).add(hash);
+        if (orphans.size() > capacity) {
+            Iterator<Orphan> eldest = orphans.values().iterator();
+            Orphan dropped = eldest.next();
+            eldest.remove();
+            unlink(dropped.block);
+        }
+        return true;
+    }
+
+    /**
+     * Removes and returns the blocks waiting for a parent.
+     *
+     * @param parentHash The hash of the parent.
+     * @return The blocks whose parent it is, oldest first.
+     */
+    public synchronized List<Orphan> take(String parentHash) {
+        List<Orphan> children = new ArrayList<>();
+        Set<String> hashes = byParent.remove(parentHash);
+        if (hashes != null) {
+            for (String hash : hashes) {
+                children.add(orphans.remove(hash));
+            }
+        }
+        return children;
+    }
+
+    /**
+     * Returns the oldest missing ancestor of a block in the pool: the parent
+     * of the first block of its line of orphans.
+     *
+     * @param hash The hash of a block in the pool.
+     * @return The hash of the missing ancestor.
+     */
+    public synchronized String missingAncestor(String hash) {
+        String missing = hash;
+        for (Orphan orphan; (orphan = orphans.get(missing)) != null;) {
+            missing = orphan.block.getPreviousHash();
+        }
+        return missing;
+    }
+
+    /**
+     * Returns the number of orphans a block descends from, counting itself.
+     *
+     * @param hash The hash of a block in the pool.
+     * @return The length of its line of orphans.
+     */
+    public synchronized int depth(String hash) {
+        int depth = 0;
+        for (Orphan orphan; (orphan = orphans.get(hash)) != null; hash = orphan.block.getPreviousHash()) {
+            depth++;
+        }
+        return depth;
+    }
+
+    /**
+     * Checks whether a block is in the pool.
+     *
+     * @param hash The hash of the block.
+     * @return true if the block is waiting for its parent.
+     */
+    public synchronized boolean contains(String hash) {
+        return orphans.containsKey(hash);
+    }
+
+    /**
+     * Returns the number of blocks in the pool.
+     *
+     * @return The number of blocks.
+     */
+    public synchronized int size() {
+        return orphans.size();
+    }
+
+    /**
+     * Removes a dropped block from the index by parent.
+     *
+     * @param block The block.
+     */
+    private void unlink(Block block) {
+        Set<String> siblings = byParent.get(block.getPreviousHash());
+        if (siblings != null) {
+            siblings.remove(block.getCurrentHash());
+            if (siblings.isEmpty()) {
+                byParent.remove(block.getPreviousHash());
+            }
+        }
+    }
+
+    /**
+     * A block waiting for its parent, with the metadata of the message that
+     * brought it.
+     */
+    public static final class Orphan {
+
+        private final Block block;   // The block
+        private final Gossip gossip; // Metadata of the message that brought the block
+
+        private Orphan(Block block, Gossip gossip) {
+            this.block = block;
+            this.gossip = gossip;
+        }
+
+        /**
+         * Returns the block.
+         *
+         * @return The block.
+         */
+        public Block getBlock() {
+            return block;
+        }
+
+        /**
+         * Returns the metadata of the message that brought the block.
+         *
+         * @return The gossip metadata.
+         */
+        public Gossip getGossip() {
+            return gossip;
+        }
+    }
+}
@@ -0,0 +1,292 @@
+package p2p;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Predicate;
+
+/**
+ * The peers known to a node, by address. For each peer the registry keeps its
+ * address, the object used to call it, when it last answered and the
+ * smoothed round-trip time of its answers.
+ *
+ * The address of a peer is asked once, when the peer is added; membership
+ * checks, the exclusion of the node itself and of the peers a message came
+ * from are then answered locally, without calls to the peers. The objects of
+ * the peers are reused; an object that failed is replaced by a new one from
+ * the transport. The new object is looked up in the background, as the lookup
+ * of an unreachable peer has no deadline: the callers keep the old object,
+ * whose calls are bounded by the deadlines of the broadcasts, and get the new
+ * one once it is found.
+ */
+public class PeerRegistry {
+
+    private static final int RTT_SMOOTHING = 8; // A new sample moves the round-trip time by 1/8, as in TCP
+
+    private final Transport transport;                                       // Reconnects failed peers
+    private final Map<String, Peer> peers = new ConcurrentHashMap<>();       // Peers by address
+    private final Map<IremoteP2P, Peer> byStub = new ConcurrentHashMap<>();  // Peers by their current object
+    private final ExecutorService reconnects = Executors.newVirtualThreadPerTaskExecutor(); // Lookups of failed peers
+
+    /**
+     * Creates an empty registry.
+     *
+     * @param transport The transport used to reconnect to the peers.
+     */
+    public PeerRegistry(Transport transport) {
+        this.transport = transport;
+    }
+
+    /**
+     * Adds a peer, unless a peer with the same address is already known.
+     *
+     * @param address The address of the peer.
+     * @param stub The object used to call the peer.
+     * @return true if the peer was added, false if it was already known.
+     */
+    public boolean add(String address, IremoteP2P stub) {
+        Peer peer = new Peer(address, stub);
+        if (peers.putIfAbsent(address, peer) != null) {
+            return false;
+        }
+        byStub.put(stub, peer);
+        return true;
+    }
+
+    /**
+     * Removes a peer.
+     *
+     * @param address The address of the peer.
+     * @return The peer removed, or null if it was not known.
+     */
+    public Peer remove(String address) {
+        Peer peer = peers.remove(address);
+        if (peer != null) {
+            byStub.remove(peer.stub, peer);
+        }
+        return peer;
+    }
+
+    /**
+     * Checks whether a peer is known.
+     *
+     * @param address The address of the peer.
+     * @return true if the peer is known.
+     */
+    public boolean contains(String address) {
+        return peers.containsKey(address);
+    }
+
+    /**
+     * Returns a peer.
+     *
+     * @param address The address of the peer.
+     * @return The peer, or null if it is not known.
+     */
+    public Peer get(String address) {
+        return peers.get(address);
+    }
+
+    /**
+     * Returns the address of the peer an object calls, without calling it.
+     *
+     * @param stub An object returned by {@link #stubs()} or {@link #others}.
+     * @return The address of the peer, or null if the object is not known.
+     */
+    public String addressOf(IremoteP2P stub) {
+        Peer peer = byStub.get(stub);
+        return peer == null ? null : peer.address;
+    }
+
+    /**
+     * Returns the number of peers.
+     *
+     * @return The number of peers.
+     */
+    public int size() {
+        return peers.size();
+    }
+
+    /**
+     * Returns the peers.
+     *
+     * @return A snapshot of the peers.
+     */
+    public List<Peer> all() {
+        return new ArrayList<>(peers.values());
+    }
+
+    /**
+     * Returns the addresses of the peers.
+     *
+     * @return A snapshot of the addresses.
+     */
+    public List<String> addresses() {
+        return new ArrayList<>(peers.keySet());
+    }
+
+    /**
+     * Returns the objects of all the peers.
+     *
+     * @return The objects, reconnected where needed.
+     */
+    public List<IremoteP2P> stubs() {
+        return others(address -> false);
+    }
+
+    /**
+     * Returns the objects of the peers whose address is not excluded.
+     *
+     * @param excluded Tells which addresses to leave out.
+     * @return The objects, reconnected where needed.
+     */
+    public List<IremoteP2P> others(Predicate<String> excluded) {
+        Collection<Peer> snapshot = peers.values();
+        List<IremoteP2P> stubs = new ArrayList<>(snapshot.size());
+        for (Peer peer : snapshot) {
+            if (!excluded.test(peer.address)) {
+                stubs.add(stub(peer));
+            }
+        }
+        return stubs;
+    }
+
+    /**
+     * Returns the object of a peer without waiting. For a peer marked as
+     * failed, a new object is looked up in the background, one lookup at a
+     * time, and the old object is returned meanwhile; the calls made on it
+     * fail until the new object replaces it.
+     *
+     * @param peer The peer.
+     * @return The object of the peer.
+     */
+    public IremoteP2P stub(Peer peer) {
+        if (peer.failed) {
+            synchronized (peer) {
+                if (peer.failed && !peer.reconnecting) {
+                    peer.reconnecting = true;
+                    reconnects.execute(() -> reconnect(peer));
+                }
+            }
+        }
+        return peer.stub;
+    }
+
+    /**
+     * Returns the object of a peer, looking up a new one first if the peer
+     * is marked as failed. The lookup may wait for an unreachable peer, so it
+     * is made within a call bounded by a deadline, such as a probe.
+     *
+     * @param peer The peer.
+     * @return The object of the peer, the old one if the lookup failed.
+     */
+    public IremoteP2P connect(Peer peer) {
+        if (peer.failed) {
+            reconnect(peer);
+        }
+        return peer.stub;
+    }
+
+    /**
+     * Looks up a new object for a failed peer and puts it in place of the
+     * old one.
+     *
+     * @param peer The peer.
+     */
+    private void reconnect(Peer peer) {
+        try {
+            IremoteP2P fresh = transport.connect(peer.address);
+            synchronized (peer) {
+                byStub.remove(peer.stub, peer);
+                peer.stub = fresh;
+                if (peers.get(peer.address) == peer) {
+                    byStub.put(fresh, peer); // Not for a peer removed during the lookup
+                }
+                peer.failed = false;
+            }
+        } catch (IOException ex) {
+            // Still unreachable, keep the old object until the next call asks again
+        } finally {
+            synchronized (peer) {
+                peer.reconnecting = false;
+            }
+        }
+    }
+
+    /**
+     * A peer of the node.
+     */
+    public static final class Peer {
+
+        private final String address;        // Address of the peer
+        private volatile IremoteP2P stub;    // Object used to call the peer
+        private volatile boolean failed;     // Whether the last call on the object failed
+        private boolean reconnecting;        // Whether a new object is being looked up, guarded by the peer
+        private volatile long lastSeen;      // Time of the last answer or message, in milliseconds
+        private volatile long rttNanos = -1; // Smoothed round-trip time, -1 before the first answer
+
+        private Peer(String address, IremoteP2P stub) {
+            this.address = address;
+            this.stub = stub;
+            this.lastSeen = System.currentTimeMillis();
+        }
+
+        /**
+         * Returns the address of the peer.
+         *
+         * @return The address.
+         */
+        public String getAddress() {
+            return address;
+        }
+
+        /**
+         * Returns when the peer last answered a call or sent a message.
+         *
+         * @return The time, in milliseconds since the epoch.
+         */
+        public long getLastSeen() {
+            return lastSeen;
+        }
+
+        /**
+         * Returns the smoothed round-trip time of the answers of the peer.
+         *
+         * @return The time in nanoseconds, or -1 if the peer never answered.
+         */
+        public long getRttNanos() {
+            return rttNanos;
+        }
+
+        /**
+         * Records an answer of the peer.
+         *
+         * @param rtt The round-trip time of the call, in nanoseconds.
+         */
+        public void answered(long rtt) {
+            long previous = rttNanos;
+            rttNanos = previous < 0 ? rtt : previous + (rtt - previous) / RTT_SMOOTHING;
+            heard();
+            failed = false;
+        }
+
+        /**
+         * Records a message received from the peer.
+         */
+        public void heard() {
+            lastSeen = System.currentTimeMillis();
+        }
+
+        /**
+         * Records a failed call, so the next call gets a new object.
+         */
+        public void failed() {
+            failed = true;
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package p2p;
+
+import currdig.utils.RMI;
+import java.io.IOException;
+import java.rmi.NotBoundException;
+import java.rmi.RemoteException;
+
+/**
+ * Transport over Java RMI, the protocol used by the nodes since the start.
+ * Nodes are bound in a registry on the port of their address, and each call
+ * is a blocking RMI call over the sockets of {@link RMI#SOCKET_FACTORY}.
+ */
+public class RmiTransport implements Transport {
+
+    /**
+     * Creates the registry on the port of the address and binds the node to
+     * the address. The registry uses the compressed sockets of the node, so
+     * both share the port.
+     *
+     * @param node The local node, already exported as a remote object.
+     * @param address The address of the node.
+     * @throws IOException If the registry cannot be created or the node bound.
+     */
+    @Override
+    public void export(IremoteP2P node, String address) throws IOException {
+        RMI.startRemoteObject(node, address);
+    }
+
+    /**
+     * Looks up the node in the registry of its address. The lookup is always
+     * made, so a node that restarted gets a working stub; the stubs are kept
+     * by the {@link PeerRegistry} of the node.
+     *
+     * @param address The address of the node.
+     * @return The RMI stub of the node.
+     * @throws IOException If the registry cannot be reached or the node is
+     * not bound.
+     */
+    @Override
+    public IremoteP2P connect(String address) throws IOException {
+        try {
+            return (IremoteP2P) RMI.getRemote(RMI.getAdressServer(address), RMI.getAdressPort(address),
+                    RMI.getAdressObjectName(address));
+        } catch (NotBoundException ex) {
+            throw new RemoteException("Node not bound: " + address, ex);
+        }
+    }
+
+    /**
+     * Nothing to close: RMI manages its own connections.
+     */
+    @Override
+    public void close() {
+    }
+}
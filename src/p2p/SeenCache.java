@@ -0,0 +1,94 @@
+package p2p;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Ids of the messages seen recently by a node, so that a message received
+ * again through another link is dropped before it is verified or relayed.
+ * The ids are kept in insertion order and forgotten when they are older than
+ * the time to live or when the cache exceeds its capacity, oldest first.
+ */
+public class SeenCache {
+
+    private final int capacity;     // Maximum number of ids kept
+    private final long ttlNanos;    // Time an id is kept
+    private final LinkedHashMap<String, Long> seen = new LinkedHashMap<>(); // Time each id was seen
+
+    /**
+     * Creates a cache with the given limits.
+     *
+     * @param capacity The maximum number of ids kept.
+     * @param ttlMillis The time, in milliseconds, an id is kept.
+     */
+    public SeenCache(int capacity, long ttlMillis) {
+        this.capacity = capacity;
+        this.ttlNanos = ttlMillis * 1_000_000L;
+    }
+
+    /**
+     * Marks the id as seen.
+     *
+     * @param id The id of the message.
+     * @return true if the id was not seen yet, false if the message is a
+     * repetition.
+     */
+    public synchronized boolean markSeen(String id) {
+        long now = System.nanoTime();
+        expire(now);
+        if (seen.containsKey(id)) {
+            return false;
+        }
+        seen.put(id, now);
+        if (seen.size() > capacity) {
+            Iterator<String> eldest = seen.keySet().iterator();
+            eldest.next();
+            eldest.remove();
+        }
+        return true;
+    }
+
+    /**
+     * Checks whether the id was seen, without marking it.
+     *
+     * @param id The id of the message.
+     * @return true if the id was seen and has not expired.
+     */
+    public synchronized boolean contains(String id) {
+        expire(System.nanoTime());
+        return seen.containsKey(id);
+    }
+
+    /**
+     * Forgets the id, so that the message is accepted again, for instance
+     * when it was refused for a reason that may not hold later.
+     *
+     * @param id The id of the message.
+     */
+    public synchronized void forget(String id) {
+        seen.remove(id);
+    }
+
+    /**
+     * Returns the number of ids kept.
+     *
+     * @return The number of ids.
+     */
+    public synchronized int size() {
+        return seen.size();
+    }
+
+    /**
+     * Removes the ids older than the time to live. Ids are in insertion
+     * order, so only the head of the map is visited.
+     *
+     * @param now The current time, in System.nanoTime() units.
+     */
+    private void expire(long now) {
+        Iterator<Map.Entry<String, Long>> it = seen.entrySet().iterator();
+        while (it.hasNext() && now - it.next().getValue() > ttlNanos) {
+            it.remove();
+        }
+    }
+}
@@ -0,0 +1,190 @@
+package p2p;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Keeps the links of a node to a bounded number of peers, instead of a link
+ * to every node of the network.
+ *
+ * The node links to the nodes that join through it while it has fewer than
+ * the maximum degree, and to the nodes it hears about while it has fewer than
+ * the target degree. Every other address it hears about is remembered, up to
+ * a capacity, as a candidate for later links. Periodically the node swaps a
+ * random sample of the addresses it knows with a random peer, so every node
+ * keeps a fresh sample of the network, and links to random candidates until
+ * it has the target degree again, as peers fail or leave.
+ *
+ * The links form a random graph where every node has between the target and
+ * the maximum degree, so its diameter grows with the logarithm of the number
+ * of nodes: a message relayed by every node reaches the whole network in a
+ * few hops, while each node only calls and probes its own peers.
+ */
+public class Topology {
+
+    private final String self;         // Address of the local node, never linked
+    private final PeerRegistry peers;  // Links of the node
+    private final int degree;          // Links the node looks for
+    private final int maxDegree;       // Links the node accepts
+    private final int sampleSize;      // Addresses sent in an exchange
+    private final int capacity;        // Addresses remembered, besides the peers
+    private final LinkedHashSet<String> known = new LinkedHashSet<>(); // Candidates, oldest first
+
+    /**
+     * Creates the topology of a node.
+     *
+     * @param self The address of the local node.
+     * @param peers The links of the node.
+     * @param degree The number of links the node looks for.
+     * @param maxDegree The number of links the node accepts from joining
+     * nodes, at least the degree.
+     * @param sampleSize The number of addresses sent in an exchange.
+     * @param capacity The number of addresses remembered as candidates.
+     */
+    public Topology(String self, PeerRegistry peers, int degree, int maxDegree, int sampleSize, int capacity) {
+        this.self = self;
+        this.peers = peers;
+        this.degree = Math.max(1, degree);
+        this.maxDegree = Math.max(this.degree, maxDegree);
+        this.sampleSize = sampleSize;
+        this.capacity = capacity;
+    }
+
+    /**
+     * Remembers the address of a node as a candidate for a link.
+     *
+     * @param address The address of the node.
+     * @return true if the node was not known yet, neither as a peer nor as a
+     * candidate.
+     */
+    public synchronized boolean learn(String address) {
+        if (address == null || address.equals(self) || peers.contains(address)) {
+            return false;
+        }
+        if (!known.add(address)) {
+            return false;
+        }
+        if (known.size() > capacity) {
+            Iterator<String> eldest = known.iterator();
+            eldest.next();
+            eldest.remove();
+        }
+        return true;
+    }
+
+    /**
+     * Remembers the addresses of several nodes.
+     *
+     * @param addresses The addresses of the nodes.
+     */
+    public void learnAll(Collection<String> addresses) {
+        for (String address : addresses) {
+            learn(address);
+        }
+    }
+
+    /**
+     * Forgets a node that failed, so it is not linked again.
+     *
+     * @param address The address of the node.
+     */
+    public synchronized void forget(String address) {
+        known.remove(address);
+    }
+
+    /**
+     * Checks whether the node accepts a link from a node that joins through
+     * it.
+     *
+     * @return true if the node has fewer links than the maximum degree.
+     */
+    public boolean accepts() {
+        return peers.size() < maxDegree;
+    }
+
+    /**
+     * Checks whether the node looks for more links.
+     *
+     * @return true if the node has fewer links than the target degree.
+     */
+    public boolean needsPeers() {
+        return peers.size() < degree;
+    }
+
+    /**
+     * Returns a random sample of the addresses the node knows, peers and
+     * candidates, including its own so the receiver can link to it.
+     *
+     * @return The addresses, at most the sample size.
+     */
+    public List<String> sample() {
+        List<String> all = new ArrayList<>(peers.addresses());
+        synchronized (this) {
+            all.addAll(known);
+        }
+        all.remove(self);
+        Collections.shuffle(all);
+        List<String> sample = new ArrayList<>(all.subList(0, Math.min(all.size(), sampleSize - 1)));
+        sample.add(self);
+        return sample;
+    }
+
+    /**
+     * Receives the sample of another node and answers with a sample of this
+     * node.
+     *
+     * @param offered The addresses sent by the other node.
+     * @return The addresses of this node.
+     */
+    public List<String> exchange(List<String> offered) {
+        List<String> answer = sample();
+        learnAll(offered);
+        return answer;
+    }
+
+    /**
+     * Returns the candidates to link to until the node has the target degree,
+     * chosen at random.
+     *
+     * @return The addresses of the candidates, none if the node has enough
+     * links.
+     */
+    public List<String> candidates() {
+        int missing = degree - peers.size();
+        if (missing <= 0) {
+            return new ArrayList<>();
+        }
+        List<String> candidates;
+        synchronized (this) {
+            candidates = new ArrayList<>(known);
+        }
+        candidates.removeIf(peers::contains);
+        Collections.shuffle(candidates);
+        return new ArrayList<>(candidates.subList(0, Math.min(candidates.size(), missing)));
+    }
+
+    /**
+     * Returns a random peer to exchange samples with.
+     *
+     * @return The peer, or null if the node has no peers.
+     */
+    public PeerRegistry.Peer randomPeer() {
+        List<PeerRegistry.Peer> all = peers.all();
+        all.removeIf(peer -> peer.getAddress().equals(self));
+        return all.isEmpty() ? null : all.get(ThreadLocalRandom.current().nextInt(all.size()));
+    }
+
+    /**
+     * Returns the number of candidates remembered.
+     *
+     * @return The number of candidates.
+     */
+    public synchronized int knownCount() {
+        return known.size();
+    }
+}
@@ -0,0 +1,61 @@
+package p2p;
+
+import java.io.IOException;
+
+/**
+ * Carries the calls of {@link IremoteP2P} between nodes. A node exports
+ * itself on its address, and obtains the objects of other nodes by address;
+ * the objects returned behave as the remote node, whatever the protocol.
+ *
+ * The transport is selected with the system property currdig.transport:
+ * "rmi" (the default) uses Java RMI, "nio" uses binary frames over
+ * non-blocking sockets. All the nodes of a network must use the same
+ * transport; clients keep using RMI.
+ */
+public interface Transport {
+
+    /**
+     * Makes a node available to the other nodes.
+     *
+     * @param node The local node.
+     * @param address The address of the node, in the form //host:port/name.
+     * @throws IOException If the node cannot be exported.
+     */
+    void export(IremoteP2P node, String address) throws IOException;
+
+    /**
+     * Obtains the object of a node.
+     *
+     * @param address The address of the node, in the form //host:port/name.
+     * @return An object that makes the calls on the node.
+     * @throws IOException If the node cannot be reached.
+     */
+    IremoteP2P connect(String address) throws IOException;
+
+    /**
+     * Closes the connections and stops serving the exported nodes.
+     */
+    void close();
+
+    /**
+     * Returns the transport selected by the system property
+     * currdig.transport.
+     *
+     * @return The transport shared by the nodes of this process.
+     */
+    static Transport get() {
+        return Holder.INSTANCE;
+    }
+
+    /**
+     * Holds the selected transport, created on first use.
+     */
+    final class Holder {
+
+        private static final Transport INSTANCE = "nio".equalsIgnoreCase(System.getProperty("currdig.transport", "rmi"))
+                ? new NioTransport() : new RmiTransport();
+
+        private Holder() {
+        }
+    }
+}
@@ -0,0 +1,164 @@
+package p2p;
+
+import blockchain.utils.Hash;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The content of the UsersData folder of a node: for every file, its path
+ * relative to the folder, the hash of its content, its size and its version.
+ * Two nodes compare their manifests to transfer only the files that differ,
+ * and their digests to know whether they differ at all.
+ *
+ * The version of a file grows each time a node changes it, and travels with
+ * the file; of two versions of a file the higher one wins, and of two
+ * versions with the same number the one with the higher hash, so all the
+ * nodes keep the same version of every file.
+ */
+public class UsersDataManifest implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Map<String, FileVersion> files = new TreeMap<>(); // Versions by relative path
+
+    /**
+     * Adds a file to the manifest.
+     *
+     * @param path The path of the file, relative to the UsersData folder.
+     * @param version The version of the file.
+     */
+    public void put(String path, FileVersion version) {
+        files.put(path, version);
+    }
+
+    /**
+     * Returns the version of a file.
+     *
+     * @param path The path of the file, relative to the UsersData folder.
+     * @return The version, or null if the file is not in the manifest.
+     */
+    public FileVersion get(String path) {
+        return files.get(path);
+    }
+
+    /**
+     * Returns the files of the manifest.
+     *
+     * @return The versions by relative path, in path order.
+     */
+    public Map<String, FileVersion> getFiles() {
+        return Collections.unmodifiableMap(files);
+    }
+
+    /**
+     * Returns the files of another manifest that are missing here or newer
+     * there.
+     *
+     * @param other The manifest of another node.
+     * @return The relative paths of the files to copy from the other node.
+     */
+    public List<String> newerIn(UsersDataManifest other) {
+        List<String> newer = new ArrayList<>();
+        for (Map.Entry<String, FileVersion> file : other.files.entrySet()) {
+            if (file.getValue().isNewerThan(files.get(file.getKey()))) {
+                newer.add(file.getKey());
+            }
+        }
+        return newer;
+    }
+
+    /**
+     * Returns a hash of the whole manifest. Two nodes with the same digest
+     * have the same files.
+     *
+     * @return The digest, as a hexadecimal string.
+     */
+    public String digest() {
+        MessageDigest digest = Hash.sha256();
+        for (Map.Entry<String, FileVersion> file : files.entrySet()) {
+            digest.update((file.getKey() + ":" + file.getValue().hash + ":" + file.getValue().version + "\n")
+                    .getBytes(StandardCharsets.UTF_8));
+        }
+        return Hash.toHexString(digest.digest());
+    }
+
+    @Override
+    public String toString() {
+        return files.size() + " files";
+    }
+
+    /**
+     * A version of a file.
+     */
+    public static final class FileVersion implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private final String hash;  // SHA-256 of the content
+        private final long size;    // Size of the content, in bytes
+        private final long version; // Number of changes of the file
+
+        /**
+         * Creates a version of a file.
+         *
+         * @param hash The SHA-256 hash of the content, in hexadecimal.
+         * @param size The size of the content, in bytes.
+         * @param version The number of changes of the file.
+         */
+        public FileVersion(String hash, long size, long version) {
+            this.hash = hash;
+            this.size = size;
+            this.version = version;
+        }
+
+        /**
+         * Returns the hash of the content.
+         *
+         * @return The SHA-256 hash, in hexadecimal.
+         */
+        public String getHash() {
+            return hash;
+        }
+
+        /**
+         * Returns the size of the content.
+         *
+         * @return The size, in bytes.
+         */
+        public long getSize() {
+            return size;
+        }
+
+        /**
+         * Returns the number of changes of the file.
+         *
+         * @return The version number.
+         */
+        public long getVersion() {
+            return version;
+        }
+
+        /**
+         * Checks whether this version replaces another one.
+         *
+         * @param other The other version, or null if the file is missing.
+         * @return true if this version has a higher number, or the same
+         * number and a higher hash.
+         */
+        public boolean isNewerThan(FileVersion other) {
+            if (other == null) {
+                return true;
+            }
+            if (version != other.version) {
+                return version > other.version;
+            }
+            return hash.compareTo(other.hash) > 0;
+        }
+    }
+}
@@ -0,0 +1,232 @@
+package p2p;
+
+import blockchain.utils.Hash;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Stream;
+
+/**
+ * The local copy of the UsersData folder, replicated between nodes by
+ * manifest. A node asks a peer for its manifest, compares it with its own,
+ * and requests only the files that are missing or older locally, several
+ * files per call.
+ *
+ * The manifest is kept in memory and refreshed from the folder when asked:
+ * a file whose size and modification time did not change since the last
+ * refresh is not read again, so only new and changed files are hashed. A
+ * file changed locally gets the next version number. Files are never deleted,
+ * as users are never removed.
+ */
+public class UsersDataReplica {
+
+    private static final int BUFFER = 64 * 1024; // Bytes read at a time when hashing a file
+
+    private final Path root;      // The UsersData folder
+    private final int batchBytes; // Largest content sent in one call
+    private final Map<String, Scanned> scanned = new HashMap<>(); // Files seen in the folder, by relative path
+
+    /**
+     * Creates the replica of a folder.
+     *
+     * @param root The folder.
+     * @param batchBytes The largest content, in bytes, requested in one call;
+     * a larger file is requested alone.
+     */
+    public UsersDataReplica(String root, int batchBytes) {
+        this.root = Paths.get(root).toAbsolutePath().normalize();
+        this.batchBytes = batchBytes;
+    }
+
+    /**
+     * Returns the manifest of the folder, hashing the files that are new or
+     * changed since the last call.
+     *
+     * @return The manifest.
+     * @throws IOException If the folder cannot be read.
+     */
+    public synchronized UsersDataManifest manifest() throws IOException {
+        UsersDataManifest manifest = new UsersDataManifest();
+        if (!Files.isDirectory(root)) {
+            return manifest;
+        }
+        Set<String> present = new HashSet<>();
+        try (Stream<Path> paths = Files.walk(root)) {
+            for (Path path : (Iterable<Path>) paths::iterator) {
+                BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+                if (!attributes.isRegularFile() || path.getFileName().toString().endsWith(".part")) {
+                    continue;
+                }
+                String relative = relativize(path);
+                long size = attributes.size();
+                long modified = attributes.lastModifiedTime().toMillis();
+                Scanned previous = scanned.get(relative);
+                if (previous == null || previous.size != size || previous.modified != modified) {
+                    String hash = hash(path);
+                    long version = previous == null ? 1 : previous.version.getVersion();
+                    if (previous != null && !previous.version.getHash().equals(hash)) {
+                        version++; // Changed on this node
+                    }
+                    previous = new Scanned(size, modified, new UsersDataManifest.FileVersion(hash, size, version));
+                    scanned.put(relative, previous);
+                }
+                manifest.put(relative, previous.version);
+                present.add(relative);
+            }
+        }
+        scanned.keySet().retainAll(present);
+        return manifest;
+    }
+
+    /**
+     * Splits the files to request from a peer into calls, each with at most
+     * the batch size of content.
+     *
+     * @param paths The relative paths of the files.
+     * @param remote The manifest of the peer, with the sizes of the files.
+     * @return The paths of each call.
+     */
+    public List<List<String>> batches(List<String> paths, UsersDataManifest remote) {
+        List<List<String>> batches = new ArrayList<>();
+        List<String> batch = new ArrayList<>();
+        long bytes = 0;
+        for (String path : paths) {
+            long size = remote.get(path).getSize();
+            if (!batch.isEmpty() && bytes + size > batchBytes) {
+                batches.add(batch);
+                batch = new ArrayList<>();
+                bytes = 0;
+            }
+            batch.add(path);
+            bytes += size;
+        }
+        if (!batch.isEmpty()) {
+            batches.add(batch);
+        }
+        return batches;
+    }
+
+    /**
+     * Reads files of the folder to send them to a peer. Paths outside the
+     * folder and missing files are left out.
+     *
+     * @param paths The relative paths of the files.
+     * @return The content of the files, by relative path.
+     * @throws IOException If a file cannot be read.
+     */
+    public Map<String, byte[]> read(List<String> paths) throws IOException {
+        Map<String, byte[]> files = new LinkedHashMap<>();
+        for (String path : paths) {
+            Path file = resolve(path);
+            if (file != null && Files.isRegularFile(file)) {
+                files.put(path, Files.readAllBytes(file));
+            }
+        }
+        return files;
+    }
+
+    /**
+     * Writes files received from a peer. A file is written only if its
+     * content matches the manifest of the peer and that version is still
+     * newer than the local one; each file is written to a temporary file
+     * first and then moved in place, so a reader never sees half a file.
+     *
+     * @param files The content of the files, by relative path.
+     * @param remote The manifest of the peer.
+     * @return The number of files written.
+     * @throws IOException If a file cannot be written.
+     */
+    public synchronized int apply(Map<String, byte[]> files, UsersDataManifest remote) throws IOException {
+        int written = 0;
+        for (Map.Entry<String, byte[]> file : files.entrySet()) {
+            UsersDataManifest.FileVersion version = remote.get(file.getKey());
+            Path target = resolve(file.getKey());
+            Scanned local = scanned.get(file.getKey());
+            if (version == null || target == null || !version.isNewerThan(local == null ? null : local.version)
+                    || !version.getHash().equals(Hash.getHash(file.getValue()))) {
+                continue; // Unknown, outside the folder, already replaced, or changed since the manifest was sent
+            }
+            Files.createDirectories(target.getParent());
+            Path temp = Files.createTempFile(target.getParent(), target.getFileName().toString(), ".part");
+            try {
+                Files.write(temp, file.getValue());
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+            // The received version is kept, so the file is not taken for a local change
+            scanned.put(file.getKey(), new Scanned(file.getValue().length,
+                    Files.getLastModifiedTime(target).toMillis(), version));
+            written++;
+        }
+        return written;
+    }
+
+    /**
+     * Returns the path of a file of the folder.
+     *
+     * @param relative The path relative to the folder, with / separators.
+     * @return The path, or null if it points outside the folder.
+     */
+    private Path resolve(String relative) {
+        Path path = root.resolve(relative).normalize();
+        return path.startsWith(root) && !path.equals(root) ? path : null;
+    }
+
+    /**
+     * Returns the path of a file relative to the folder, with / separators on
+     * every system.
+     *
+     * @param path The path of the file.
+     * @return The relative path.
+     */
+    private String relativize(Path path) {
+        return root.relativize(path.toAbsolutePath().normalize()).toString().replace('\\', '/');
+    }
+
+    /**
+     * Hashes the content of a file.
+     *
+     * @param path The file.
+     * @return The SHA-256 hash, in hexadecimal.
+     * @throws IOException If the file cannot be read.
+     */
+    private static String hash(Path path) throws IOException {
+        MessageDigest digest = Hash.sha256();
+        try (InputStream in = Files.newInputStream(path)) {
+            byte[] buffer = new byte[BUFFER];
+            for (int n; (n = in.read(buffer)) > 0;) {
+                digest.update(buffer, 0, n);
+            }
+        }
+        return Hash.toHexString(digest.digest());
+    }
+
+    /**
+     * A file as last seen in the folder.
+     */
+    private static final class Scanned {
+
+        private final long size;                             // Size when hashed
+        private final long modified;                         // Modification time when hashed
+        private final UsersDataManifest.FileVersion version; // Version of that content
+
+        private Scanned(long size, long modified, UsersDataManifest.FileVersion version) {
+            this.size = size;
+            this.modified = modified;
+            this.version = version;
+        }
+    }
+}